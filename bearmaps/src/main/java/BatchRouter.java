@@ -0,0 +1,138 @@
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * This class provides a main method for routing a whole file of requests offline with
+ * <code>Router.shortestPaths</code>. The requests are read in the format of
+ * <code>path_params.txt</code>: start longitude, start latitude, end longitude and end latitude
+ * on four lines per route, with lines starting with <code>#</code> ignored. Routes are written
+ * in the format of <code>path_results.txt</code>, the number of vertices on a line followed by
+ * one vertex ID per line.
+ *
+ * The batch is first routed on pools of 1, 2, 4, ... threads up to the number of processors,
+ * and at least 4, reporting routes per second for each to show how the search scales across
+ * cores. If a results file is given, the batch is then routed once more with one thread per
+ * processor and written out a chunk at a time as each chunk finishes, so only one chunk of
+ * routes is ever held in memory.
+ *
+ * Usage: <code>BatchRouter [osm-file] [params-file] [results-file]</code>
+ */
+public class BatchRouter {
+    private static final String OSM_DB_PATH = "../library-su18/bearmaps/berkeley-2018.osm.xml";
+    private static final String PARAMS_FILE = "path_params.txt";
+    /** The number of routes computed before they are written out. */
+    private static final int CHUNK = 4096;
+
+    public static void main(String[] args) throws IOException {
+        String path = args.length > 0 ? args[0] : OSM_DB_PATH;
+        String paramsFile = args.length > 1 ? args[1] : PARAMS_FILE;
+        GraphDB g = new GraphDB(path);
+        List<RouteRequestParams> requests;
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(paramsFile),
+                StandardCharsets.UTF_8)) {
+            requests = readRequests(in);
+        }
+        int processors = Runtime.getRuntime().availableProcessors();
+        System.out.printf("%s: %d vertices; %s: %d routes; %d processors%n", path, g.size(),
+                paramsFile, requests.size(), processors);
+        /* Build whatever the configured search preprocesses, and warm up, before timing. */
+        Router.shortestPaths(g, requests.subList(0, Math.min(CHUNK, requests.size())));
+
+        int maxThreads = Math.max(4, processors);
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            report(threads + " thread" + (threads == 1 ? "" : "s"), requests.size(),
+                    route(g, requests, threads, null));
+        }
+        if (args.length > 2) {
+            try (BufferedWriter out = Files.newBufferedWriter(Paths.get(args[2]),
+                    StandardCharsets.UTF_8)) {
+                out.write("# number indicates number of vertices along path\n");
+                report("written to " + args[2], requests.size(),
+                        route(g, requests, processors, out));
+            }
+        }
+    }
+
+    /**
+     * Reads routing requests in the format of <code>path_params.txt</code>.
+     *
+     * @param in The requests; blank lines and lines starting with <code>#</code> are skipped.
+     * @return The requests in the order they were read.
+     * @throws IOException If reading fails.
+     */
+    static List<RouteRequestParams> readRequests(BufferedReader in) throws IOException {
+        List<RouteRequestParams> requests = new ArrayList<>();
+        double[] values = new double[4];
+        int count = 0;
+        for (String line = in.readLine(); line != null; line = in.readLine()) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            values[count++] = Double.parseDouble(line);
+            if (count == values.length) {
+                requests.add(new RouteRequestParams.Builder().setStartLon(values[0])
+                        .setStartLat(values[1]).setEndLon(values[2]).setEndLat(values[3])
+                        .create());
+                count = 0;
+            }
+        }
+        if (count != 0) {
+            throw new IllegalArgumentException("Incomplete request: " + count + " of "
+                    + values.length + " coordinates after the last full one");
+        }
+        return requests;
+    }
+
+    /**
+     * Routes every request on a pool of <code>threads</code> workers, a chunk at a time.
+     *
+     * @param out Receives each route in the format of <code>path_results.txt</code>, or null to
+     *            discard the routes.
+     * @return The elapsed time in milliseconds.
+     */
+    private static double route(GraphDB g, List<RouteRequestParams> requests, int threads,
+                                Writer out) throws IOException {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            long start = System.nanoTime();
+            for (int from = 0; from < requests.size(); from += CHUNK) {
+                List<List<Long>> paths = Router.shortestPaths(g,
+                        requests.subList(from, Math.min(from + CHUNK, requests.size())), pool);
+                if (out != null) {
+                    write(paths, out);
+                }
+            }
+            if (out != null) {
+                out.flush();
+            }
+            return (System.nanoTime() - start) / 1e6;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static void write(List<List<Long>> paths, Writer out) throws IOException {
+        StringBuilder text = new StringBuilder();
+        for (List<Long> path : paths) {
+            text.append(path.size()).append('\n');
+            for (long id : path) {
+                text.append(id).append('\n');
+            }
+        }
+        out.write(text.toString());
+    }
+
+    private static void report(String label, int routes, double ms) {
+        System.out.printf("%-24s %10.1f ms %12.0f routes/s%n", label, ms,
+                routes / Math.max(ms, 1e-3) * 1000);
+    }
+}
@@ -0,0 +1,180 @@
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Frozen compressed-sparse-row (CSR) adjacency for the road graph. Vertices are dense
+ * <code>int</code> indices in <code>[0, numVertices())</code>, and the outgoing edges of vertex
+ * <code>v</code> occupy the slots <code>[offsets[v], offsets[v + 1])</code> of the parallel
+ * <code>targets</code>, <code>weights</code> and <code>wayIdx</code> arrays. Every road is
+ * two-way, so each undirected road segment is stored once in each direction.
+ *
+ * The arrays are held as NIO buffers so that a graph built in memory (heap buffers wrapping
+ * arrays) and a graph opened from a snapshot (views of a memory-mapped file) share one code path.
+ * Instances are immutable once created; use a <code>CSRGraph.Builder</code> to collect edges and
+ * freeze them.
+ */
+public class CSRGraph {
+    /** Start of each vertex's edge range; has <code>numVertices() + 1</code> entries. */
+    final IntBuffer offsets;
+    /** Target vertex of each edge. */
+    final IntBuffer targets;
+    /** Length of each edge in miles. */
+    final FloatBuffer weights;
+    /** Index of the way each edge belongs to. */
+    final IntBuffer wayIdx;
+
+    CSRGraph(IntBuffer offsets, IntBuffer targets, FloatBuffer weights, IntBuffer wayIdx) {
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.wayIdx = wayIdx;
+    }
+
+    /**
+     * Callback for visiting the neighbors of a vertex without allocating an iterator or boxing
+     * the neighbor indices.
+     */
+    public interface NeighborVisitor {
+        /**
+         * Called once for every edge leaving <code>from</code>.
+         *
+         * @param from   The vertex whose neighbors are being visited.
+         * @param to     The neighboring vertex.
+         * @param weight The length of the edge in miles.
+         * @param edge   The index of the edge, usable with <code>way</code>.
+         */
+        void visit(int from, int to, float weight, int edge);
+    }
+
+    public int numVertices() {
+        return offsets.limit() - 1;
+    }
+
+    public int numEdges() {
+        return targets.limit();
+    }
+
+    public int degree(int v) {
+        return offsets.get(v + 1) - offsets.get(v);
+    }
+
+    /** Returns the index of the first edge leaving <code>v</code>. */
+    public int firstEdge(int v) {
+        return offsets.get(v);
+    }
+
+    /** Returns one past the index of the last edge leaving <code>v</code>. */
+    public int endEdge(int v) {
+        return offsets.get(v + 1);
+    }
+
+    /** Returns the vertex <code>edge</code> leaves, found by binary search. */
+    public int source(int edge) {
+        int lo = 0;
+        int hi = numVertices() - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (offsets.get(mid) <= edge) {
+                lo = mid;
+            } else {
+                hi = mid - 1;
+            }
+        }
+        return lo;
+    }
+
+    public int target(int edge) {
+        return targets.get(edge);
+    }
+
+    public float weight(int edge) {
+        return weights.get(edge);
+    }
+
+    public int way(int edge) {
+        return wayIdx.get(edge);
+    }
+
+    /**
+     * Returns a graph with the same vertices and edges as this one but different weights. The
+     * two share every array except the weights.
+     *
+     * @param weights The weight of each edge, indexed like this graph's edges.
+     * @return The reweighted graph.
+     */
+    CSRGraph withWeights(FloatBuffer weights) {
+        return new CSRGraph(offsets, targets, weights, wayIdx);
+    }
+
+    /**
+     * Calls <code>visitor</code> once for every edge leaving <code>v</code>, in insertion order.
+     *
+     * @param v       The vertex whose neighbors should be visited.
+     * @param visitor The callback to invoke for each edge.
+     */
+    public void forEachNeighbor(int v, NeighborVisitor visitor) {
+        for (int e = offsets.get(v), end = offsets.get(v + 1); e < end; e++) {
+            visitor.visit(v, targets.get(e), weights.get(e), e);
+        }
+    }
+
+    /**
+     * Collects directed edges in primitive buffers and freezes them into a
+     * <code>CSRGraph</code>. Edges of the same source vertex keep their insertion order.
+     */
+    public static class Builder {
+        private int size = 0;
+        private int[] from = new int[16];
+        private int[] to = new int[16];
+        private float[] weight = new float[16];
+        private int[] way = new int[16];
+
+        public Builder() {
+        }
+
+        public Builder addEdge(int source, int target, float length, int wayIndex) {
+            if (size == from.length) {
+                int capacity = size * 2;
+                from = Arrays.copyOf(from, capacity);
+                to = Arrays.copyOf(to, capacity);
+                weight = Arrays.copyOf(weight, capacity);
+                way = Arrays.copyOf(way, capacity);
+            }
+            from[size] = source;
+            to[size] = target;
+            weight[size] = length;
+            way[size] = wayIndex;
+            size++;
+            return this;
+        }
+
+        /**
+         * Freezes the collected edges using a counting sort on the source vertex.
+         *
+         * @param numVertices The number of vertices; every endpoint must be below this value.
+         * @return A new <code>CSRGraph</code>.
+         */
+        public CSRGraph create(int numVertices) {
+            int[] offsets = new int[numVertices + 1];
+            for (int i = 0; i < size; i++) {
+                offsets[from[i] + 1]++;
+            }
+            for (int v = 0; v < numVertices; v++) {
+                offsets[v + 1] += offsets[v];
+            }
+            int[] next = Arrays.copyOf(offsets, numVertices);
+            int[] targets = new int[size];
+            float[] weights = new float[size];
+            int[] wayIdx = new int[size];
+            for (int i = 0; i < size; i++) {
+                int slot = next[from[i]]++;
+                targets[slot] = to[i];
+                weights[slot] = weight[i];
+                wayIdx[slot] = way[i];
+            }
+            return new CSRGraph(IntBuffer.wrap(offsets), IntBuffer.wrap(targets),
+                    FloatBuffer.wrap(weights), IntBuffer.wrap(wayIdx));
+        }
+    }
+}
@@ -0,0 +1,126 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+/**
+ * Labels the connected components of a road graph with a concurrent union-find over its edge
+ * list. The vertices are split into ranges, and each worker unions every vertex of its ranges
+ * with its higher-numbered neighbors. Roots are only ever linked below smaller roots, by
+ * compare-and-set, so the workers need no locks, and every component ends up labelled by its
+ * smallest vertex whatever order the unions ran in.
+ */
+public class ConnectedComponents {
+    /** The number of vertex ranges per thread, so that a slow range does not hold up the rest. */
+    private static final int RANGES_PER_THREAD = 4;
+
+    /** The parent of each vertex in the union-find forest; roots are their own parents. */
+    private final AtomicIntegerArray parent;
+
+    private ConnectedComponents(int n) {
+        parent = new AtomicIntegerArray(n);
+        for (int v = 0; v < n; v++) {
+            parent.set(v, v);
+        }
+    }
+
+    /**
+     * Returns the component of every vertex of <code>adjacency</code>. Every edge is stored in
+     * both directions, so following edges one way finds every component.
+     *
+     * @param adjacency The graph.
+     * @param threads   The number of threads to run the unions on.
+     * @return The smallest vertex of each vertex's component, indexed by vertex.
+     */
+    static int[] label(CSRGraph adjacency, int threads) {
+        int n = adjacency.numVertices();
+        ConnectedComponents forest = new ConnectedComponents(n);
+        int[] labels = new int[n];
+        int ranges = Math.max(1, Math.min(n, threads * RANGES_PER_THREAD));
+        ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread t = new Thread(r, "component-union");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            /* Every union must be done before any vertex is labelled by its final root. */
+            List<Future<?>> unions = new ArrayList<>(ranges);
+            for (int i = 0; i < ranges; i++) {
+                int from = (int) ((long) n * i / ranges);
+                int to = (int) ((long) n * (i + 1) / ranges);
+                unions.add(workers.submit(() -> {
+                    for (int v = from; v < to; v++) {
+                        for (int e = adjacency.firstEdge(v); e < adjacency.endEdge(v); e++) {
+                            if (adjacency.target(e) > v) {
+                                forest.union(v, adjacency.target(e));
+                            }
+                        }
+                    }
+                }));
+            }
+            await(unions);
+            List<Future<?>> finds = new ArrayList<>(ranges);
+            for (int i = 0; i < ranges; i++) {
+                int from = (int) ((long) n * i / ranges);
+                int to = (int) ((long) n * (i + 1) / ranges);
+                finds.add(workers.submit(() -> {
+                    for (int v = from; v < to; v++) {
+                        labels[v] = forest.find(v);
+                    }
+                }));
+            }
+            await(finds);
+        } finally {
+            workers.shutdownNow();
+        }
+        return labels;
+    }
+
+    private static void await(List<Future<?>> tasks) {
+        try {
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while labelling components", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        }
+    }
+
+    /** Returns the root of <code>v</code>'s tree, halving the path on the way. */
+    private int find(int v) {
+        int p = parent.get(v);
+        while (p != v) {
+            int grandparent = parent.get(p);
+            /* Losing this race only means another thread already shortened the path. */
+            parent.compareAndSet(v, p, grandparent);
+            v = grandparent;
+            p = parent.get(v);
+        }
+        return v;
+    }
+
+    /** Joins the trees of <code>v</code> and <code>w</code>, keeping the smaller root. */
+    private void union(int v, int w) {
+        while (true) {
+            int a = find(v);
+            int b = find(w);
+            if (a == b) {
+                return;
+            }
+            /* A root stays a root until linked, so retry if another thread linked it first. */
+            if (a < b ? parent.compareAndSet(b, b, a) : parent.compareAndSet(a, a, b)) {
+                return;
+            }
+        }
+    }
+}
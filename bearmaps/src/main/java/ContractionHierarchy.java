@@ -0,0 +1,877 @@
+import java.io.IOException;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntConsumer;
+
+/**
+ * A Contraction Hierarchy over a <code>GraphDB</code>, answering shortest-path queries by
+ * searching only a few hundred vertices however far apart the endpoints are.
+ *
+ * Preprocessing contracts the vertices one by one, from least to most important. Contracting
+ * <code>v</code> removes it from the remaining graph and, for every pair of remaining neighbors
+ * <code>u</code>, <code>w</code> whose shortest connection ran through <code>v</code>, adds a
+ * shortcut <code>u - w</code> as long as <code>u - v - w</code>. A bounded Dijkstra, the witness
+ * search, decides whether another route is at least as short and the shortcut can be skipped.
+ * Importance is twice the edge difference, the shortcuts contraction would add minus the edges
+ * it would remove, plus the number of already contracted neighbors and the depth of the
+ * hierarchy below the vertex, both of which spread contraction evenly over the map. Each round
+ * contracts, in parallel, every vertex whose importance is lower than that of all its remaining
+ * neighbors; these form an independent set, and witness searches avoid the whole set so that no
+ * two of its vertices rely on each other as witnesses.
+ *
+ * The rank of a vertex is when it was contracted. Every road and shortcut is kept once, as an
+ * upward edge from its lower-ranked end, so a query is a bidirectional Dijkstra in which both
+ * sides only climb: forward from the source and backward from the destination over the same
+ * upward edges, since every road is two-way. Shortcuts remember the vertex they bypass and are
+ * unpacked recursively, so routes come back as the same vertex lists <code>Router</code> returns.
+ *
+ * A hierarchy can be written next to the graph's snapshot with <code>write</code> and mapped
+ * back with <code>load</code>; it records a hash of the graph and refuses to load against any
+ * other graph.
+ */
+public class ContractionHierarchy {
+    /** Snapshot section tags. */
+    private static final int GRAPH_HASH = 1, RANKS = 2, OFFSETS = 3, TARGETS = 4, WEIGHTS = 5,
+            MIDDLES = 6;
+    /**
+     * Vertices a witness search may settle before giving up and keeping the shortcut, when
+     * contracting and when only estimating a priority. Priorities are recomputed far more often
+     * than vertices are contracted, and only need to rank vertices roughly.
+     */
+    private static final int WITNESS_SETTLE_LIMIT = 500;
+    private static final int ESTIMATE_SETTLE_LIMIT = 20;
+
+    private final GraphDB g;
+    /** Contraction order of each vertex; the first contracted has rank 0. */
+    final IntBuffer ranks;
+    /** Edges of vertex <code>v</code> to higher-ranked vertices are <code>[offsets[v],
+     * offsets[v + 1])</code> of the parallel arrays below. */
+    final IntBuffer offsets;
+    final IntBuffer targets;
+    final DoubleBuffer weights;
+    /** The vertex a shortcut bypasses, or -1 for a road segment of the graph. */
+    final IntBuffer middles;
+    /** Query state, reused by every query on the same thread. */
+    private final ThreadLocal<Query> queries;
+
+    private ContractionHierarchy(GraphDB g, IntBuffer ranks, IntBuffer offsets,
+                                 IntBuffer targets, DoubleBuffer weights, IntBuffer middles) {
+        this.g = g;
+        this.ranks = ranks;
+        this.offsets = offsets;
+        this.targets = targets;
+        this.weights = weights;
+        this.middles = middles;
+        this.queries = ThreadLocal.withInitial(() -> new Query(g.size()));
+    }
+
+    /**
+     * Maps the hierarchy stored in <code>file</code> if it was built for <code>g</code>, and
+     * otherwise builds one and tries to store it there. Failing to store is reported but not
+     * fatal.
+     *
+     * @param g    The graph.
+     * @param file Where the hierarchy lives, or null to build it in memory only.
+     * @return The hierarchy.
+     */
+    static ContractionHierarchy open(GraphDB g, Path file) {
+        if (file != null && Files.isRegularFile(file)) {
+            try {
+                return load(g, file);
+            } catch (IOException e) {
+                System.err.println("Ignoring unusable contraction hierarchy " + file + ": "
+                        + e.getMessage());
+            }
+        }
+        ContractionHierarchy hierarchy = build(g, defaultThreads());
+        if (file != null) {
+            Path temp = null;
+            try {
+                temp = Files.createTempFile(file.toAbsolutePath().getParent(),
+                        file.getFileName().toString(), ".tmp");
+                hierarchy.write(temp);
+                Files.move(temp, file, StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+                temp = null;
+            } catch (IOException e) {
+                System.err.println("Unable to write contraction hierarchy " + file + ": "
+                        + e.getMessage());
+            } finally {
+                if (temp != null) {
+                    try {
+                        Files.deleteIfExists(temp);
+                    } catch (IOException ignored) {
+                        /* Nothing else to clean up. */
+                    }
+                }
+            }
+        }
+        return hierarchy;
+    }
+
+    /**
+     * Maps a hierarchy written by <code>write</code>.
+     *
+     * @param g    The graph the hierarchy was built for.
+     * @param file The hierarchy file.
+     * @return The hierarchy, served from the mapped file.
+     * @throws IOException If the file cannot be read or belongs to a different graph.
+     */
+    public static ContractionHierarchy load(GraphDB g, Path file) throws IOException {
+        GraphSnapshot snapshot = GraphSnapshot.map(file);
+        if (!snapshot.has(GRAPH_HASH) || snapshot.longs(GRAPH_HASH).get(0) != graphHash(g)) {
+            throw new IOException("Contraction hierarchy " + file + " is for a different graph");
+        }
+        return new ContractionHierarchy(g, snapshot.ints(RANKS), snapshot.ints(OFFSETS),
+                snapshot.ints(TARGETS), snapshot.doubles(WEIGHTS), snapshot.ints(MIDDLES));
+    }
+
+    /**
+     * Writes this hierarchy to <code>file</code>.
+     *
+     * @param file The file to write.
+     * @throws IOException If the file cannot be written.
+     */
+    public void write(Path file) throws IOException {
+        new GraphSnapshot()
+                .putLongs(GRAPH_HASH, LongBuffer.wrap(new long[] {graphHash(g)}))
+                .putInts(RANKS, ranks)
+                .putInts(OFFSETS, offsets)
+                .putInts(TARGETS, targets)
+                .putDoubles(WEIGHTS, weights)
+                .putInts(MIDDLES, middles)
+                .write(file);
+    }
+
+    /**
+     * Returns where the hierarchy of the graph in <code>graphFile</code> is kept.
+     *
+     * @param graphFile A graph snapshot or graph cache entry.
+     * @return The file next to it.
+     */
+    static Path fileFor(Path graphFile) {
+        return graphFile.resolveSibling(graphFile.getFileName() + ".ch");
+    }
+
+    /** Hashes the vertex IDs and the adjacency of <code>g</code>. */
+    private static long graphHash(GraphDB g) {
+        CSRGraph adjacency = g.adjacency();
+        long hash = g.size();
+        for (int v = 0; v < g.size(); v++) {
+            hash = mix(hash, g.id(v));
+            hash = mix(hash, adjacency.firstEdge(v));
+        }
+        for (int e = 0; e < adjacency.numEdges(); e++) {
+            hash = mix(hash, adjacency.target(e));
+            hash = mix(hash, Float.floatToIntBits(adjacency.weight(e)));
+        }
+        return hash;
+    }
+
+    private static long mix(long hash, long value) {
+        return (hash ^ value) * 0x9E3779B97F4A7C15L + 0x632BE59BD9B4E019L;
+    }
+
+    static int defaultThreads() {
+        return Integer.getInteger("bearmaps.ch.threads",
+                Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Contracts every vertex of <code>g</code>.
+     *
+     * @param g       The graph.
+     * @param threads The number of threads to contract with.
+     * @return The hierarchy.
+     */
+    public static ContractionHierarchy build(GraphDB g, int threads) {
+        ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "ch-contractor");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            return new Contraction(g, workers, threads).run();
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    /**
+     * Return a <code>List</code> of vertex IDs corresponding to the shortest path from a given
+     * starting coordinate and destination coordinate, in the same form as
+     * <code>Router.shortestPath</code>.
+     *
+     * @param stlon   The longitude of the starting coordinate.
+     * @param stlat   The latitude of the starting coordinate.
+     * @param destlon The longitude of the destination coordinate.
+     * @param destlat The latitude of the destination coordinate.
+     * @param stats   Receives the work done by the query, or null.
+     * @return The <code>List</code> of vertex IDs corresponding to the shortest path.
+     */
+    public List<Long> shortestPath(double stlon, double stlat, double destlon, double destlat,
+                                   Router.SearchStats stats) {
+        return shortestPath(g.routingIndex(stlon, stlat), g.routingIndex(destlon, destlat),
+                stats == null ? new Router.SearchStats() : stats);
+    }
+
+    /**
+     * Returns the shortest route between two vertices.
+     *
+     * @param source The index of the starting vertex.
+     * @param dest   The index of the destination vertex.
+     * @param stats  Receives the work done by the query.
+     * @return The vertex IDs of the route, or an empty list if there is none.
+     */
+    List<Long> shortestPath(int source, int dest, Router.SearchStats stats) {
+        Query q = queries.get();
+        int meeting = q.run(this, source, dest, stats);
+        if (meeting < 0) {
+            q.reset();
+            return Collections.emptyList();
+        }
+        List<Long> route = new ArrayList<>();
+        route.add(g.id(source));
+        if (source == dest) {
+            /* Router.pathFinder reports a route to the start itself this way too. */
+            route.add(g.id(dest));
+            q.reset();
+            return route;
+        }
+        /* The forward half, climbed from the source, is collected from the top down. */
+        List<Integer> climb = new ArrayList<>();
+        for (int v = meeting; v != source; v = q.forwardParent[v]) {
+            climb.add(v);
+        }
+        int from = source;
+        for (int i = climb.size() - 1; i >= 0; i--) {
+            int to = climb.get(i);
+            unpack(from, to, q.forwardEdge[to], route);
+            from = to;
+        }
+        for (int v = meeting; v != dest; v = q.backwardParent[v]) {
+            unpack(v, q.backwardParent[v], q.backwardEdge[v], route);
+        }
+        q.reset();
+        return route;
+    }
+
+    /**
+     * Returns the road distances from every source vertex to every target vertex by the bucket
+     * method. Each target's upward search leaves its distance in a bucket at every vertex it
+     * settles; each source's upward search then reads the buckets of the vertices it settles,
+     * since the shortest route between any pair peaks at a vertex both searches reach. That is
+     * one small search per endpoint rather than one search per source over the whole map.
+     *
+     * @param sources The indices of the source vertices.
+     * @param targets The indices of the target vertices.
+     * @return The distance from source <code>i</code> to target <code>j</code> at
+     * <code>i * targets.length + j</code>, or infinity if there is no route.
+     */
+    double[] distanceTable(int[] sources, int[] targets) {
+        Query q = queries.get();
+        /* Bucket entries as vertex << 32 | target, with the distances alongside. */
+        long[] entries = new long[64];
+        double[] distances = new double[64];
+        int count = 0;
+        for (int j = 0; j < targets.length; j++) {
+            int settled = q.climb(this, targets[j]);
+            if (count + settled > entries.length) {
+                int capacity = Math.max(entries.length * 2, count + settled);
+                entries = Arrays.copyOf(entries, capacity);
+                distances = Arrays.copyOf(distances, capacity);
+            }
+            for (int i = 0; i < settled; i++) {
+                int v = q.climbed[i];
+                entries[count] = (long) v << 32 | j;
+                distances[count++] = q.forwardDist[v];
+            }
+            q.reset();
+        }
+        /* Sort the entries by vertex, keeping each one's distance with it. */
+        long[] order = new long[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = entries[i] >>> 32 << 32 | i;
+        }
+        Arrays.sort(order);
+        int[] bucketVertex = new int[count];
+        int[] bucketTarget = new int[count];
+        double[] bucketDist = new double[count];
+        for (int k = 0; k < count; k++) {
+            int i = (int) order[k];
+            bucketVertex[k] = (int) (entries[i] >>> 32);
+            bucketTarget[k] = (int) entries[i];
+            bucketDist[k] = distances[i];
+        }
+
+        double[] table = new double[sources.length * targets.length];
+        Arrays.fill(table, Double.POSITIVE_INFINITY);
+        for (int s = 0; s < sources.length; s++) {
+            int settled = q.climb(this, sources[s]);
+            int row = s * targets.length;
+            for (int i = 0; i < settled; i++) {
+                int v = q.climbed[i];
+                double up = q.forwardDist[v];
+                int k = Arrays.binarySearch(bucketVertex, v);
+                if (k < 0) {
+                    continue;
+                }
+                while (k > 0 && bucketVertex[k - 1] == v) {
+                    k--;
+                }
+                for (; k < count && bucketVertex[k] == v; k++) {
+                    table[row + bucketTarget[k]] = Math.min(table[row + bucketTarget[k]],
+                            up + bucketDist[k]);
+                }
+            }
+            q.reset();
+        }
+        return table;
+    }
+
+    /**
+     * Appends the vertices after <code>from</code> up to and including <code>to</code> along
+     * <code>edge</code>, which joins them, expanding shortcuts into the roads they stand for.
+     */
+    private void unpack(int from, int to, int edge, List<Long> route) {
+        int middle = middles.get(edge);
+        if (middle < 0) {
+            route.add(g.id(to));
+            return;
+        }
+        /* The bypassed vertex was contracted before both ends, so both halves climb from it. */
+        unpack(from, middle, upwardEdge(middle, from), route);
+        unpack(middle, to, upwardEdge(middle, to), route);
+    }
+
+    /** Returns the upward edge from <code>low</code> to <code>high</code>. */
+    private int upwardEdge(int low, int high) {
+        for (int e = offsets.get(low); e < offsets.get(low + 1); e++) {
+            if (targets.get(e) == high) {
+                return e;
+            }
+        }
+        throw new IllegalStateException("Missing edge " + low + " - " + high);
+    }
+
+    /** Returns the number of upward edges, roads and shortcuts together. */
+    int numEdges() {
+        return targets.limit();
+    }
+
+    /** Reusable state of a bidirectional upward search. */
+    private static class Query {
+        final double[] forwardDist;
+        final double[] backwardDist;
+        final int[] forwardParent;
+        final int[] backwardParent;
+        /** The upward edge each vertex was reached over. */
+        final int[] forwardEdge;
+        final int[] backwardEdge;
+        final IndexedMinHeap forward;
+        final IndexedMinHeap backward;
+        /** Vertices whose distances are set, so reset touches only those. */
+        final int[] touched;
+        int touchedCount;
+        /** The vertices kept by the last <code>climb</code>, in the order they were settled. */
+        final int[] climbed;
+
+        Query(int n) {
+            forwardDist = new double[n];
+            backwardDist = new double[n];
+            forwardParent = new int[n];
+            backwardParent = new int[n];
+            forwardEdge = new int[n];
+            backwardEdge = new int[n];
+            forward = new IndexedMinHeap(n);
+            backward = new IndexedMinHeap(n);
+            touched = new int[n];
+            climbed = new int[n];
+            Arrays.fill(forwardDist, Double.POSITIVE_INFINITY);
+            Arrays.fill(backwardDist, Double.POSITIVE_INFINITY);
+        }
+
+        /**
+         * Searches upward from both ends. A side stops once its smallest key reaches the best
+         * meeting length, since every later vertex it settles is at least that far away.
+         *
+         * @return The vertex where the shortest route peaks, or -1 if there is none.
+         */
+        int run(ContractionHierarchy ch, int source, int dest, Router.SearchStats stats) {
+            touch(source);
+            touch(dest);
+            forwardDist[source] = 0.0;
+            backwardDist[dest] = 0.0;
+            forward.offer(source, 0.0);
+            backward.offer(dest, 0.0);
+            double best = source == dest ? 0.0 : Double.POSITIVE_INFINITY;
+            int meeting = source == dest ? source : -1;
+            while (!forward.isEmpty() || !backward.isEmpty()) {
+                boolean forwardSide = !forward.isEmpty()
+                        && (backward.isEmpty() || forward.peekKey() <= backward.peekKey());
+                IndexedMinHeap heap = forwardSide ? forward : backward;
+                if (heap.peekKey() >= best) {
+                    heap.clear();
+                    continue;
+                }
+                double[] dist = forwardSide ? forwardDist : backwardDist;
+                double[] other = forwardSide ? backwardDist : forwardDist;
+                int[] parent = forwardSide ? forwardParent : backwardParent;
+                int[] via = forwardSide ? forwardEdge : backwardEdge;
+                int v = heap.poll();
+                stats.settled++;
+                if (dist[v] + other[v] < best) {
+                    best = dist[v] + other[v];
+                    meeting = v;
+                }
+                if (stalled(ch, v, dist)) {
+                    continue;
+                }
+                for (int e = ch.offsets.get(v); e < ch.offsets.get(v + 1); e++) {
+                    int w = ch.targets.get(e);
+                    double candidate = dist[v] + ch.weights.get(e);
+                    if (candidate < dist[w]) {
+                        if (forwardDist[w] == Double.POSITIVE_INFINITY
+                                && backwardDist[w] == Double.POSITIVE_INFINITY) {
+                            touch(w);
+                        }
+                        dist[w] = candidate;
+                        parent[w] = v;
+                        via[w] = e;
+                        heap.offer(w, candidate);
+                        stats.relaxed++;
+                    }
+                }
+            }
+            stats.distance = best;
+            return meeting;
+        }
+
+        /**
+         * Settles every vertex upward of <code>start</code>, leaving their distances in
+         * <code>forwardDist</code> and listing in <code>climbed</code> those that are not
+         * stalled, since no shortest route peaks at a stalled vertex.
+         *
+         * @return The number of vertices listed; call <code>reset</code> once they are read.
+         */
+        int climb(ContractionHierarchy ch, int start) {
+            touch(start);
+            forwardDist[start] = 0.0;
+            forward.offer(start, 0.0);
+            int count = 0;
+            while (!forward.isEmpty()) {
+                int v = forward.poll();
+                if (stalled(ch, v, forwardDist)) {
+                    continue;
+                }
+                climbed[count++] = v;
+                for (int e = ch.offsets.get(v); e < ch.offsets.get(v + 1); e++) {
+                    int w = ch.targets.get(e);
+                    double candidate = forwardDist[v] + ch.weights.get(e);
+                    if (candidate < forwardDist[w]) {
+                        if (forwardDist[w] == Double.POSITIVE_INFINITY) {
+                            touch(w);
+                        }
+                        forwardDist[w] = candidate;
+                        forward.offer(w, candidate);
+                    }
+                }
+            }
+            return count;
+        }
+
+        /**
+         * Stall-on-demand: <code>v</code> need not be expanded if a higher-ranked neighbor
+         * already offers a shorter way to it, since then no shortest route climbs through it.
+         */
+        private static boolean stalled(ContractionHierarchy ch, int v, double[] dist) {
+            for (int e = ch.offsets.get(v); e < ch.offsets.get(v + 1); e++) {
+                if (dist[ch.targets.get(e)] + ch.weights.get(e) < dist[v]) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void touch(int v) {
+            touched[touchedCount++] = v;
+        }
+
+        void reset() {
+            for (int i = 0; i < touchedCount; i++) {
+                forwardDist[touched[i]] = Double.POSITIVE_INFINITY;
+                backwardDist[touched[i]] = Double.POSITIVE_INFINITY;
+            }
+            touchedCount = 0;
+            forward.clear();
+            backward.clear();
+        }
+    }
+
+    /** The state of one preprocessing run. */
+    private static class Contraction {
+        private final GraphDB g;
+        private final int n;
+        private final ExecutorService workers;
+        private final int threads;
+        /**
+         * Neighbors, edge lengths and bypassed vertices of each vertex, growing as needed. A
+         * contracted vertex is dropped from its neighbors' lists, and its own list, which then
+         * holds only higher-ranked vertices, is frozen as its upward edges.
+         */
+        private final int[][] neighbors;
+        private final double[][] lengths;
+        private final int[][] bypassed;
+        private final int[] degree;
+        /** Vertices being contracted in the current round, which witness searches avoid. */
+        private final boolean[] contracting;
+        private final int[] deletedNeighbors;
+        /** The longest chain of contracted vertices below each vertex. */
+        private final int[] depth;
+        private final int[] priority;
+        private final int[] rank;
+        private final ThreadLocal<Witness> witnesses;
+
+        Contraction(GraphDB g, ExecutorService workers, int threads) {
+            this.g = g;
+            this.n = g.size();
+            this.workers = workers;
+            this.threads = threads;
+            neighbors = new int[n][];
+            lengths = new double[n][];
+            bypassed = new int[n][];
+            degree = new int[n];
+            contracting = new boolean[n];
+            deletedNeighbors = new int[n];
+            depth = new int[n];
+            priority = new int[n];
+            rank = new int[n];
+            witnesses = ThreadLocal.withInitial(() -> new Witness(n));
+            CSRGraph adjacency = g.adjacency();
+            for (int v = 0; v < n; v++) {
+                int capacity = Math.max(4, adjacency.degree(v));
+                neighbors[v] = new int[capacity];
+                lengths[v] = new double[capacity];
+                bypassed[v] = new int[capacity];
+                for (int e = adjacency.firstEdge(v); e < adjacency.endEdge(v); e++) {
+                    if (adjacency.target(e) != v) {
+                        addHalf(v, adjacency.target(e), adjacency.weight(e), -1);
+                    }
+                }
+            }
+        }
+
+        ContractionHierarchy run() {
+            int[] remaining = new int[n];
+            for (int v = 0; v < n; v++) {
+                remaining[v] = v;
+            }
+            int remainingCount = n;
+            parallelFor(n, v -> priority[v] = simulate(v, witnesses.get(), null));
+            boolean[] selected = new boolean[n];
+            boolean[] dirty = new boolean[n];
+            int nextRank = 0;
+            while (remainingCount > 0) {
+                int[] candidates = remaining;
+                parallelFor(remainingCount, i -> selected[candidates[i]] =
+                        isLocalMinimum(candidates[i]));
+                int[] batch = new int[remainingCount];
+                int batchSize = 0;
+                int kept = 0;
+                for (int i = 0; i < remainingCount; i++) {
+                    int v = remaining[i];
+                    if (selected[v]) {
+                        batch[batchSize++] = v;
+                        contracting[v] = true;
+                    } else {
+                        remaining[kept++] = v;
+                    }
+                }
+                remainingCount = kept;
+
+                Shortcuts[] shortcuts = new Shortcuts[batchSize];
+                int[] contractedNow = batch;
+                parallelFor(batchSize, i -> {
+                    shortcuts[i] = new Shortcuts();
+                    simulate(contractedNow[i], witnesses.get(), shortcuts[i]);
+                });
+                for (int i = 0; i < batchSize; i++) {
+                    int v = batch[i];
+                    rank[v] = nextRank++;
+                    contracting[v] = false;
+                    selected[v] = false;
+                    Shortcuts s = shortcuts[i];
+                    for (int k = 0; k < s.count; k++) {
+                        addHalf(s.from[k], s.to[k], s.length[k], v);
+                        addHalf(s.to[k], s.from[k], s.length[k], v);
+                    }
+                    for (int j = 0; j < degree[v]; j++) {
+                        int u = neighbors[v][j];
+                        removeHalf(u, v);
+                        deletedNeighbors[u]++;
+                        depth[u] = Math.max(depth[u], depth[v] + 1);
+                        dirty[u] = true;
+                    }
+                }
+                int[] stale = new int[remainingCount];
+                int staleCount = 0;
+                for (int i = 0; i < remainingCount; i++) {
+                    if (dirty[remaining[i]]) {
+                        dirty[remaining[i]] = false;
+                        stale[staleCount++] = remaining[i];
+                    }
+                }
+                parallelFor(staleCount, i -> priority[stale[i]] =
+                        simulate(stale[i], witnesses.get(), null));
+            }
+            return freeze();
+        }
+
+        /** Whether <code>v</code> is more contractible than every remaining neighbor. */
+        private boolean isLocalMinimum(int v) {
+            for (int j = 0; j < degree[v]; j++) {
+                if (before(neighbors[v][j], v)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Orders vertices by priority, breaking ties by a hash that scatters them spatially. */
+        private boolean before(int u, int v) {
+            if (priority[u] != priority[v]) {
+                return priority[u] < priority[v];
+            }
+            int hu = u * 0x9E3779B1;
+            int hv = v * 0x9E3779B1;
+            return hu != hv ? hu < hv : u < v;
+        }
+
+        /**
+         * Finds the shortcuts that contracting <code>v</code> needs.
+         *
+         * @param v         The vertex to contract.
+         * @param witness   The calling thread's search state.
+         * @param shortcuts Receives the shortcuts, or null to only count them.
+         * @return The priority of <code>v</code>, lower for vertices to contract sooner.
+         */
+        private int simulate(int v, Witness witness, Shortcuts shortcuts) {
+            int[] around = neighbors[v];
+            double[] via = lengths[v];
+            int count = degree[v];
+            int added = 0;
+            for (int i = 0; i < count - 1; i++) {
+                double maxLength = 0;
+                for (int j = i + 1; j < count; j++) {
+                    maxLength = Math.max(maxLength, via[i] + via[j]);
+                }
+                witness.search(this, around[i], v, around, i + 1, count, maxLength,
+                        shortcuts == null ? ESTIMATE_SETTLE_LIMIT : WITNESS_SETTLE_LIMIT);
+                for (int j = i + 1; j < count; j++) {
+                    if (witness.dist[around[j]] > via[i] + via[j]) {
+                        added++;
+                        if (shortcuts != null) {
+                            shortcuts.add(around[i], around[j], via[i] + via[j]);
+                        }
+                    }
+                }
+                witness.reset();
+            }
+            return 2 * (added - count) + deletedNeighbors[v] + depth[v];
+        }
+
+        /** Adds or shortens the edge from <code>u</code> to <code>w</code> in u's list only. */
+        private void addHalf(int u, int w, double length, int middle) {
+            for (int j = 0; j < degree[u]; j++) {
+                if (neighbors[u][j] == w) {
+                    if (length < lengths[u][j]) {
+                        lengths[u][j] = length;
+                        bypassed[u][j] = middle;
+                    }
+                    return;
+                }
+            }
+            if (degree[u] == neighbors[u].length) {
+                int capacity = neighbors[u].length * 2;
+                neighbors[u] = Arrays.copyOf(neighbors[u], capacity);
+                lengths[u] = Arrays.copyOf(lengths[u], capacity);
+                bypassed[u] = Arrays.copyOf(bypassed[u], capacity);
+            }
+            neighbors[u][degree[u]] = w;
+            lengths[u][degree[u]] = length;
+            bypassed[u][degree[u]] = middle;
+            degree[u]++;
+        }
+
+        /** Removes <code>w</code> from the list of <code>u</code>. */
+        private void removeHalf(int u, int w) {
+            for (int j = 0; j < degree[u]; j++) {
+                if (neighbors[u][j] == w) {
+                    int last = --degree[u];
+                    neighbors[u][j] = neighbors[u][last];
+                    lengths[u][j] = lengths[u][last];
+                    bypassed[u][j] = bypassed[u][last];
+                    return;
+                }
+            }
+        }
+
+        /** Collects the frozen lists of all vertices as the upward adjacency. */
+        private ContractionHierarchy freeze() {
+            int[] offsets = new int[n + 1];
+            for (int v = 0; v < n; v++) {
+                offsets[v + 1] = offsets[v] + degree[v];
+            }
+            int[] targets = new int[offsets[n]];
+            double[] weights = new double[offsets[n]];
+            int[] middles = new int[offsets[n]];
+            for (int v = 0; v < n; v++) {
+                int e = offsets[v];
+                for (int j = 0; j < degree[v]; j++, e++) {
+                    targets[e] = neighbors[v][j];
+                    weights[e] = lengths[v][j];
+                    middles[e] = bypassed[v][j];
+                }
+            }
+            return new ContractionHierarchy(g, IntBuffer.wrap(rank), IntBuffer.wrap(offsets),
+                    IntBuffer.wrap(targets), DoubleBuffer.wrap(weights),
+                    IntBuffer.wrap(middles));
+        }
+
+        /** Runs <code>body</code> for every index in <code>[0, count)</code> on the workers. */
+        private void parallelFor(int count, IntConsumer body) {
+            if (count < 64 || threads == 1) {
+                for (int i = 0; i < count; i++) {
+                    body.accept(i);
+                }
+                return;
+            }
+            int chunks = threads * 4;
+            List<Future<?>> pending = new ArrayList<>(chunks);
+            for (int c = 0; c < chunks; c++) {
+                int from = (int) ((long) count * c / chunks);
+                int to = (int) ((long) count * (c + 1) / chunks);
+                pending.add(workers.submit(() -> {
+                    for (int i = from; i < to; i++) {
+                        body.accept(i);
+                    }
+                }));
+            }
+            try {
+                for (Future<?> chunk : pending) {
+                    chunk.get();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while contracting", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+    }
+
+    /** Shortcuts found for one contracted vertex. */
+    private static class Shortcuts {
+        int[] from = new int[4];
+        int[] to = new int[4];
+        double[] length = new double[4];
+        int count;
+
+        void add(int u, int w, double l) {
+            if (count == from.length) {
+                from = Arrays.copyOf(from, count * 2);
+                to = Arrays.copyOf(to, count * 2);
+                length = Arrays.copyOf(length, count * 2);
+            }
+            from[count] = u;
+            to[count] = w;
+            length[count] = l;
+            count++;
+        }
+    }
+
+    /** Reusable state of the bounded Dijkstra searches that look for witnesses. */
+    private static class Witness {
+        final double[] dist;
+        final IndexedMinHeap heap;
+        final int[] touched;
+        int touchedCount;
+        /** Marks the targets of the current search with its stamp. */
+        final int[] targetStamp;
+        int stamp;
+
+        Witness(int n) {
+            dist = new double[n];
+            heap = new IndexedMinHeap(n);
+            touched = new int[n];
+            targetStamp = new int[n];
+            Arrays.fill(dist, Double.POSITIVE_INFINITY);
+        }
+
+        /**
+         * Runs Dijkstra from <code>source</code> over the remaining graph without passing
+         * through <code>skip</code>, until every vertex in <code>targets[from, to)</code> is
+         * settled, the search passes <code>maxLength</code>, or it settles
+         * <code>WITNESS_SETTLE_LIMIT</code> vertices. Distances are left in <code>dist</code>;
+         * unsettled targets may be overestimated, which only costs an unneeded shortcut.
+         */
+        void search(Contraction c, int source, int skip, int[] targets, int from, int to,
+                    double maxLength, int settleLimit) {
+            touched[touchedCount++] = source;
+            dist[source] = 0.0;
+            heap.offer(source, 0.0);
+            int settled = 0;
+            int pendingTargets = to - from;
+            stamp++;
+            for (int i = from; i < to; i++) {
+                targetStamp[targets[i]] = stamp;
+            }
+            while (!heap.isEmpty() && heap.peekKey() <= maxLength
+                    && settled < settleLimit && pendingTargets > 0) {
+                int v = heap.poll();
+                settled++;
+                if (targetStamp[v] == stamp) {
+                    pendingTargets--;
+                }
+                for (int j = 0; j < c.degree[v]; j++) {
+                    int w = c.neighbors[v][j];
+                    if (w == skip || c.contracting[w]) {
+                        continue;
+                    }
+                    double candidate = dist[v] + c.lengths[v][j];
+                    if (candidate < dist[w] && candidate <= maxLength) {
+                        if (dist[w] == Double.POSITIVE_INFINITY) {
+                            touched[touchedCount++] = w;
+                        }
+                        dist[w] = candidate;
+                        heap.offer(w, candidate);
+                    }
+                }
+            }
+        }
+
+        void reset() {
+            for (int i = 0; i < touchedCount; i++) {
+                dist[touched[i]] = Double.POSITIVE_INFINITY;
+            }
+            touchedCount = 0;
+            heap.clear();
+        }
+    }
+}
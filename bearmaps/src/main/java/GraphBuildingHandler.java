@@ -2,8 +2,6 @@ import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 import org.xml.sax.helpers.DefaultHandler;
 
-import java.util.Set;
-
 /**
  * Parses OSM XML files using an XML SAX parser. Used to construct the graph of roads for
  * pathfinding, under some constraints.
@@ -24,29 +22,20 @@ import java.util.Set;
  * @author Alan Yao, Maurice Lee
  */
 public class GraphBuildingHandler extends DefaultHandler {
-    /**
-     * Only allow for non-service roads; this prevents going on pedestrian streets as much as
-     * possible. Note that in Berkeley, many of the campus roads are tagged as motor vehicle
-     * roads, but in practice we walk all over them with such impunity that we forget cars can
-     * actually drive on them.
-     */
-    private static final Set<String> ALLOWED_HIGHWAY_TYPES = Set.of(
-            "motorway", "trunk", "primary", "secondary", "tertiary", "unclassified", "residential",
-            "living_street", "motorway_link", "trunk_link", "primary_link", "secondary_link",
-            "tertiary_link"
-    );
     private String activeState = "";
-    private final GraphDB g;
+    private final OsmData data;
     private MapNode lastNode;
     private Way lastWay;
 
+    private long[] refs = new long[64];
+
     /**
      * Create a new GraphBuildingHandler.
      *
-     * @param g The graph to populate with the XML data.
+     * @param data The buffers to fill with the XML data.
      */
-    public GraphBuildingHandler(GraphDB g) {
-        this.g = g;
+    public GraphBuildingHandler(OsmData data) {
+        this.data = data;
     }
 
     @Override
@@ -55,9 +44,9 @@ public class GraphBuildingHandler extends DefaultHandler {
 
         if (qName.equals("node")) {
             activeState = "node";
-            Long id = Long.parseLong(attributes.getValue("id"));
-            Double lon = Double.parseDouble(attributes.getValue("lon"));
-            Double lat = Double.parseDouble(attributes.getValue("lat"));
+            long id = Long.parseLong(attributes.getValue("id"));
+            double lon = Double.parseDouble(attributes.getValue("lon"));
+            double lat = Double.parseDouble(attributes.getValue("lat"));
             lastNode = new MapNode(id, lon, lat);
 
         } else if (qName.equals("way")) {
@@ -95,17 +84,25 @@ public class GraphBuildingHandler extends DefaultHandler {
     @Override
     public void endElement(String uri, String localName, String qName) throws SAXException {
 
-        if (qName.equals("way") && lastWay != null && lastWay.getWayType() != null
-                && ALLOWED_HIGHWAY_TYPES.contains(lastWay.getWayType())) {
-            g.add(lastWay);
+        if (qName.equals("way") && lastWay != null) {
+            int refCount = lastWay.nodes.size();
+            if (refs.length < refCount) {
+                refs = new long[refCount];
+            }
+            for (int i = 0; i < refCount; i++) {
+                refs[i] = lastWay.nodes.get(i);
+            }
+            data.addWay(lastWay.id, lastWay.getWayType(), lastWay.name, refs, refCount);
             activeState = "";
             lastWay = null;
         } else if (qName.equals("node") && !(lastNode == null)) {
-            g.add(lastNode);
+            data.addNode(lastNode.id, lastNode.lon, lastNode.lat);
+            if (lastNode.name != null) {
+                data.addPoi(lastNode.id, lastNode.lon, lastNode.lat, lastNode.name,
+                        lastNode.amenity, lastNode.address);
+            }
             activeState = "";
             lastNode = null;
         }
-
-
     }
 }
@@ -0,0 +1,187 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * On-disk cache of compiled graphs, keyed by a fingerprint of the OSM source file. When
+ * <code>GraphDB</code> is constructed from a file it has compiled before, the cached snapshot is
+ * memory-mapped instead of reparsing the XML.
+ *
+ * The fingerprint is a SHA-256 digest of the file's size, modification time and contents, so any
+ * change to the source picks a new cache entry automatically. Entries are also named by a short
+ * digest of the source's absolute path, so files of the same name in different directories,
+ * such as two checkouts sharing the default cache directory, keep separate entries. Entries are written to a temporary
+ * file, forced to disk and then atomically renamed into place, and every snapshot carries a
+ * checksum, so a crash or a concurrent build can never leave a partially written entry that
+ * would be served.
+ *
+ * The cache lives in <code>${java.io.tmpdir}/bearmaps-cache</code> unless the
+ * <code>bearmaps.cache.dir</code> system property says otherwise, and can be turned off with
+ * <code>-Dbearmaps.cache=false</code>.
+ */
+public class GraphCache {
+    /** Suffix of cache entries. */
+    private static final String SUFFIX = ".bmg";
+    /** Size of the buffer used to digest the source file. */
+    private static final int DIGEST_BUFFER_BYTES = 1 << 20;
+    /** Hex digits of the path digest kept in entry names. */
+    private static final int PATH_DIGITS = 12;
+
+    private final Path directory;
+    /** The source's file name and path digest, which every entry for the source starts with. */
+    private final String baseName;
+    private final Path entry;
+
+    private GraphCache(Path directory, String baseName, String fingerprint) {
+        this.directory = directory;
+        this.baseName = baseName;
+        this.entry = directory.resolve(baseName + "-" + fingerprint + SUFFIX);
+    }
+
+    /**
+     * Returns the cache slot for <code>source</code>.
+     *
+     * @param source The OSM file a graph is built from.
+     * @return The cache slot, or null if caching is disabled or the source cannot be read.
+     */
+    public static GraphCache forSource(Path source) {
+        if (!Boolean.parseBoolean(System.getProperty("bearmaps.cache", "true"))) {
+            return null;
+        }
+        Path directory = Paths.get(System.getProperty("bearmaps.cache.dir",
+                Paths.get(System.getProperty("java.io.tmpdir"), "bearmaps-cache").toString()));
+        try {
+            String pathDigest = hex(digest().digest(source.toAbsolutePath().normalize()
+                    .toString().getBytes(StandardCharsets.UTF_8))).substring(0, PATH_DIGITS);
+            return new GraphCache(directory, source.getFileName() + "-" + pathDigest,
+                    fingerprint(source));
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Returns a hex SHA-256 digest of the size, modification time and contents of
+     * <code>source</code>.
+     *
+     * @param source The file to fingerprint.
+     * @return The fingerprint.
+     * @throws IOException If the file cannot be read.
+     */
+    static String fingerprint(Path source) throws IOException {
+        MessageDigest digest = digest();
+        ByteBuffer buffer = ByteBuffer.allocate(DIGEST_BUFFER_BYTES);
+        buffer.putLong(Files.size(source));
+        buffer.putLong(Files.getLastModifiedTime(source).toMillis());
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+            buffer.flip();
+            digest.update(buffer);
+        }
+        return hex(digest.digest());
+    }
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+        return hex.toString();
+    }
+
+    /** Returns the path of the cache entry for this source. */
+    Path entry() {
+        return entry;
+    }
+
+    /**
+     * Maps the cached snapshot for this source, if there is a valid one.
+     *
+     * @return The mapped snapshot, or null on a cache miss.
+     */
+    public GraphSnapshot lookup() {
+        if (!Files.isRegularFile(entry)) {
+            return null;
+        }
+        try {
+            return GraphSnapshot.map(entry);
+        } catch (IOException e) {
+            /* Stale format or corrupt file: drop it and rebuild. */
+            System.err.println("Ignoring unusable graph cache entry " + entry + ": "
+                    + e.getMessage());
+            try {
+                Files.deleteIfExists(entry);
+            } catch (IOException ignored) {
+                /* Another process may be replacing it; the next store overwrites it anyway. */
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Writes <code>g</code> as the cached snapshot for this source and removes entries left
+     * behind by older versions of the source. Failures are reported but never fatal, since the
+     * graph itself is already built.
+     *
+     * @param g The graph built from this source.
+     */
+    public void store(GraphDB g) {
+        Path temp = null;
+        try {
+            Files.createDirectories(directory);
+            temp = Files.createTempFile(directory, baseName, ".tmp");
+            g.writeSnapshot(temp);
+            Files.move(temp, entry, StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING);
+            temp = null;
+            removeStaleEntries();
+        } catch (IOException e) {
+            System.err.println("Unable to write graph cache entry " + entry + ": "
+                    + e.getMessage());
+        } finally {
+            if (temp != null) {
+                try {
+                    Files.deleteIfExists(temp);
+                } catch (IOException ignored) {
+                    /* Nothing else to clean up. */
+                }
+            }
+        }
+    }
+
+    private void removeStaleEntries() throws IOException {
+        String glob = baseName + "-*" + SUFFIX;
+        try (DirectoryStream<Path> entries = Files.newDirectoryStream(directory, glob)) {
+            for (Path other : entries) {
+                String suffix = other.getFileName().toString()
+                        .substring(baseName.length() + 1);
+                /* Only remove entries whose remaining name is exactly a fingerprint. */
+                if (!other.equals(entry) && suffix.length() == 64 + SUFFIX.length()) {
+                    Files.deleteIfExists(other);
+                    Files.deleteIfExists(ContractionHierarchy.fileFor(other));
+                }
+            }
+        }
+    }
+}
@@ -1,16 +1,17 @@
-import org.xml.sax.SAXException;
-
-import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
-import javax.xml.parsers.ParserConfigurationException;
-import javax.xml.parsers.SAXParser;
-import javax.xml.parsers.SAXParserFactory;
+import java.io.UncheckedIOException;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.PrimitiveIterator;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * Graph for storing all of the intersection (vertex) and road (edge) information.
@@ -23,83 +24,733 @@ import java.util.Map;
  */
 public class GraphDB {
 
-    private KDTree<ProxNode> theProximityMap;
-    private final Map<Long, ArrayList<Edge>> edgeConnections = new HashMap<>();
-    private final Map<Long, MapNode> nodes = new HashMap<>();
-    private ArrayList<ProxNode> kdNodes = new ArrayList<ProxNode>();
-    private int visitedCount = 0;
+    /*
+     * The compiled graph. Every field below is either a heap buffer wrapping an array, when the
+     * graph was built from XML, or a view of a memory-mapped snapshot.
+     */
+
+    /** OSM IDs of the vertices, sorted; the position of an ID is its dense vertex index. */
+    private LongBuffer ids;
+    /**
+     * Longitude and latitude of each vertex, indexed by dense vertex index. Graphs built in
+     * compact mode leave these null and store <code>fixedLons</code> and <code>fixedLats</code>
+     * instead: the same coordinates as ints in units of <code>1 / FIXED_POINT_SCALE</code>
+     * degrees, half the size and decoded on every access.
+     */
+    private DoubleBuffer lons;
+    private DoubleBuffer lats;
+    private IntBuffer fixedLons;
+    private IntBuffer fixedLats;
+    /** Frozen adjacency over dense vertex indices. */
+    private CSRGraph adjacency;
+    /**
+     * The adjacency reweighted for each <code>Profile</code>, indexed by ordinal. All of them
+     * share <code>adjacency</code>'s topology; the <code>DISTANCE</code> entry is
+     * <code>adjacency</code> itself.
+     */
+    private CSRGraph[] profiles;
+    /**
+     * The connected component of each vertex, labelled by its smallest vertex, and the label of
+     * the component with the most vertices.
+     */
+    private IntBuffer components;
+    private int largestComponent;
+    /** Live adjustments to the edge weights, replaced as a whole on every update. */
+    private final AtomicReference<WeightOverlay> overlay =
+            new AtomicReference<>(WeightOverlay.EMPTY);
+    /**
+     * Every distinct attribute value of the graph. The attribute columns below store codes into
+     * this table, so repeated values are stored once and compared as ints; code 0 means absent.
+     */
+    private StringTable strings;
+    /** OSM IDs of the ways referenced by <code>CSRGraph.way</code>. */
+    private LongBuffer wayIds;
+    /** Name and highway type codes of the ways referenced by <code>CSRGraph.way</code>. */
+    private IntBuffer wayNames;
+    private IntBuffer wayTypes;
+    /** Named points of interest: OSM ID, coordinates, and name, amenity and address codes. */
+    private LongBuffer poiIds;
+    private DoubleBuffer poiLons;
+    private DoubleBuffer poiLats;
+    private IntBuffer poiNames;
+    private IntBuffer poiAmenities;
+    private IntBuffer poiAddresses;
+    /** Spatial index over the projected vertex coordinates, used by <code>closest</code>. */
+    private KDTree proximityIndex;
+    /** The snapshot or cache entry the graph is stored in, or null if it is only in memory. */
+    private Path snapshotPath;
+    /** Built or loaded on the first call to <code>contractionHierarchy</code>. */
+    private ContractionHierarchy hierarchy;
+    /** Built on the first call to <code>landmarks</code>. */
+    private Landmarks landmarks;
+    /** Created on the first call to <code>routeCache</code>. */
+    private RouteCache routeCache;
 
     /**
      * This constructor creates and starts an XML parser, cleans the nodes, and prepares the
-     * data structures for processing. Modify this constructor to initialize your data structures.
+     * data structures for processing. The XML is scanned on several threads by
+     * <code>OsmIngest</code>. If <code>dbPath</code> names a graph snapshot written by
+     * <code>writeSnapshot</code> instead, the snapshot is memory-mapped and served directly.
+     * Graphs built from XML are kept in the <code>GraphCache</code>, so constructing a graph from
+     * an unchanged file again maps the cached snapshot instead of reparsing it.
+     *
+     * With <code>-Dbearmaps.compactCoordinates=true</code> vertex coordinates are stored as
+     * fixed-point ints, and the spatial index projects them on demand instead of storing its own
+     * copy of every point. OSM itself stores coordinates with 7 decimal places, so for OSM data
+     * the decoded coordinates are exactly the parsed ones.
      *
-     * @param dbPath Path to the XML file to be parsed.
+     * @param dbPath Path to the XML file to be parsed, which may be compressed with gzip, bzip2
+     *               or xz, or to a graph snapshot. Reading bzip2 or xz needs the
+     *               <code>bzip2</code> or <code>xz</code> command on the <code>PATH</code>.
      */
     public GraphDB(String dbPath) {
-        File inputFile = new File(dbPath);
-        try (FileInputStream inputStream = new FileInputStream(inputFile)) {
-            SAXParserFactory factory = SAXParserFactory.newInstance();
-            SAXParser saxParser = factory.newSAXParser();
-            saxParser.parse(inputStream, new GraphBuildingHandler(this));
-        } catch (ParserConfigurationException | SAXException | IOException e) {
+        Path path = Paths.get(dbPath);
+        if (GraphSnapshot.isSnapshot(path)) {
+            try {
+                load(GraphSnapshot.map(path));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            snapshotPath = path;
+            return;
+        }
+        boolean compact = Boolean.getBoolean("bearmaps.compactCoordinates");
+        GraphCache cache = GraphCache.forSource(path);
+        GraphSnapshot cached = cache == null ? null : cache.lookup();
+        /* A cached graph in the other coordinate mode is rebuilt, and replaced on store. */
+        if (cached != null && cached.has(FIXED_LONS) == compact) {
+            load(cached);
+            snapshotPath = cache.entry();
+            return;
+        }
+        OsmData data;
+        try {
+            data = OsmIngest.read(path);
+        } catch (IOException e) {
             e.printStackTrace();
+            data = new OsmData();
+            cache = null;
         }
-        clean();
-        for (long id : nodes.keySet()) {
-            kdNodes.add(new ProxNode(id));
+        compile(data, clean(data, compact));
+        buildProximityIndex();
+        if (cache != null) {
+            cache.store(this);
+            snapshotPath = cache.entry();
         }
-        theProximityMap = kdConstruct(kdNodes, true);
     }
 
-    public void add(MapNode toPlace) {
-        nodes.put(toPlace.id, toPlace);
-        edgeConnections.put(toPlace.id, new ArrayList<>());
+    /**
+     * Helper to process strings into their "cleaned" form, ignoring punctuation and capitalization.
+     *
+     * @param s Input string.
+     * @return Cleaned string.
+     */
+    private static String cleanString(String s) {
+        return s.replaceAll("[^a-zA-Z ]", "").toLowerCase();
     }
 
-    public void add(Way newWay) {
+    /**
+     * Remove nodes with no connections from the graph.
+     * While this does not guarantee that any two nodes in the remaining graph are connected,
+     * we can reasonably assume this since typically roads are connected.
+     *
+     * @param data    The parsed nodes and ways.
+     * @param compact Whether to store the vertex coordinates as fixed-point ints.
+     * @return The dense vertex index of every way reference in <code>data.wayRefs</code>, or -1
+     *         for references that did not become vertices.
+     */
+    private int[] clean(OsmData data, boolean compact) {
+        data.sortNodes();
+        int refCount = data.wayRefStart[data.wayCount];
+        int[] refVertices = new int[refCount];
+        for (int r = 0; r < refCount; r++) {
+            refVertices[r] = data.findNode(data.wayRefs[r]);
+        }
+        boolean[] connected = new boolean[data.nodeCount];
+        for (int w = 0; w < data.wayCount; w++) {
+            for (int r = data.wayRefStart[w] + 1; r < data.wayRefStart[w + 1]; r++) {
+                if (refVertices[r - 1] >= 0 && refVertices[r] >= 0) {
+                    connected[refVertices[r - 1]] = true;
+                    connected[refVertices[r]] = true;
+                }
+            }
+        }
+        /* Nodes are sorted by ID, so numbering the connected ones in order keeps ids sorted. */
+        int[] vertexOf = new int[data.nodeCount];
+        int count = 0;
+        for (int n = 0; n < data.nodeCount; n++) {
+            vertexOf[n] = connected[n] ? count++ : -1;
+        }
+        long[] idArray = new long[count];
+        double[] lonArray = new double[count];
+        double[] latArray = new double[count];
+        for (int n = 0; n < data.nodeCount; n++) {
+            if (vertexOf[n] >= 0) {
+                idArray[vertexOf[n]] = data.nodeIds[n];
+                lonArray[vertexOf[n]] = data.nodeLons[n];
+                latArray[vertexOf[n]] = data.nodeLats[n];
+            }
+        }
+        for (int r = 0; r < refCount; r++) {
+            refVertices[r] = refVertices[r] < 0 ? -1 : vertexOf[refVertices[r]];
+        }
+        ids = LongBuffer.wrap(idArray);
+        if (compact) {
+            fixedLons = IntBuffer.wrap(toFixedPoint(lonArray));
+            fixedLats = IntBuffer.wrap(toFixedPoint(latArray));
+        } else {
+            lons = DoubleBuffer.wrap(lonArray);
+            lats = DoubleBuffer.wrap(latArray);
+        }
+        return refVertices;
+    }
+
+    /** Rounds coordinates in degrees to the nearest <code>1 / FIXED_POINT_SCALE</code> degree. */
+    private static int[] toFixedPoint(double[] degrees) {
+        int[] fixed = new int[degrees.length];
+        for (int i = 0; i < degrees.length; i++) {
+            fixed[i] = (int) Math.round(degrees[i] * FIXED_POINT_SCALE);
+        }
+        return fixed;
+    }
 
-        ArrayList<Long> listOf = new ArrayList<>(newWay.nodes);
+    /**
+     * Freeze the accepted ways into the CSR adjacency. Each consecutive pair of way nodes becomes
+     * one edge in each direction, weighted by its great-circle length.
+     *
+     * @param data        The parsed ways.
+     * @param refVertices The vertex of each way reference, as returned by <code>clean</code>.
+     */
+    private void compile(OsmData data, int[] refVertices) {
+        CSRGraph.Builder builder = new CSRGraph.Builder();
+        for (int w = 0; w < data.wayCount; w++) {
+            for (int r = data.wayRefStart[w] + 1; r < data.wayRefStart[w + 1]; r++) {
+                int from = refVertices[r - 1];
+                int to = refVertices[r];
+                if (from < 0 || to < 0) {
+                    continue;
+                }
+                float length = (float) distanceAt(from, to);
+                builder.addEdge(from, to, length, w);
+                builder.addEdge(to, from, length, w);
+            }
+        }
+        adjacency = builder.create(size());
+        components = IntBuffer.wrap(ConnectedComponents.label(adjacency,
+                OsmIngest.defaultThreads()));
+        largestComponent = largestComponent(components);
+        wayIds = LongBuffer.wrap(Arrays.copyOf(data.wayIds, data.wayCount));
+        wayNames = IntBuffer.wrap(Arrays.copyOf(data.wayNames, data.wayCount));
+        wayTypes = IntBuffer.wrap(Arrays.copyOf(data.wayTypes, data.wayCount));
+        poiIds = LongBuffer.wrap(Arrays.copyOf(data.poiIds, data.poiCount));
+        poiLons = DoubleBuffer.wrap(Arrays.copyOf(data.poiLons, data.poiCount));
+        poiLats = DoubleBuffer.wrap(Arrays.copyOf(data.poiLats, data.poiCount));
+        poiNames = IntBuffer.wrap(Arrays.copyOf(data.poiNames, data.poiCount));
+        poiAmenities = IntBuffer.wrap(Arrays.copyOf(data.poiAmenities, data.poiCount));
+        poiAddresses = IntBuffer.wrap(Arrays.copyOf(data.poiAddresses, data.poiCount));
+        strings = data.strings.freeze();
+        profiles = new CSRGraph[Profile.values().length];
+        for (Profile profile : Profile.values()) {
+            profiles[profile.ordinal()] = profile == Profile.DISTANCE ? adjacency
+                    : adjacency.withWeights(FloatBuffer.wrap(profile.weights(this)));
+        }
+    }
 
-        if (listOf.size() > 1) {
-            int curr = 0;
-            int next = 1;
-            while (next < listOf.size()) {
-                MapNode nodeOne = nodes.get(listOf.get(curr));
-                MapNode nodeTwo = nodes.get(listOf.get(next));
-                edgeConnections.get(nodeOne.id).add(new Edge(nodeOne, nodeTwo, newWay.id));
-                edgeConnections.get(nodeTwo.id).add(new Edge(nodeOne, nodeTwo, newWay.id));
-                curr++;
-                next++;
+    /** Returns the label of the component that the most vertices are in, or -1 if none. */
+    private static int largestComponent(IntBuffer components) {
+        int[] sizes = new int[components.limit()];
+        int largest = -1;
+        for (int v = 0; v < components.limit(); v++) {
+            int c = components.get(v);
+            sizes[c]++;
+            if (largest < 0 || sizes[c] > sizes[largest]) {
+                largest = c;
             }
+        }
+        return largest;
+    }
+
+    /**
+     * Build the 2-d tree used by <code>closest</code> over the projected vertex coordinates. In
+     * compact mode the tree projects vertices on demand rather than storing the points.
+     */
+    private void buildProximityIndex() {
+        double[] x = new double[size()];
+        double[] y = new double[size()];
+        for (int v = 0; v < size(); v++) {
+            x[v] = projectToX(lonAt(v), latAt(v));
+            y[v] = projectToY(lonAt(v), latAt(v));
+        }
+        proximityIndex = fixedLons == null ? KDTree.build(x, y)
+                : KDTree.build(x, y, projection());
+    }
+
+    /** Projects vertices from their stored coordinates, for a tree that keeps no points. */
+    private KDTree.Projection projection() {
+        return new KDTree.Projection() {
+            @Override
+            public double x(int v) {
+                return projectToX(lonAt(v), latAt(v));
+            }
+
+            @Override
+            public double y(int v) {
+                return projectToY(lonAt(v), latAt(v));
+            }
+        };
+    }
+
+    /** Snapshot section tags; see <code>GraphSnapshot</code>. */
+    private static final int IDS = 1, LONS = 2, LATS = 3, OFFSETS = 4, TARGETS = 5, WEIGHTS = 6,
+            WAY_IDX = 7, WAY_IDS = 8, STRING_OFFSETS = 9, STRING_BYTES = 10,
+            KD_ORDER = 11, KD_X = 12, KD_Y = 13, WAY_NAMES = 14, WAY_TYPES = 15, POI_IDS = 16,
+            POI_LONS = 17, POI_LATS = 18, POI_NAMES = 19, POI_AMENITIES = 20, POI_ADDRESSES = 21,
+            FIXED_LONS = 22, FIXED_LATS = 23;
+    /** The tag of each profile's weights is this plus the profile's ordinal. */
+    private static final int PROFILE_WEIGHTS = 24;
+    private static final int COMPONENTS = 28;
+    /** Fixed-point units per degree in compact mode; 1e7 is OSM's own precision. */
+    private static final double FIXED_POINT_SCALE = 1e7;
+
+    /**
+     * Write the compiled graph, including its spatial index, to a snapshot file that the
+     * <code>GraphDB</code> constructor can later open without parsing any XML.
+     *
+     * @param path The snapshot file to write.
+     * @throws IOException If the file cannot be written.
+     */
+    public void writeSnapshot(Path path) throws IOException {
+        GraphSnapshot snapshot = new GraphSnapshot();
+        if (fixedLons == null) {
+            snapshot.putDoubles(LONS, lons).putDoubles(LATS, lats);
         } else {
-            return;
+            snapshot.putInts(FIXED_LONS, fixedLons).putInts(FIXED_LATS, fixedLats);
+        }
+        if (proximityIndex.storesPoints()) {
+            snapshot.putDoubles(KD_X, proximityIndex.xs).putDoubles(KD_Y, proximityIndex.ys);
+        }
+        snapshot.putLongs(IDS, ids)
+                .putInts(OFFSETS, adjacency.offsets)
+                .putInts(TARGETS, adjacency.targets)
+                .putFloats(WEIGHTS, adjacency.weights)
+                .putInts(WAY_IDX, adjacency.wayIdx)
+                .putLongs(WAY_IDS, wayIds)
+                .putInts(STRING_OFFSETS, strings.offsets)
+                .putBytes(STRING_BYTES, strings.bytes)
+                .putInts(KD_ORDER, proximityIndex.order)
+                .putInts(WAY_NAMES, wayNames)
+                .putInts(WAY_TYPES, wayTypes)
+                .putLongs(POI_IDS, poiIds)
+                .putDoubles(POI_LONS, poiLons)
+                .putDoubles(POI_LATS, poiLats)
+                .putInts(POI_NAMES, poiNames)
+                .putInts(POI_AMENITIES, poiAmenities)
+                .putInts(POI_ADDRESSES, poiAddresses)
+                .putInts(COMPONENTS, components);
+        for (Profile profile : Profile.values()) {
+            if (profile != Profile.DISTANCE) {
+                snapshot.putFloats(PROFILE_WEIGHTS + profile.ordinal(),
+                        profiles[profile.ordinal()].weights);
+            }
+        }
+        snapshot.write(path);
+    }
+
+    /** Serve the graph straight from the sections of a mapped snapshot. */
+    private void load(GraphSnapshot snapshot) {
+        ids = snapshot.longs(IDS);
+        if (snapshot.has(FIXED_LONS)) {
+            fixedLons = snapshot.ints(FIXED_LONS);
+            fixedLats = snapshot.ints(FIXED_LATS);
+        } else {
+            lons = snapshot.doubles(LONS);
+            lats = snapshot.doubles(LATS);
+        }
+        adjacency = new CSRGraph(snapshot.ints(OFFSETS), snapshot.ints(TARGETS),
+                snapshot.floats(WEIGHTS), snapshot.ints(WAY_IDX));
+        components = snapshot.ints(COMPONENTS);
+        largestComponent = largestComponent(components);
+        profiles = new CSRGraph[Profile.values().length];
+        for (Profile profile : Profile.values()) {
+            profiles[profile.ordinal()] = profile == Profile.DISTANCE ? adjacency
+                    : adjacency.withWeights(snapshot.floats(PROFILE_WEIGHTS + profile.ordinal()));
+        }
+        wayIds = snapshot.longs(WAY_IDS);
+        strings = new StringTable(snapshot.ints(STRING_OFFSETS), snapshot.bytes(STRING_BYTES));
+        wayNames = snapshot.ints(WAY_NAMES);
+        wayTypes = snapshot.ints(WAY_TYPES);
+        poiIds = snapshot.longs(POI_IDS);
+        poiLons = snapshot.doubles(POI_LONS);
+        poiLats = snapshot.doubles(POI_LATS);
+        poiNames = snapshot.ints(POI_NAMES);
+        poiAmenities = snapshot.ints(POI_AMENITIES);
+        poiAddresses = snapshot.ints(POI_ADDRESSES);
+        if (snapshot.has(KD_X)) {
+            proximityIndex = new KDTree(snapshot.ints(KD_ORDER), snapshot.doubles(KD_X),
+                    snapshot.doubles(KD_Y));
+        } else {
+            proximityIndex = new KDTree(snapshot.ints(KD_ORDER), projection());
         }
     }
 
     /**
-     * Helper to process strings into their "cleaned" form, ignoring punctuation and capitalization.
+     * Returns the dense index of the vertex with OSM ID <code>v</code>.
      *
-     * @param s Input string.
-     * @return Cleaned string.
+     * @param v The ID of a vertex in the graph.
+     * @return The index of that vertex, or a negative number if the vertex is not in the graph.
      */
-    private static String cleanString(String s) {
-        return s.replaceAll("[^a-zA-Z ]", "").toLowerCase();
+    int indexOf(long v) {
+        int lo = 0;
+        int hi = size() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            long id = ids.get(mid);
+            if (id < v) {
+                lo = mid + 1;
+            } else if (id > v) {
+                hi = mid - 1;
+            } else {
+                return mid;
+            }
+        }
+        return -(lo + 1);
     }
 
     /**
-     * Remove nodes with no connections from the graph.
-     * While this does not guarantee that any two nodes in the remaining graph are connected,
-     * we can reasonably assume this since typically roads are connected.
+     * Returns the OSM ID of the vertex with dense index <code>index</code>.
+     *
+     * @param index The index of a vertex in the graph.
+     * @return The ID of that vertex.
+     */
+    long id(int index) {
+        return ids.get(index);
+    }
+
+    /**
+     * Returns the frozen adjacency of this graph over dense vertex indices.
+     *
+     * @return The CSR adjacency.
+     */
+    CSRGraph adjacency() {
+        return adjacency;
+    }
+
+    /**
+     * Returns the adjacency of this graph weighted for <code>profile</code>, with the current
+     * <code>WeightOverlay</code> applied. Its edges are numbered like those of
+     * <code>adjacency()</code>, and closed edges weigh infinity. The returned graph never
+     * changes, so a search that reads all its weights from it sees one consistent overlay.
+     *
+     * @param profile The way of travelling.
+     * @return The reweighted CSR adjacency.
+     */
+    CSRGraph adjacency(Profile profile) {
+        WeightOverlay current = overlay.get();
+        CSRGraph base = profiles[profile.ordinal()];
+        return current.isEmpty() ? base : current.adjacency(base, profile);
+    }
+
+    /**
+     * Returns the connected component of vertex <code>v</code>. Two vertices have a route
+     * between them exactly when their components are equal.
+     *
+     * @param v The index of a vertex in the graph.
+     * @return The smallest vertex index in <code>v</code>'s component.
+     */
+    int component(int v) {
+        return components.get(v);
+    }
+
+    /**
+     * Returns the connected component with the most vertices.
+     *
+     * @return The smallest vertex index in that component, or -1 if the graph is empty.
+     */
+    int largestComponent() {
+        return largestComponent;
+    }
+
+    /**
+     * Returns the vertex a route from or to a point starts or ends at: the closest vertex, or,
+     * with <code>-Dbearmaps.router.snapToLargest=true</code>, the closest vertex of the largest
+     * connected component, so that a point beside a small fragment of road cut off from the
+     * rest, such as a parking lot, still gets a route.
+     *
+     * @param lon The longitude of the point.
+     * @param lat The latitude of the point.
+     * @return The index of the vertex.
+     */
+    int routingIndex(double lon, double lat) {
+        if (!Boolean.getBoolean("bearmaps.router.snapToLargest")) {
+            return closestIndex(lon, lat);
+        }
+        return proximityIndex.nearest(projectToX(lon, lat), projectToY(lon, lat),
+                v -> components.get(v) == largestComponent);
+    }
+
+    /**
+     * Returns the vertex that routes from or to each of a batch of points start or end at,
+     * chosen as <code>routingIndex</code> chooses it.
+     *
+     * @param lons The longitudes of the points.
+     * @param lats The latitudes of the points, as many as <code>lons</code>.
+     * @return The index of the vertex for each point, in order.
+     */
+    int[] routingIndices(double[] lons, double[] lats) {
+        if (lons.length != lats.length) {
+            throw new IllegalArgumentException(lons.length + " longitudes but " + lats.length
+                    + " latitudes");
+        }
+        int[] indices = new int[lons.length];
+        for (int i = 0; i < lons.length; i++) {
+            indices[i] = routingIndex(lons[i], lats[i]);
+        }
+        return indices;
+    }
+
+    /**
+     * Returns the live adjustments to the edge weights at this moment.
+     *
+     * @return The current overlay.
+     */
+    WeightOverlay weightOverlay() {
+        return overlay.get();
+    }
+
+    /**
+     * Atomically applies a batch of adjustments to the edge weights. Searches already running
+     * keep the weights they started with; searches started afterwards see the whole batch.
+     * Every road is searched as two-way with the same weight each way, so adjusting an edge
+     * adjusts the edge of the same way in the opposite direction too.
+     *
+     * @param edges   The indices of the edges to adjust.
+     * @param factors The factor each edge's weight is multiplied by: at least 1, infinity to
+     *                close the edge, or exactly 1 to remove its adjustment.
+     * @throws IllegalArgumentException If an edge or factor is invalid.
+     */
+    void updateWeights(int[] edges, float[] factors) {
+        int[] both = bothDirections(edges);
+        float[] bothFactors = twice(factors);
+        overlay.updateAndGet(current -> current.with(both, bothFactors));
+    }
+
+    /**
+     * Atomically replaces every adjustment to the edge weights with a batch of new ones, as
+     * <code>clearWeights</code> followed by <code>updateWeights</code> would but without any
+     * search seeing the graph in between.
+     *
+     * @param edges   The indices of the edges to adjust.
+     * @param factors The factor each edge's weight is multiplied by.
+     * @throws IllegalArgumentException If an edge or factor is invalid.
+     */
+    void replaceWeights(int[] edges, float[] factors) {
+        overlay.set(WeightOverlay.EMPTY.with(bothDirections(edges), twice(factors)));
+    }
+
+    /** Removes every adjustment to the edge weights. */
+    void clearWeights() {
+        overlay.set(WeightOverlay.EMPTY);
+    }
+
+    /** Returns each edge followed by its reverse. */
+    private int[] bothDirections(int[] edges) {
+        int[] both = new int[edges.length * 2];
+        for (int i = 0; i < edges.length; i++) {
+            if (edges[i] < 0 || edges[i] >= adjacency.numEdges()) {
+                throw new IllegalArgumentException("No edge " + edges[i]);
+            }
+            both[2 * i] = edges[i];
+            both[2 * i + 1] = reverseEdge(edges[i]);
+        }
+        return both;
+    }
+
+    /** Returns each factor twice in a row, to go with <code>bothDirections</code>. */
+    private static float[] twice(float[] factors) {
+        float[] both = new float[factors.length * 2];
+        for (int i = 0; i < factors.length; i++) {
+            both[2 * i] = factors[i];
+            both[2 * i + 1] = factors[i];
+        }
+        return both;
+    }
+
+    /** Returns the edge of the same way as <code>edge</code> in the opposite direction. */
+    private int reverseEdge(int edge) {
+        int from = adjacency.source(edge);
+        int to = adjacency.target(edge);
+        for (int e = adjacency.firstEdge(to); e < adjacency.endEdge(to); e++) {
+            if (adjacency.target(e) == from && adjacency.way(e) == adjacency.way(edge)) {
+                return e;
+            }
+        }
+        throw new IllegalStateException("Edge " + edge + " has no reverse");
+    }
+
+    /**
+     * Returns the index of the edge from vertex <code>from</code> to vertex <code>to</code>.
+     *
+     * @param from The dense index of the edge's source.
+     * @param to   The dense index of the edge's target.
+     * @return The index of the first such edge, or -1 if the vertices are not adjacent.
      */
-    private void clean() {
-        ArrayList<Long> ids = new ArrayList<>(edgeConnections.keySet());
+    int edgeIndex(int from, int to) {
+        for (int e = adjacency.firstEdge(from); e < adjacency.endEdge(from); e++) {
+            if (adjacency.target(e) == to) {
+                return e;
+            }
+        }
+        return -1;
+    }
 
-        for (Long nodeId : ids) {
-            if (edgeConnections.get(nodeId).size() == 0) {
-                edgeConnections.remove(nodeId);
-                nodes.remove(nodeId);
+    /**
+     * Returns the indices of every edge from vertex <code>from</code> to vertex <code>to</code>.
+     * There is more than one when several ways join the same two vertices.
+     *
+     * @param from The dense index of the edges' source.
+     * @param to   The dense index of the edges' target.
+     * @return The indices of the edges, in increasing order; empty if the vertices are not
+     * adjacent.
+     */
+    int[] edgeIndices(int from, int to) {
+        int count = 0;
+        for (int e = adjacency.firstEdge(from); e < adjacency.endEdge(from); e++) {
+            if (adjacency.target(e) == to) {
+                count++;
+            }
+        }
+        int[] edges = new int[count];
+        for (int e = adjacency.firstEdge(from), i = 0; i < count; e++) {
+            if (adjacency.target(e) == to) {
+                edges[i++] = e;
             }
         }
+        return edges;
+    }
+
+    /**
+     * Returns the contraction hierarchy of this graph for fast point-to-point routing. It is
+     * kept in a file next to the graph's snapshot or cache entry, so only the first use on a
+     * given graph pays for contracting it.
+     *
+     * @return The hierarchy.
+     */
+    synchronized ContractionHierarchy contractionHierarchy() {
+        if (hierarchy == null) {
+            hierarchy = ContractionHierarchy.open(this,
+                    snapshotPath == null ? null : ContractionHierarchy.fileFor(snapshotPath));
+        }
+        return hierarchy;
+    }
+
+    /**
+     * Returns the landmark heuristic of this graph, computing it on first use with as many
+     * landmarks as <code>-Dbearmaps.router.landmarks</code> asks for, 16 by default.
+     *
+     * @return The heuristic.
+     */
+    synchronized Landmarks landmarks() {
+        if (landmarks == null) {
+            landmarks = Landmarks.build(this, Integer.getInteger("bearmaps.router.landmarks", 16),
+                    Runtime.getRuntime().availableProcessors());
+        }
+        return landmarks;
+    }
+
+    /**
+     * Returns the cache of routes on this graph, holding as many routes as
+     * <code>-Dbearmaps.router.cacheSize</code> asks for, 1024 by default.
+     *
+     * @return The cache.
+     */
+    synchronized RouteCache routeCache() {
+        if (routeCache == null) {
+            routeCache = new RouteCache(this, Integer.getInteger("bearmaps.router.cacheSize",
+                    1024));
+        }
+        return routeCache;
+    }
+
+    /**
+     * Returns the reverse of the adjacency, in which every edge points the other way, for
+     * searches that run backward from a destination. Every road is two-way and each direction is
+     * stored with the same length, so the graph is its own reverse.
+     *
+     * @return The reverse CSR adjacency.
+     */
+    CSRGraph reverseAdjacency() {
+        return adjacency;
+    }
+
+    /**
+     * Calls <code>visitor</code> once for every edge leaving the vertex with dense index
+     * <code>v</code>, without allocating.
+     *
+     * @param v       The index of a vertex in the graph.
+     * @param visitor The callback to invoke for each edge.
+     */
+    void forEachNeighbor(int v, CSRGraph.NeighborVisitor visitor) {
+        adjacency.forEachNeighbor(v, visitor);
+    }
+
+    /**
+     * Returns the name of the way that <code>edge</code> belongs to.
+     *
+     * @param edge The index of an edge in the CSR adjacency.
+     * @return The way name, or null if the way is unnamed.
+     */
+    String wayName(int edge) {
+        return strings.get(wayNameCode(edge));
+    }
+
+    /**
+     * Returns the code of the name of the way that <code>edge</code> belongs to. Two edges
+     * belong to equally named ways exactly when their codes are equal.
+     *
+     * @param edge The index of an edge in the CSR adjacency.
+     * @return The name code, or 0 if the way is unnamed.
+     */
+    int wayNameCode(int edge) {
+        return wayNames.get(adjacency.way(edge));
+    }
+
+    /**
+     * Returns the highway type of the way that <code>edge</code> belongs to.
+     *
+     * @param edge The index of an edge in the CSR adjacency.
+     * @return The value of the way's highway tag.
+     */
+    String wayType(int edge) {
+        return strings.get(wayTypes.get(adjacency.way(edge)));
+    }
+
+    /**
+     * Returns the number of ways the edges of the graph belong to.
+     *
+     * @return The number of ways; way indices range over <code>[0, wayCount())</code>.
+     */
+    int wayCount() {
+        return wayTypes.limit();
+    }
+
+    /**
+     * Returns the highway type of the way with index <code>way</code>.
+     *
+     * @param way The index of a way, as returned by <code>CSRGraph.way</code>.
+     * @return The value of the way's highway tag.
+     */
+    String wayTypeAt(int way) {
+        return strings.get(wayTypes.get(way));
+    }
+
+    /**
+     * Returns the OSM ID of the way that <code>edge</code> belongs to.
+     *
+     * @param edge The index of an edge in the CSR adjacency.
+     * @return The way ID.
+     */
+    long wayId(int edge) {
+        return wayIds.get(adjacency.way(edge));
     }
 
     /**
@@ -109,8 +760,9 @@ public class GraphDB {
      * @return The longitude of that vertex, or 0.0 if the vertex is not in the graph.
      */
     double lon(long v) {
-        if (nodes.containsKey(v)) {
-            return nodes.get(v).lon;
+        int index = indexOf(v);
+        if (index >= 0) {
+            return lonAt(index);
         }
         return 0.0;
     }
@@ -122,19 +774,61 @@ public class GraphDB {
      * @return The latitude of that vertex, or 0.0 if the vertex is not in the graph.
      */
     double lat(long v) {
-        if (nodes.containsKey(v)) {
-            return nodes.get(v).lat;
+        int index = indexOf(v);
+        if (index >= 0) {
+            return latAt(index);
         }
         return 0.0;
     }
 
+    /**
+     * Returns the longitude of the vertex with dense index <code>v</code>.
+     *
+     * @param v The index of a vertex in the graph.
+     * @return The longitude of that vertex.
+     */
+    double lonAt(int v) {
+        return fixedLons == null ? lons.get(v) : fixedLons.get(v) / FIXED_POINT_SCALE;
+    }
+
+    /**
+     * Returns the latitude of the vertex with dense index <code>v</code>.
+     *
+     * @param v The index of a vertex in the graph.
+     * @return The latitude of that vertex.
+     */
+    double latAt(int v) {
+        return fixedLats == null ? lats.get(v) : fixedLats.get(v) / FIXED_POINT_SCALE;
+    }
+
+    /**
+     * Returns the number of vertices in the graph.
+     *
+     * @return The number of vertices; dense vertex indices range over <code>[0, size())</code>.
+     */
+    int size() {
+        return ids.limit();
+    }
+
     /**
      * Returns an iterable of all vertex IDs in the graph.
      *
      * @return An iterable of all vertex IDs in the graph.
      */
     Iterable<Long> vertices() {
-        return nodes.keySet();
+        return () -> new PrimitiveIterator.OfLong() {
+            private int next = 0;
+
+            @Override
+            public boolean hasNext() {
+                return next < size();
+            }
+
+            @Override
+            public long nextLong() {
+                return ids.get(next++);
+            }
+        };
     }
 
     /**
@@ -145,18 +839,15 @@ public class GraphDB {
      * iterable if the vertex is not in the graph.
      */
     Iterable<Long> adjacent(long v) {
-        if (edgeConnections.containsKey(v)) {
-            List<Long> result = new ArrayList<Long>();
-            for (Edge edge : edgeConnections.get(v)) {
-                if (edge.oneEnd.id == v) {
-                    result.add(edge.twoEnd.id);
-                } else {
-                    result.add(edge.oneEnd.id);
-                }
-            }
-            return result;
+        int index = indexOf(v);
+        if (index < 0) {
+            return Collections.emptyList();
+        }
+        List<Long> result = new ArrayList<>(adjacency.degree(index));
+        for (int e = adjacency.firstEdge(index); e < adjacency.endEdge(index); e++) {
+            result.add(ids.get(adjacency.target(e)));
         }
-        return null;
+        return result;
     }
 
     /**
@@ -169,10 +860,22 @@ public class GraphDB {
      * @source https://www.movable-type.co.uk/scripts/latlong.html
      */
     public double distance(long v, long w) {
-        double phi1 = Math.toRadians(lat(v));
-        double phi2 = Math.toRadians(lat(w));
-        double dphi = Math.toRadians(lat(w) - lat(v));
-        double dlambda = Math.toRadians(lon(w) - lon(v));
+        return distance(lon(v), lat(v), lon(w), lat(w));
+    }
+
+    /**
+     * Returns the great-circle distance in miles between the vertices with dense indices
+     * <code>v</code> and <code>w</code>.
+     *
+     * @param v The index of the first vertex.
+     * @param w The index of the second vertex.
+     * @return The great-circle distance between <code>v</code> and <code>w</code>.
+     */
+    double distanceAt(int v, int w) {
+        double phi1 = Math.toRadians(latAt(v));
+        double phi2 = Math.toRadians(latAt(w));
+        double dphi = Math.toRadians(latAt(w) - latAt(v));
+        double dlambda = Math.toRadians(lonAt(w) - lonAt(v));
 
         double a = Math.sin(dphi / 2.0) * Math.sin(dphi / 2.0);
         a += Math.cos(phi1) * Math.cos(phi2) * Math.sin(dlambda / 2.0) * Math.sin(dlambda / 2.0);
@@ -212,123 +915,39 @@ public class GraphDB {
      * @return The ID for the vertex closest to the <code>lon</code> and <code>lat</code>.
      */
     public long closest(double lon, double lat) {
-        double queryX = projectToX(lon, lat);
-        double queryY = projectToY(lon, lat);
-        return kdClosestHelper(queryX, queryY,
-                lon, lat, true, theProximityMap).id;
+        return ids.get(closestIndex(lon, lat));
     }
 
-    public ProxNode kdClosestHelper(double queryX, double queryY,
-                                    double queryLon, double queryLat,
-                                    boolean checkX, KDTree<ProxNode> t) {
-
-        ProxNode betterCheck;
-
-        if (t.right == null && t.left == null) {
-            return t.item;
-        }
-
-        if (checkX) {
-            if (queryX < t.item.x) {
-                if (t.left != null) {
-                    betterCheck = kdClosestHelper(queryX, queryY,
-                            queryLon, queryLat, !checkX, t.left);
-                } else {
-                    betterCheck = t.item;
-                }
-                if (t.right != null && Math.abs(queryX - t.item.x)
-                        < euclidean(queryX, betterCheck.x, queryY, betterCheck.y)) {
-                    betterCheck = shortestDist(
-                            betterCheck,
-                            kdClosestHelper(queryX, queryY,
-                                    queryLon, queryLat, !checkX, t.right),
-                            queryX, queryY);
-                }
-                return shortestDist(t.item, betterCheck, queryX, queryY);
-            } else {
-                if (t.right != null) {
-                    betterCheck = kdClosestHelper(queryX, queryY,
-                            queryLon, queryLat, !checkX, t.right);
-                } else {
-                    betterCheck = t.item;
-                }
-                if (t.left != null && Math.abs(queryX - t.item.x)
-                        < euclidean(queryX, betterCheck.x, queryY, betterCheck.y)) {
-                    betterCheck = shortestDist(
-                            betterCheck,
-                            kdClosestHelper(queryX, queryY,
-                                    queryLon, queryLat, !checkX, t.left),
-                            queryX, queryY);
-                }
-                return shortestDist(t.item, betterCheck, queryX, queryY);
-            }
-
-        } else {
-            if (queryY < t.item.y) {
-                if (t.left != null) {
-                    betterCheck = (kdClosestHelper(queryX, queryY,
-                            queryLon, queryLat, !checkX, t.left));
-                } else {
-                    betterCheck = t.item;
-                }
-                if (t.right != null && Math.abs(queryY - t.item.y)
-                        < euclidean(queryX, betterCheck.x, queryY, betterCheck.y)) {
-                    betterCheck = shortestDist(
-                            betterCheck,
-                            kdClosestHelper(queryX, queryY, queryLon, queryLat, !checkX, t.right),
-                            queryX, queryY);
-                }
-                return shortestDist(t.item, betterCheck, queryX, queryY);
-            } else {
-                if (t.right != null) {
-                    betterCheck = kdClosestHelper(queryX, queryY,
-                            queryLon, queryLat, !checkX, t.right);
-                } else {
-                    betterCheck = t.item;
-                }
-                if (t.left != null && Math.abs(queryY - t.item.y)
-                        < euclidean(queryX, betterCheck.x, queryY, betterCheck.y)) {
-                    betterCheck = shortestDist(
-                            betterCheck,
-                            kdClosestHelper(queryX, queryY, queryLon, queryLat, !checkX, t.left),
-                            queryX, queryY);
-                }
-                return shortestDist(t.item, betterCheck, queryX, queryY);
-            }
-        }
+    /**
+     * Returns the dense index of the vertex closest to the given longitude and latitude.
+     *
+     * @param lon The given longitude.
+     * @param lat The given latitude.
+     * @return The index of the vertex closest to the <code>lon</code> and <code>lat</code>.
+     */
+    int closestIndex(double lon, double lat) {
+        double queryX = projectToX(lon, lat);
+        double queryY = projectToY(lon, lat);
+        return proximityIndex.nearest(queryX, queryY);
     }
 
-    public KDTree<ProxNode> kdConstruct(ArrayList<ProxNode> proxNodes, boolean sortByX) {
-        if (proxNodes.size() == 1) {
-            return new KDTree<>(proxNodes.get(0));
-        } else {
-            if (sortByX) {
-                proxNodes.sort((o1, o2) -> Double.compare(o1.x, o2.x));
-            } else {
-                proxNodes.sort((o1, o2) -> Double.compare(o1.y, o2.y));
-            }
-            ProxNode median = proxNodes.get(proxNodes.size() / 2);
-            KDTree<ProxNode> toReturn = new KDTree<>(median);
-            toReturn.left = kdConstruct(new ArrayList<>(proxNodes.subList(0,
-                    proxNodes.size() / 2)), !sortByX);
-            if (proxNodes.size() != 2) {
-                toReturn.right = kdConstruct(new ArrayList<>(proxNodes.subList(
-                        proxNodes.size() / 2 + 1, proxNodes.size())), !sortByX);
-            }
-            return toReturn;
+    /**
+     * Returns the dense indices of the vertices closest to each of a batch of points.
+     *
+     * @param lons The longitudes of the points.
+     * @param lats The latitudes of the points, as many as <code>lons</code>.
+     * @return The index of the vertex closest to each point, in order.
+     */
+    int[] closestIndices(double[] lons, double[] lats) {
+        if (lons.length != lats.length) {
+            throw new IllegalArgumentException(lons.length + " longitudes but " + lats.length
+                    + " latitudes");
         }
-    }
-
-    static double euclidean(double x1, double x2, double y1, double y2) {
-        return Math.sqrt(Math.pow(x1 - x2, 2) + Math.pow(y1 - y2, 2));
-    }
-
-    public ProxNode shortestDist(ProxNode node1, ProxNode node2, double destX, double destY) {
-        if (euclidean(node1.x, destX, node1.y, destY) < euclidean(node2.x, destX, node2.y, destY)) {
-            return node1;
-        } else {
-            return node2;
+        int[] closest = new int[lons.length];
+        for (int i = 0; i < lons.length; i++) {
+            closest[i] = closestIndex(lons[i], lats[i]);
         }
+        return closest;
     }
 
     /**
@@ -372,7 +991,21 @@ public class GraphDB {
      * cleaned <code>prefix</code>.
      */
     public List<String> getLocationsByPrefix(String prefix) {
-        return Collections.emptyList();
+        String cleaned = cleanString(prefix);
+        /* Each distinct name is cleaned once, however many locations share it. */
+        boolean[] seen = new boolean[strings.size()];
+        List<String> result = new ArrayList<>();
+        for (int p = 0; p < poiNames.limit(); p++) {
+            int code = poiNames.get(p);
+            if (!seen[code]) {
+                seen[code] = true;
+                String name = strings.get(code);
+                if (cleanString(name).startsWith(cleaned)) {
+                    result.add(name);
+                }
+            }
+        }
+        return result;
     }
 
     /**
@@ -384,7 +1017,21 @@ public class GraphDB {
      * cleaned <code>locationName</code>
      */
     public List<LocationParams> getLocations(String locationName) {
-        return Collections.emptyList();
+        String cleaned = cleanString(locationName);
+        /* Whether each name code matches: 0 if not checked yet, 1 if it does, 2 if not. */
+        byte[] matches = new byte[strings.size()];
+        List<LocationParams> result = new ArrayList<>();
+        for (int p = 0; p < poiNames.limit(); p++) {
+            int code = poiNames.get(p);
+            if (matches[code] == 0) {
+                matches[code] = (byte) (cleanString(strings.get(code)).equals(cleaned) ? 1 : 2);
+            }
+            if (matches[code] == 1) {
+                result.add(new LocationParams(poiLats.get(p), poiLons.get(p), strings.get(code),
+                        poiIds.get(p)));
+            }
+        }
+        return result;
     }
 
     /**
@@ -428,48 +1075,4 @@ public class GraphDB {
      * @source https://gis.stackexchange.com/a/7298
      */
     private static final double K0 = 1.0;
-
-    public class Edge implements Comparable<Edge> {
-
-        long wayId;
-        double distance;
-        MapNode oneEnd;
-        MapNode twoEnd;
-
-        public Edge(MapNode oneEnd, MapNode twoEnd, long wayId) {
-            this.oneEnd = oneEnd;
-            this.twoEnd = twoEnd;
-            this.wayId = wayId;
-            this.distance = distance(oneEnd.id, twoEnd.id);
-        }
-
-        public int compareTo(Edge other) {
-            double distance1 = distance(this.oneEnd.id, this.twoEnd.id);
-            double distance2 = distance(other.oneEnd.id, other.twoEnd.id);
-            if (distance1 == distance2) {
-                return 0;
-            } else if (distance1 > distance2) {
-                return 1;
-            } else {
-                return -1;
-            }
-        }
-    }
-
-    public class ProxNode {
-        long id;
-        double x;
-        double lon;
-        double y;
-        double lat;
-
-        public ProxNode(long id) {
-            MapNode newNode = nodes.get(id);
-            this.id = id;
-            this.x = projectToX(newNode.lon, newNode.lat);
-            this.y = projectToY(newNode.lon, newNode.lat);
-            this.lon = nodes.get(id).lon;
-            this.lat = nodes.get(id).lat;
-        }
-    }
 }
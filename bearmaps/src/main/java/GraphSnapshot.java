@@ -0,0 +1,272 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+/**
+ * A versioned binary container for a compiled <code>GraphDB</code>. The file is a small header
+ * followed by a directory of tagged sections, each holding one little-endian primitive array:
+ * <pre>
+ *     magic "BMAPGRPH" | int version | int section count | long file length | long CRC-32
+ *     section count x (int tag | int reserved | long offset | long length)
+ *     sections, each starting on an 8-byte boundary
+ * </pre>
+ * The CRC-32 covers everything after the header, so a truncated or partially written file is
+ * rejected instead of being served. Reading a snapshot maps every section with
+ * <code>FileChannel.map</code> and hands out typed views of the mapped bytes, so a graph can be
+ * served without parsing anything and with almost nothing on the heap. Which tags exist and what
+ * they mean is up to <code>GraphDB</code>.
+ */
+public class GraphSnapshot {
+    /** The first eight bytes of every snapshot file. */
+    private static final byte[] MAGIC = "BMAPGRPH".getBytes(StandardCharsets.US_ASCII);
+    /** Bump whenever the meaning or the set of required sections changes. */
+    static final int VERSION = 5;
+    /** All section contents are little-endian, which is also the native order on x86 and ARM. */
+    static final ByteOrder ORDER = ByteOrder.LITTLE_ENDIAN;
+
+    private static final int HEADER_BYTES = 32;
+    /** Checksums are computed over mapped windows of at most this many bytes. */
+    private static final long CHECKSUM_WINDOW = 1 << 28;
+    private static final int DIRECTORY_ENTRY_BYTES = 24;
+
+    /** Section contents keyed by tag, kept sorted so files are written deterministically. */
+    private final Map<Integer, ByteBuffer> sections = new TreeMap<>();
+
+    public GraphSnapshot() {
+    }
+
+    /**
+     * Returns whether the file at <code>path</code> starts with the snapshot magic bytes.
+     *
+     * @param path The file to check.
+     * @return True if the file looks like a graph snapshot.
+     */
+    public static boolean isSnapshot(Path path) {
+        if (!Files.isRegularFile(path)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            ByteBuffer magic = ByteBuffer.allocate(MAGIC.length);
+            while (magic.hasRemaining() && channel.read(magic) >= 0) {
+                continue;
+            }
+            return !magic.hasRemaining() && Arrays.equals(magic.array(), MAGIC);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Maps every section of the snapshot at <code>path</code> into memory.
+     *
+     * @param path The snapshot file.
+     * @return A <code>GraphSnapshot</code> whose sections are views of the mapped file.
+     * @throws IOException If the file cannot be read or is not a valid snapshot of this version.
+     */
+    public static GraphSnapshot map(Path path) throws IOException {
+        GraphSnapshot snapshot = new GraphSnapshot();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < HEADER_BYTES) {
+                throw new IOException("Truncated graph snapshot: " + path);
+            }
+            ByteBuffer header = channel.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES)
+                    .order(ORDER);
+            byte[] magic = new byte[MAGIC.length];
+            header.get(magic);
+            if (!Arrays.equals(magic, MAGIC)) {
+                throw new IOException("Not a graph snapshot: " + path);
+            }
+            int version = header.getInt();
+            if (version != VERSION) {
+                String msg = String.format("Graph snapshot %s has version %d, expected %d.",
+                        path, version, VERSION);
+                throw new IOException(msg);
+            }
+            int count = header.getInt();
+            long length = header.getLong();
+            long checksum = header.getLong();
+            if (length != size) {
+                throw new IOException("Truncated graph snapshot: " + path);
+            }
+            if (checksum(channel, HEADER_BYTES, size) != checksum) {
+                throw new IOException("Checksum mismatch in graph snapshot: " + path);
+            }
+            ByteBuffer directory = channel.map(FileChannel.MapMode.READ_ONLY, HEADER_BYTES,
+                    (long) count * DIRECTORY_ENTRY_BYTES).order(ORDER);
+            for (int i = 0; i < count; i++) {
+                int tag = directory.getInt();
+                directory.getInt();
+                long offset = directory.getLong();
+                long bytes = directory.getLong();
+                if (offset < 0 || bytes < 0 || offset + bytes > size) {
+                    throw new IOException("Corrupt section directory in " + path);
+                }
+                ByteBuffer section = channel.map(FileChannel.MapMode.READ_ONLY, offset, bytes);
+                snapshot.sections.put(tag, section.order(ORDER));
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * Writes every section to <code>path</code>, replacing any existing file.
+     *
+     * @param path The file to write.
+     * @throws IOException If the file cannot be written.
+     */
+    public void write(Path path) throws IOException {
+        int count = sections.size();
+        long[] positions = new long[count];
+        long offset = align(HEADER_BYTES + (long) count * DIRECTORY_ENTRY_BYTES);
+        ByteBuffer directory = ByteBuffer.allocate(count * DIRECTORY_ENTRY_BYTES).order(ORDER);
+        int i = 0;
+        for (Map.Entry<Integer, ByteBuffer> entry : sections.entrySet()) {
+            long bytes = entry.getValue().remaining();
+            directory.putInt(entry.getKey()).putInt(0).putLong(offset).putLong(bytes);
+            positions[i++] = offset;
+            offset = align(offset + bytes);
+        }
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            writeFully(channel, directory.flip(), HEADER_BYTES);
+            i = 0;
+            for (ByteBuffer section : sections.values()) {
+                writeFully(channel, section.duplicate(), positions[i++]);
+            }
+            if (channel.size() < offset) {
+                writeFully(channel, ByteBuffer.allocate((int) (offset - channel.size())),
+                        channel.size());
+            }
+            /* The header goes last, so a crash part way through never leaves a valid header. */
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES).order(ORDER);
+            header.put(MAGIC).putInt(VERSION).putInt(count).putLong(offset)
+                    .putLong(checksum(channel, HEADER_BYTES, offset));
+            writeFully(channel, header.flip(), 0);
+            channel.force(true);
+        }
+    }
+
+    /** Returns the CRC-32 of the bytes <code>[from, to)</code> of <code>channel</code>. */
+    private static long checksum(FileChannel channel, long from, long to) throws IOException {
+        CRC32 crc = new CRC32();
+        for (long position = from; position < to; position += CHECKSUM_WINDOW) {
+            long length = Math.min(CHECKSUM_WINDOW, to - position);
+            crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, length));
+        }
+        return crc.getValue();
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer src, long position)
+            throws IOException {
+        while (src.hasRemaining()) {
+            position += channel.write(src, position);
+        }
+    }
+
+    private static long align(long offset) {
+        return (offset + 7) & ~7L;
+    }
+
+    public boolean has(int tag) {
+        return sections.containsKey(tag);
+    }
+
+    /**
+     * Returns the raw bytes of section <code>tag</code>.
+     *
+     * @param tag The section tag.
+     * @return A read-only little-endian view of the section.
+     * @throws IllegalArgumentException If the snapshot has no such section.
+     */
+    public ByteBuffer bytes(int tag) {
+        ByteBuffer section = sections.get(tag);
+        if (section == null) {
+            throw new IllegalArgumentException("Graph snapshot is missing section " + tag);
+        }
+        return section.duplicate().order(ORDER);
+    }
+
+    public IntBuffer ints(int tag) {
+        return bytes(tag).asIntBuffer();
+    }
+
+    public LongBuffer longs(int tag) {
+        return bytes(tag).asLongBuffer();
+    }
+
+    public FloatBuffer floats(int tag) {
+        return bytes(tag).asFloatBuffer();
+    }
+
+    public DoubleBuffer doubles(int tag) {
+        return bytes(tag).asDoubleBuffer();
+    }
+
+    public GraphSnapshot putBytes(int tag, ByteBuffer values) {
+        ByteBuffer section = ByteBuffer.allocate(values.remaining());
+        section.put(values.duplicate()).flip();
+        sections.put(tag, section.order(ORDER));
+        return this;
+    }
+
+    public GraphSnapshot putInts(int tag, IntBuffer values) {
+        ByteBuffer section = ByteBuffer.allocate(values.remaining() * Integer.BYTES).order(ORDER);
+        section.asIntBuffer().put(values.duplicate());
+        sections.put(tag, section);
+        return this;
+    }
+
+    public GraphSnapshot putLongs(int tag, LongBuffer values) {
+        ByteBuffer section = ByteBuffer.allocate(values.remaining() * Long.BYTES).order(ORDER);
+        section.asLongBuffer().put(values.duplicate());
+        sections.put(tag, section);
+        return this;
+    }
+
+    public GraphSnapshot putFloats(int tag, FloatBuffer values) {
+        ByteBuffer section = ByteBuffer.allocate(values.remaining() * Float.BYTES).order(ORDER);
+        section.asFloatBuffer().put(values.duplicate());
+        sections.put(tag, section);
+        return this;
+    }
+
+    public GraphSnapshot putDoubles(int tag, DoubleBuffer values) {
+        ByteBuffer section = ByteBuffer.allocate(values.remaining() * Double.BYTES).order(ORDER);
+        section.asDoubleBuffer().put(values.duplicate());
+        sections.put(tag, section);
+        return this;
+    }
+
+    /**
+     * Compiles an OSM XML file into a graph snapshot, so that servers can start from the
+     * snapshot instead of parsing the XML.
+     *
+     * @param args The OSM XML path followed by the snapshot path to write.
+     * @throws IOException If the snapshot cannot be written.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: GraphSnapshot <osm.xml> <snapshot>");
+            System.exit(1);
+        }
+        GraphDB g = new GraphDB(args[0]);
+        g.writeSnapshot(Paths.get(args[1]));
+        System.out.println("Wrote " + g.size() + " vertices to " + args[1]);
+    }
+}
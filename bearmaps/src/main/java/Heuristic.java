@@ -0,0 +1,57 @@
+/**
+ * A lower bound on the road distance between two vertices, used by <code>Router</code> to steer
+ * its search towards the destination. A heuristic must be admissible, never estimating more
+ * than the true shortest distance, and should be consistent, so that
+ * <code>estimate(u, t) &lt;= weight(u, v) + estimate(v, t)</code> for every edge; then every
+ * vertex the search settles is final and the route found is a shortest one. The larger the
+ * estimates, the fewer vertices the search settles.
+ */
+public interface Heuristic {
+    /**
+     * Edge weights are great-circle lengths rounded to <code>float</code>, so a route can be
+     * shorter than the great-circle distance by float rounding. Shrinking estimates by this
+     * factor keeps them admissible.
+     */
+    double ROUNDING_SLACK = 1 - 1e-6;
+
+    /**
+     * Returns a lower bound on the distance in miles from vertex <code>v</code> to
+     * <code>target</code>.
+     *
+     * @param v      The dense index of a vertex.
+     * @param target The dense index of the destination.
+     * @return The estimate, at least 0.
+     */
+    double estimate(int v, int target);
+
+    /** The zero heuristic, which turns A* into Dijkstra's algorithm. */
+    Heuristic NONE = (v, target) -> 0.0;
+
+    /** Radius of the Earth in miles, as in <code>GraphDB</code>. */
+    int R = 3963;
+
+    /**
+     * Returns the great-circle distance heuristic for <code>g</code>. It is admissible and
+     * consistent because every edge is weighted by the great-circle length of its segment.
+     *
+     * The estimate is the chord through the Earth rather than the arc: haversine gives the arc as
+     * <code>2R asin(sqrt(a))</code>, and dropping the <code>asin</code> leaves the chord, which is
+     * never longer, still obeys the triangle inequality, and differs from the arc by a relative
+     * <code>a / 6</code>, well under a millionth over the length of a city. That saves the
+     * inverse trigonometry on every vertex the search reaches.
+     *
+     * @param g The graph the search runs on.
+     * @return The heuristic.
+     */
+    static Heuristic greatCircle(GraphDB g) {
+        return (v, target) -> {
+            double phi1 = Math.toRadians(g.latAt(v));
+            double phi2 = Math.toRadians(g.latAt(target));
+            double sinHalfDphi = Math.sin((phi2 - phi1) / 2.0);
+            double sinHalfDlambda = Math.sin(Math.toRadians(g.lonAt(target) - g.lonAt(v)) / 2.0);
+            double a = sinHalfDphi * sinHalfDphi
+                    + Math.cos(phi1) * Math.cos(phi2) * sinHalfDlambda * sinHalfDlambda;
+            return 2 * R * Math.sqrt(a) * ROUNDING_SLACK;
+        };
+    }
+}
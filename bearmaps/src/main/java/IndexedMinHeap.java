@@ -0,0 +1,156 @@
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * A min-priority queue over the dense vertex indices <code>[0, capacity)</code>, stored as an
+ * implicit 4-ary heap in primitive arrays. Every vertex is in the queue at most once with a
+ * <code>double</code> key, and the queue tracks where each vertex sits in the heap, so lowering
+ * the key of a queued vertex is a sift-up in place rather than a linear remove and re-insert.
+ *
+ * A 4-ary heap is shallower than a binary one, so decrease-key, which shortest-path searches do
+ * far more often than poll, touches fewer levels; the four children of a node are adjacent in
+ * memory, so the extra comparisons in poll are cheap.
+ */
+public class IndexedMinHeap {
+    /** Children per heap node. */
+    private static final int ARITY = 4;
+
+    /** Vertex at each heap position; only <code>[0, size)</code> is in use. */
+    private final int[] heap;
+    /** Key at each heap position, stored by position so sifting never looks up a vertex. */
+    private final double[] keys;
+    /** Heap position of each vertex, or -1 if the vertex is not queued. */
+    private final int[] position;
+    private int size;
+
+    /**
+     * Creates an empty queue for vertices <code>0</code> through <code>capacity - 1</code>.
+     *
+     * @param capacity The number of vertices.
+     */
+    public IndexedMinHeap(int capacity) {
+        heap = new int[capacity];
+        keys = new double[capacity];
+        position = new int[capacity];
+        Arrays.fill(position, -1);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** Returns whether vertex <code>v</code> is queued. */
+    public boolean contains(int v) {
+        return position[v] >= 0;
+    }
+
+    /**
+     * Returns the key of a queued vertex.
+     *
+     * @param v A vertex in the queue.
+     * @return Its key.
+     */
+    public double key(int v) {
+        return keys[position[v]];
+    }
+
+    /**
+     * Queues <code>v</code> with <code>key</code>, or lowers its key if it is already queued with
+     * a higher one. A key that is not lower than the queued one is ignored.
+     *
+     * @param v   The vertex.
+     * @param key Its new key.
+     * @return True if the queue changed.
+     */
+    public boolean offer(int v, double key) {
+        int i = position[v];
+        if (i < 0) {
+            i = size++;
+        } else if (key >= keys[i]) {
+            return false;
+        }
+        siftUp(i, v, key);
+        return true;
+    }
+
+    /** Returns the key of the vertex that <code>poll</code> would return next. */
+    public double peekKey() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        return keys[0];
+    }
+
+    /**
+     * Removes and returns the vertex with the smallest key.
+     *
+     * @return The vertex.
+     * @throws NoSuchElementException If the queue is empty.
+     */
+    public int poll() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        int min = heap[0];
+        position[min] = -1;
+        size--;
+        if (size > 0) {
+            siftDown(0, heap[size], keys[size]);
+        }
+        return min;
+    }
+
+    /** Removes every queued vertex, in time proportional to the number queued. */
+    public void clear() {
+        for (int i = 0; i < size; i++) {
+            position[heap[i]] = -1;
+        }
+        size = 0;
+    }
+
+    /** Moves <code>v</code> with <code>key</code> up from the hole at <code>i</code>. */
+    private void siftUp(int i, int v, double key) {
+        while (i > 0) {
+            int parent = (i - 1) / ARITY;
+            if (keys[parent] <= key) {
+                break;
+            }
+            place(i, heap[parent], keys[parent]);
+            i = parent;
+        }
+        place(i, v, key);
+    }
+
+    /** Moves <code>v</code> with <code>key</code> down from the hole at <code>i</code>. */
+    private void siftDown(int i, int v, double key) {
+        while (true) {
+            int first = i * ARITY + 1;
+            if (first >= size) {
+                break;
+            }
+            int last = Math.min(first + ARITY, size);
+            int best = first;
+            for (int c = first + 1; c < last; c++) {
+                if (keys[c] < keys[best]) {
+                    best = c;
+                }
+            }
+            if (keys[best] >= key) {
+                break;
+            }
+            place(i, heap[best], keys[best]);
+            i = best;
+        }
+        place(i, v, key);
+    }
+
+    private void place(int i, int v, double key) {
+        heap[i] = v;
+        keys[i] = key;
+        position[v] = i;
+    }
+}
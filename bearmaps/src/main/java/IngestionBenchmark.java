@@ -0,0 +1,87 @@
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * This class provides a main method for timing how fast OSM XML is read, comparing the SAX
+ * <code>GraphBuildingHandler</code> with the parallel <code>OsmIngest</code> scanner at a range of
+ * thread counts. The file is loaded into memory first, so only parsing is measured. It then
+ * compares one-pass and two-pass reads of the file itself by time and by the number of nodes
+ * that have to be held in memory. Finally, if compressed copies of the file exist next to it
+ * (the same name plus <code>.gz</code>, <code>.bz2</code> or <code>.xz</code>), or a PBF copy
+ * (<code>.xml</code> replaced by <code>.pbf</code>), their wall time is compared with that of the
+ * raw file.
+ *
+ * Usage: <code>IngestionBenchmark [osm-file] [rounds]</code>
+ */
+public class IngestionBenchmark {
+    private static final String OSM_DB_PATH = "../library-su18/bearmaps/berkeley-2018.osm.xml";
+
+    public static void main(String[] args) throws IOException {
+        String path = args.length > 0 ? args[0] : OSM_DB_PATH;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+        byte[] xml = Files.readAllBytes(Paths.get(path));
+        System.out.printf("%s: %.1f MB, %d processors%n", path, xml.length / 1e6,
+                Runtime.getRuntime().availableProcessors());
+
+        double sax = best(rounds, () -> OsmIngest.readWithSax(new ByteArrayInputStream(xml)));
+        report("SAX", sax, sax, xml.length);
+        int maxThreads = Math.max(4, Runtime.getRuntime().availableProcessors());
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            final int t = threads;
+            double ms = best(rounds, () -> OsmIngest.read(new ByteArrayInputStream(xml), t));
+            report("scanner, " + threads + " thread" + (threads == 1 ? "" : "s"), ms, sax,
+                    xml.length);
+        }
+
+        int threads = OsmIngest.defaultThreads();
+        for (boolean twoPass : new boolean[] {false, true}) {
+            double ms = best(rounds, () -> OsmIngest.read(Paths.get(path), threads, twoPass));
+            OsmData data = OsmIngest.read(Paths.get(path), threads, twoPass);
+            System.out.printf("%-22s %8.1f ms %,10d nodes kept (%,d KB of node buffers)%n",
+                    twoPass ? "two-pass file read" : "one-pass file read", ms, data.nodeCount,
+                    data.nodeCount * (Long.BYTES + 2 * Double.BYTES) / 1024);
+        }
+
+        double raw = best(rounds, () -> OsmIngest.read(Paths.get(path), threads, false));
+        report("raw file", raw, raw, xml.length);
+        for (String suffix : new String[] {".gz", ".bz2", ".xz"}) {
+            Path compressed = Paths.get(path + suffix);
+            if (Files.exists(compressed)) {
+                double ms = best(rounds, () -> OsmIngest.read(compressed, threads, false));
+                report(compressed.getFileName().toString(), ms, raw, xml.length);
+            }
+        }
+        Path pbf = Paths.get(path.replaceFirst("\\.xml$", ".pbf"));
+        if (!pbf.equals(Paths.get(path)) && Files.exists(pbf)) {
+            double ms = best(rounds, () -> OsmIngest.read(pbf, threads, false));
+            report(pbf.getFileName().toString(), ms, raw, xml.length);
+        }
+    }
+
+    private interface Parse {
+        OsmData run() throws IOException;
+    }
+
+    /** Returns the fastest of <code>rounds</code> runs, in milliseconds, after one warm-up. */
+    private static double best(int rounds, Parse parse) throws IOException {
+        parse.run();
+        double best = Double.MAX_VALUE;
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            OsmData data = parse.run();
+            best = Math.min(best, (System.nanoTime() - start) / 1e6);
+            if (data.nodeCount == 0) {
+                throw new IllegalStateException("No nodes were read");
+            }
+        }
+        return best;
+    }
+
+    private static void report(String name, double ms, double baseline, long bytes) {
+        System.out.printf("%-22s %8.1f ms %8.1f MB/s %6.2fx%n", name, ms, bytes / ms / 1e3,
+                baseline / ms);
+    }
+}
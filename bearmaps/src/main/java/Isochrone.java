@@ -0,0 +1,108 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Everything reachable by road within a few distance limits of one origin, computed by
+ * <code>Router.isochrone</code> in a single search. Vertices are kept in the order the search
+ * settled them, nearest first, so the vertices within each limit are a prefix of the same
+ * arrays.
+ */
+public class Isochrone {
+    /** The distance limits in miles, ascending. */
+    final double[] bands;
+    /** The dense index of the origin vertex. */
+    final int origin;
+    /** Reached vertices and their distances from the origin, nearest first. */
+    final int[] vertices;
+    final double[] distances;
+    /** The vertices within <code>bands[b]</code> are <code>vertices[0, bandEnds[b])</code>. */
+    final int[] bandEnds;
+    /**
+     * The adjacency the search ran on, with the weight overlay in force at the time, so roads
+     * are drawn as reachable exactly when the search could use them.
+     */
+    final CSRGraph adjacency;
+
+    Isochrone(double[] bands, int origin, int[] vertices, double[] distances,
+              CSRGraph adjacency) {
+        this.bands = bands;
+        this.origin = origin;
+        this.vertices = vertices;
+        this.distances = distances;
+        this.adjacency = adjacency;
+        this.bandEnds = new int[bands.length];
+        for (int b = 0, end = 0; b < bands.length; b++) {
+            while (end < distances.length && distances[end] <= bands[b]) {
+                end++;
+            }
+            bandEnds[b] = end;
+        }
+    }
+
+    /**
+     * Returns the number of vertices within a band's limit.
+     *
+     * @param band The index of the band.
+     * @return The number of vertices, including the origin.
+     */
+    public int size(int band) {
+        return bandEnds[band];
+    }
+
+    /**
+     * Returns the vertices within a band's limit.
+     *
+     * @param g    The graph the isochrone was computed on.
+     * @param band The index of the band.
+     * @return The vertex IDs, nearest first.
+     */
+    public List<Long> vertexIds(GraphDB g, int band) {
+        List<Long> ids = new ArrayList<>(bandEnds[band]);
+        for (int i = 0; i < bandEnds[band]; i++) {
+            ids.add(g.id(vertices[i]));
+        }
+        return ids;
+    }
+
+    /**
+     * Returns the convex hull of the vertices within a band's limit, found by Andrew's monotone
+     * chain. Longitude and latitude are treated as plane coordinates, which is exact for the
+     * hull at the scale of a city since it only stretches the plane.
+     *
+     * @param g    The graph the isochrone was computed on.
+     * @param band The index of the band.
+     * @return The hull's <code>{lon, lat}</code> corners, counter-clockwise and not closed; fewer
+     * than three if the vertices are collinear.
+     */
+    public double[][] outline(GraphDB g, int band) {
+        int n = bandEnds[band];
+        double[][] points = new double[n][];
+        for (int i = 0; i < n; i++) {
+            points[i] = new double[] {g.lonAt(vertices[i]), g.latAt(vertices[i])};
+        }
+        Arrays.sort(points, (p, q) -> p[0] != q[0] ? Double.compare(p[0], q[0])
+                : Double.compare(p[1], q[1]));
+        double[][] hull = new double[2 * n][];
+        int k = 0;
+        for (int i = 0; i < n; i++) {
+            while (k >= 2 && cross(hull[k - 2], hull[k - 1], points[i]) <= 0) {
+                k--;
+            }
+            hull[k++] = points[i];
+        }
+        for (int i = n - 2, lower = k + 1; i >= 0; i--) {
+            while (k >= lower && cross(hull[k - 2], hull[k - 1], points[i]) <= 0) {
+                k--;
+            }
+            hull[k++] = points[i];
+        }
+        /* The last point repeats the first one, except for a single point. */
+        return Arrays.copyOf(hull, Math.max(Math.min(n, 1), k - 1));
+    }
+
+    /** Returns the z component of <code>(b - a) x (c - a)</code>, positive for a left turn. */
+    private static double cross(double[] a, double[] b, double[] c) {
+        return (b[0] - a[0]) * (c[1] - a[1]) - (b[1] - a[1]) * (c[0] - a[0]);
+    }
+}
@@ -0,0 +1,75 @@
+import java.util.Map;
+
+/**
+ * The IsochroneRequestParams contains the fields received from the browser in an isochrone
+ * request: the origin as <code>lon</code> and <code>lat</code>, and optionally the distance
+ * limits in miles as a comma-separated <code>bands</code> list, by default
+ * <code>0.25,0.5,1</code>.
+ */
+public class IsochroneRequestParams {
+    /** The most bands one request may ask for. */
+    public static final int MAX_BANDS = 5;
+    /** The largest limit one request may ask for, in miles. */
+    public static final double MAX_DISTANCE = 5.0;
+    /** The bands used when the request names none. */
+    private static final double[] DEFAULT_BANDS = {0.25, 0.5, 1.0};
+
+    /** The origin longitude. */
+    public final double lon;
+    /** The origin latitude. */
+    public final double lat;
+    /** The distance limits in miles. */
+    public final double[] bands;
+
+    private IsochroneRequestParams(double lon, double lat, double[] bands) {
+        this.lon = lon;
+        this.lat = lat;
+        this.bands = bands;
+    }
+
+    /**
+     * Validate and return the fields of an isochrone request.
+     * @param req The queryParams map from a Spark HTTP Request.
+     * @return The parsed request.
+     */
+    public static IsochroneRequestParams from(Map<String, String[]> req) {
+        double lon = parse(req, "lon");
+        double lat = parse(req, "lat");
+        double[] bands = DEFAULT_BANDS.clone();
+        if (req.containsKey("bands") && req.get("bands").length > 0) {
+            String[] limits = req.get("bands")[0].split(",");
+            if (limits.length > MAX_BANDS) {
+                String msg = String.format("Request failed: more than %d bands.", MAX_BANDS);
+                throw new IllegalArgumentException(msg);
+            }
+            bands = new double[limits.length];
+            for (int i = 0; i < limits.length; i++) {
+                try {
+                    bands[i] = Double.parseDouble(limits[i].trim());
+                } catch (NumberFormatException e) {
+                    String msg = String.format("Incorrect parameters: unable to parse band %d.", i);
+                    throw new IllegalArgumentException(msg);
+                }
+                if (!(bands[i] > 0 && bands[i] <= MAX_DISTANCE)) {
+                    String msg = String.format("Incorrect parameters: band %d must be in (0, %s].",
+                            i, MAX_DISTANCE);
+                    throw new IllegalArgumentException(msg);
+                }
+            }
+        }
+        return new IsochroneRequestParams(lon, lat, bands);
+    }
+
+    private static double parse(Map<String, String[]> req, String param) {
+        if (!req.containsKey(param)) {
+            String msg = String.format("Request failed: %s not found.", param);
+            throw new IllegalArgumentException(msg);
+        }
+        try {
+            return Double.parseDouble(req.get(param)[0]);
+        } catch (ArrayIndexOutOfBoundsException | NumberFormatException e) {
+            String msg = String.format("Incorrect parameters: unable to parse %s.", param);
+            throw new IllegalArgumentException(msg);
+        }
+    }
+}
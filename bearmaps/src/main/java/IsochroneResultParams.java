@@ -0,0 +1,30 @@
+/**
+ * The IsochroneResultParams contains the bands computed by Router.isochrone for serialization by
+ * Gson.
+ *
+ * The fields in this class cannot be accessed as it is only used to serialize results in MapServer.
+ */
+class IsochroneResultParams {
+    /** The distance limits in miles, ascending. */
+    private final double[] bands;
+    /** The number of vertices reachable within each limit. */
+    private final int[] vertexCounts;
+    /** The convex outline of each band as <code>[lon, lat]</code> corners. */
+    private final double[][][] outlines;
+
+    /**
+     * Constructs an IsochroneResultParams from every band of <code>isochrone</code>.
+     * @param g The graph the isochrone was computed on.
+     * @param isochrone The isochrone.
+     */
+    IsochroneResultParams(GraphDB g, Isochrone isochrone) {
+        int n = isochrone.bands.length;
+        this.bands = isochrone.bands;
+        this.vertexCounts = new int[n];
+        this.outlines = new double[n][][];
+        for (int b = 0; b < n; b++) {
+            vertexCounts[b] = isochrone.size(b);
+            outlines[b] = isochrone.outline(g, b);
+        }
+    }
+}
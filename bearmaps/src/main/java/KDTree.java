@@ -1,42 +1,215 @@
-public class KDTree<T> {
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.function.IntPredicate;
 
-    T item;
-    KDTree<T> left;
-    KDTree<T> right;
+/**
+ * A 2-d tree over the projected coordinates of the graph's vertices, stored implicitly in flat
+ * buffers rather than as linked nodes. The median of every index range <code>[lo, hi)</code>
+ * sits at <code>mid = (lo + hi) / 2</code>, with its left subtree in <code>[lo, mid)</code> and
+ * its right subtree in <code>[mid + 1, hi)</code>. Even depths split on x and odd depths on y.
+ *
+ * Because the tree is just three buffers it can be written to a graph snapshot and served
+ * straight from a memory-mapped file. A tree may also keep only the vertex order and compute the
+ * projected points on demand from a <code>Projection</code>, trading some trigonometry per
+ * visited node for two fewer doubles per vertex.
+ */
+public class KDTree {
 
-    public KDTree(T item) {
-        this.item = item;
-        this.left = null;
-        this.right = null;
+    /** Computes the projected point of a vertex on demand. */
+    interface Projection {
+        double x(int v);
+
+        double y(int v);
+    }
+
+    /** Vertex index stored at each tree position. */
+    final IntBuffer order;
+    /** Projected x-value of the vertex at each tree position, or null if not stored. */
+    final DoubleBuffer xs;
+    /** Projected y-value of the vertex at each tree position, or null if not stored. */
+    final DoubleBuffer ys;
+    /** Source of the projected points when <code>xs</code> and <code>ys</code> are null. */
+    private final Projection projection;
+
+    KDTree(IntBuffer order, DoubleBuffer xs, DoubleBuffer ys) {
+        this.order = order;
+        this.xs = xs;
+        this.ys = ys;
+        this.projection = null;
+    }
+
+    /**
+     * Creates a tree that stores only its vertex order and projects vertices on demand.
+     *
+     * @param order      The vertex index at each tree position, as built by <code>build</code>.
+     * @param projection The projected point of every vertex.
+     */
+    KDTree(IntBuffer order, Projection projection) {
+        this.order = order;
+        this.xs = null;
+        this.ys = null;
+        this.projection = projection;
+    }
+
+    /** Returns whether this tree stores its projected points rather than computing them. */
+    boolean storesPoints() {
+        return xs != null;
+    }
+
+    /**
+     * Builds a tree over the points <code>(x[i], y[i])</code>, where <code>i</code> is the
+     * vertex index.
+     *
+     * @param x The projected x-value of every vertex.
+     * @param y The projected y-value of every vertex.
+     * @return A new <code>KDTree</code>.
+     */
+    public static KDTree build(double[] x, double[] y) {
+        int n = x.length;
+        int[] order = buildOrder(x, y);
+        double[] xs = new double[n];
+        double[] ys = new double[n];
+        for (int i = 0; i < n; i++) {
+            xs[i] = x[order[i]];
+            ys[i] = y[order[i]];
+        }
+        return new KDTree(IntBuffer.wrap(order), DoubleBuffer.wrap(xs), DoubleBuffer.wrap(ys));
+    }
+
+    /**
+     * Builds a tree over the points <code>(x[i], y[i])</code> that keeps only its vertex order
+     * and asks <code>projection</code> for the points at query time. The projection must return
+     * exactly <code>x[v]</code> and <code>y[v]</code>.
+     *
+     * @param x          The projected x-value of every vertex.
+     * @param y          The projected y-value of every vertex.
+     * @param projection The same points, computed on demand.
+     * @return A new <code>KDTree</code>.
+     */
+    public static KDTree build(double[] x, double[] y, Projection projection) {
+        return new KDTree(IntBuffer.wrap(buildOrder(x, y)), projection);
+    }
+
+    private static int[] buildOrder(double[] x, double[] y) {
+        int[] order = new int[x.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        construct(order, x, y, 0, order.length, true);
+        return order;
     }
 
-    public KDTree(T item, KDTree left, KDTree right) {
-        this.item = item;
-        this.left = left;
-        this.right = right;
+    private static void construct(int[] order, double[] x, double[] y,
+                                  int lo, int hi, boolean sortByX) {
+        if (hi - lo <= 1) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        select(order, sortByX ? x : y, lo, hi - 1, mid);
+        construct(order, x, y, lo, mid, !sortByX);
+        construct(order, x, y, mid + 1, hi, !sortByX);
     }
 
-    public T getItem() {
-        return item;
+    /** Quickselect: partially orders <code>order[lo..hi]</code> so position k holds the median. */
+    private static void select(int[] order, double[] key, int lo, int hi, int k) {
+        while (lo < hi) {
+            double pivot = key[order[(lo + hi) >>> 1]];
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (key[order[i]] < pivot) {
+                    i++;
+                }
+                while (key[order[j]] > pivot) {
+                    j--;
+                }
+                if (i <= j) {
+                    int tmp = order[i];
+                    order[i] = order[j];
+                    order[j] = tmp;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
     }
 
-    public void setItem(T item) {
-        this.item = item;
+    public int size() {
+        return order.limit();
     }
 
-    public KDTree<T> getLeft() {
-        return left;
+    /**
+     * Returns the vertex whose projected point is closest to <code>(queryX, queryY)</code>.
+     *
+     * @param queryX The projected x-value of the query point.
+     * @param queryY The projected y-value of the query point.
+     * @return The index of the closest vertex, or -1 if the tree is empty.
+     */
+    public int nearest(double queryX, double queryY) {
+        return nearest(queryX, queryY, v -> true);
     }
 
-    public void setLeft(KDTree<T> left) {
-        this.left = left;
+    /**
+     * Returns the vertex accepted by <code>accept</code> whose projected point is closest to
+     * <code>(queryX, queryY)</code>. Rejected vertices still split the tree, so the search
+     * prunes as well as an unfiltered one once it has found an accepted vertex.
+     *
+     * @param queryX The projected x-value of the query point.
+     * @param queryY The projected y-value of the query point.
+     * @param accept Whether a vertex may be returned.
+     * @return The index of the closest accepted vertex, or -1 if there is none.
+     */
+    public int nearest(double queryX, double queryY, IntPredicate accept) {
+        Nearest best = new Nearest();
+        nearest(queryX, queryY, 0, size(), true, accept, best);
+        return best.index;
     }
 
-    public KDTree<T> getRight() {
-        return right;
+    private void nearest(double queryX, double queryY, int lo, int hi, boolean checkX,
+                         IntPredicate accept, Nearest best) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        double dx;
+        double dy;
+        if (xs != null) {
+            dx = queryX - xs.get(mid);
+            dy = queryY - ys.get(mid);
+        } else {
+            int v = order.get(mid);
+            dx = queryX - projection.x(v);
+            dy = queryY - projection.y(v);
+        }
+        double dist = dx * dx + dy * dy;
+        if (dist < best.distance && accept.test(order.get(mid))) {
+            best.distance = dist;
+            best.index = order.get(mid);
+        }
+        double split = checkX ? dx : dy;
+        if (split < 0) {
+            nearest(queryX, queryY, lo, mid, !checkX, accept, best);
+            if (split * split < best.distance) {
+                nearest(queryX, queryY, mid + 1, hi, !checkX, accept, best);
+            }
+        } else {
+            nearest(queryX, queryY, mid + 1, hi, !checkX, accept, best);
+            if (split * split < best.distance) {
+                nearest(queryX, queryY, lo, mid, !checkX, accept, best);
+            }
+        }
     }
 
-    public void setRight(KDTree<T> right) {
-        this.right = right;
+    /** The best candidate found so far during a nearest-neighbor search. */
+    private static class Nearest {
+        int index = -1;
+        double distance = Double.POSITIVE_INFINITY;
     }
 }
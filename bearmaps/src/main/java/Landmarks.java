@@ -0,0 +1,190 @@
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The ALT heuristic: A* with landmarks and the triangle inequality. For a landmark
+ * <code>L</code> and any vertices <code>v</code> and <code>t</code>, the road distance
+ * <code>d(v, t)</code> is at least <code>|d(L, t) - d(L, v)|</code>, so with the distances from a
+ * few landmarks precomputed, the largest of these differences is a lower bound that follows the
+ * roads instead of cutting across them like the great-circle distance. It pays most when a
+ * landmark lies behind the source or beyond the destination, so landmarks are spread around
+ * the edge of the map: each is the vertex farthest from the ones already chosen.
+ *
+ * Preprocessing runs one Dijkstra per landmark, all in parallel, and keeps
+ * <code>4 * size()</code> bytes per landmark, stored vertex by vertex so one estimate reads two
+ * short runs of floats. Distances are rounded down to <code>float</code> as Dijkstra adds each
+ * edge, which keeps every stored difference across an edge within the edge's weight; the bound
+ * is then exactly consistent, as <code>Router</code> requires, despite the reduced precision.
+ */
+public class Landmarks implements Heuristic {
+    /** Dense indices of the landmarks. */
+    final int[] landmarks;
+    /**
+     * Distance from landmark <code>i</code> to vertex <code>v</code> at <code>v * k + i</code>,
+     * or infinity if the vertex is unreachable from it.
+     */
+    final float[] distances;
+    private final int k;
+
+    private Landmarks(int[] landmarks, float[] distances) {
+        this.landmarks = landmarks;
+        this.distances = distances;
+        this.k = landmarks.length;
+    }
+
+    /**
+     * Chooses up to <code>count</code> landmarks in the largest connected part of
+     * <code>g</code> and computes the distance from each to every vertex.
+     *
+     * @param g       The graph.
+     * @param count   The number of landmarks to choose.
+     * @param threads The number of threads to run the Dijkstra passes on.
+     * @return The heuristic.
+     */
+    public static Landmarks build(GraphDB g, int count, int threads) {
+        int[] chosen = farthestLandmarks(g, count);
+        int n = g.size();
+        float[] distances = new float[n * chosen.length];
+        ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "landmark-dijkstra");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            List<Future<?>> passes = new ArrayList<>();
+            for (int i = 0; i < chosen.length; i++) {
+                int column = i;
+                passes.add(workers.submit(() -> {
+                    float[] dist = oneToAll(g, chosen[column]);
+                    for (int v = 0; v < n; v++) {
+                        distances[v * chosen.length + column] = dist[v];
+                    }
+                }));
+            }
+            for (Future<?> pass : passes) {
+                pass.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while computing landmarks", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IllegalStateException(cause);
+        } finally {
+            workers.shutdownNow();
+        }
+        return new Landmarks(chosen, distances);
+    }
+
+    /** Returns the number of landmarks. */
+    public int count() {
+        return k;
+    }
+
+    /** Returns the size of the distance tables in bytes. */
+    public long tableBytes() {
+        return 4L * distances.length;
+    }
+
+    @Override
+    public double estimate(int v, int target) {
+        double best = 0.0;
+        for (int i = 0, a = v * k, b = target * k; i < k; i++) {
+            double difference = Math.abs((double) distances[b + i] - distances[a + i]);
+            /* Landmarks that cannot reach both vertices give infinity or NaN; skip them. */
+            if (difference > best && difference != Double.POSITIVE_INFINITY) {
+                best = difference;
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Runs Dijkstra from <code>source</code> over the whole graph, rounding every distance
+     * down to the nearest <code>float</code>.
+     */
+    private static float[] oneToAll(GraphDB g, int source) {
+        float[] dist = new float[g.size()];
+        Arrays.fill(dist, Float.POSITIVE_INFINITY);
+        IndexedMinHeap fringe = new IndexedMinHeap(g.size());
+        CSRGraph.NeighborVisitor relax = (from, to, weight, edge) -> {
+            double sum = (double) dist[from] + weight;
+            float candidate = (float) sum;
+            if (candidate > sum) {
+                candidate = Math.nextDown(candidate);
+            }
+            if (candidate < dist[to]) {
+                dist[to] = candidate;
+                fringe.offer(to, candidate);
+            }
+        };
+        dist[source] = 0.0f;
+        fringe.offer(source, 0.0);
+        while (!fringe.isEmpty()) {
+            g.forEachNeighbor(fringe.poll(), relax);
+        }
+        return dist;
+    }
+
+    /**
+     * Picks landmarks in the largest connected part of the graph, starting with the vertex
+     * farthest from an arbitrary one and then repeatedly taking the vertex whose great-circle
+     * distance to the nearest landmark so far is largest.
+     */
+    private static int[] farthestLandmarks(GraphDB g, int count) {
+        int[] component = largestComponent(g);
+        int k = Math.min(count, component.length);
+        int[] chosen = new int[k];
+        if (k == 0) {
+            return chosen;
+        }
+        Heuristic greatCircle = Heuristic.greatCircle(g);
+        double[] nearest = new double[component.length];
+        Arrays.fill(nearest, Double.POSITIVE_INFINITY);
+        int next = farthest(greatCircle, component, component[0], nearest);
+        Arrays.fill(nearest, Double.POSITIVE_INFINITY);
+        for (int i = 0; i < k; i++) {
+            chosen[i] = next;
+            next = farthest(greatCircle, component, next, nearest);
+        }
+        return chosen;
+    }
+
+    /**
+     * Lowers <code>nearest</code> by the distances to <code>landmark</code> and returns the
+     * vertex of <code>component</code> now farthest from every landmark.
+     */
+    private static int farthest(Heuristic greatCircle, int[] component, int landmark,
+                                double[] nearest) {
+        int farthest = component[0];
+        double farthestDistance = -1.0;
+        for (int i = 0; i < component.length; i++) {
+            nearest[i] = Math.min(nearest[i], greatCircle.estimate(component[i], landmark));
+            if (nearest[i] > farthestDistance) {
+                farthestDistance = nearest[i];
+                farthest = component[i];
+            }
+        }
+        return farthest;
+    }
+
+    /** Returns the vertices of the largest connected component of <code>g</code>. */
+    private static int[] largestComponent(GraphDB g) {
+        int[] vertices = new int[g.size()];
+        int count = 0;
+        for (int v = 0; v < g.size(); v++) {
+            if (g.component(v) == g.largestComponent()) {
+                vertices[count++] = v;
+            }
+        }
+        return Arrays.copyOf(vertices, count);
+    }
+}
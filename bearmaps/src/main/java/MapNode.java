@@ -1,19 +1,19 @@
 public class MapNode {
 
-    Long id;
-    Double lon;
-    Double lat;
+    long id;
+    double lon;
+    double lat;
     String name;
     String amenity;
     String address;
 
-    public MapNode(Long id, Double lon, Double lat) {
+    public MapNode(long id, double lon, double lat) {
         this.id = id;
         this.lon = lon;
         this.lat = lat;
     }
 
-    public MapNode(Long id) {
+    public MapNode(long id) {
         this.id = id;
     }
 
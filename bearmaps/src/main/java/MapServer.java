@@ -7,9 +7,12 @@ import java.io.File;
 import java.awt.image.BufferedImage;
 import javax.imageio.ImageIO;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.Base64;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import com.google.gson.FieldNamingPolicy;
 import com.google.gson.Gson;
@@ -53,6 +56,11 @@ public class MapServer {
      * this route every time a new rastering result is requested from the browser.
      */
     private static List<Long> route;
+    /**
+     * The most recently-requested isochrone, or null. The <code>renderImage</code> method draws
+     * the roads it reaches under the route, shaded by band.
+     */
+    private static Isochrone isochrone;
     /** The configured Gson Java serializer. */
     private static Gson gson;
 
@@ -71,10 +79,18 @@ public class MapServer {
 
     /**
      * Launch the <code>mapServer</code>, register server routes, and listen on the default port.
+     * If <code>-Dbearmaps.weights.feed</code> names a file, it is followed as a
+     * <code>WeightFeed</code> of road closures and slowdowns, polled every
+     * <code>-Dbearmaps.weights.feedPeriod</code> milliseconds, 1000 by default.
      * @param args Ignored
      */
     public static void main(String[] args) {
         initialize();
+        String feed = System.getProperty("bearmaps.weights.feed");
+        if (feed != null) {
+            WeightFeed.start(graph, Paths.get(feed),
+                    Long.getLong("bearmaps.weights.feedPeriod", 1000));
+        }
         staticFileLocation("/page");
         /* Allow for all origin requests since this is not an authenticated server. */
         before((request, response) -> {
@@ -116,13 +132,70 @@ public class MapServer {
             } catch (IllegalArgumentException e) {
                 halt(HALT_RESPONSE, e.getMessage());
             }
-            route = Router.shortestPath(graph,
-                    params.startLon, params.startLat, params.endLon, params.endLat);
-            String directions = getDirectionsText(Router.routeDirections(graph, route));
+            RouteCache.Route cached = graph.routeCache().route(params.startLon,
+                    params.startLat, params.endLon, params.endLat, params.profile);
+            route = cached.path;
+            String directions = getDirectionsText(cached.directions);
             RouteResultParams routeParams = new RouteResultParams(!route.isEmpty(), directions);
             return gson.toJson(routeParams);
         });
 
+        /* Define the distance matrix endpoint for HTTP GET requests. */
+        get("/matrix", (req, res) -> {
+            MatrixRequestParams params = null;
+            try {
+                params = MatrixRequestParams.from(req.queryMap().toMap());
+            } catch (IllegalArgumentException e) {
+                halt(HALT_RESPONSE, e.getMessage());
+            }
+            double[] distances = Router.distanceMatrix(graph, params.sourceLons,
+                    params.sourceLats, params.targetLons, params.targetLats);
+            return gson.toJson(new MatrixResultParams(params.sourceLons.length,
+                    params.targetLons.length, distances));
+        });
+
+        /* Define the multi-stop trip endpoint for HTTP GET requests. */
+        get("/trip", (req, res) -> {
+            Trip trip = null;
+            try {
+                TripRequestParams params = TripRequestParams.from(req.queryMap().toMap());
+                trip = Router.trip(graph, params.lons, params.lats, params.roundTrip);
+            } catch (IllegalArgumentException e) {
+                halt(HALT_RESPONSE, e.getMessage());
+            }
+            route = trip.path;
+            return gson.toJson(new TripResultParams(trip));
+        });
+
+        /* Define the isochrone endpoint for HTTP GET requests. */
+        get("/isochrone", (req, res) -> {
+            IsochroneRequestParams params = null;
+            try {
+                params = IsochroneRequestParams.from(req.queryMap().toMap());
+            } catch (IllegalArgumentException e) {
+                halt(HALT_RESPONSE, e.getMessage());
+            }
+            isochrone = Router.isochrone(graph, params.lon, params.lat, params.bands);
+            return gson.toJson(new IsochroneResultParams(graph, isochrone));
+        });
+
+        /* Define the API endpoint for clearing the current isochrone. */
+        get("/clear_isochrone", (req, res) -> {
+            isochrone = null;
+            return true;
+        });
+
+        /* Define the API endpoint for the route cache's counters. */
+        get("/route_cache", (req, res) -> {
+            RouteCache cache = graph.routeCache();
+            Map<String, Long> stats = new LinkedHashMap<>();
+            stats.put("hits", cache.hits());
+            stats.put("misses", cache.misses());
+            stats.put("size", (long) cache.size());
+            stats.put("capacity", (long) cache.capacity());
+            return gson.toJson(stats);
+        });
+
         /* Define the API endpoint for clearing the current route. */
         get("/clear_route", (req, res) -> {
             route = Collections.emptyList();
@@ -174,6 +247,10 @@ public class MapServer {
                 }
             }
         }
+        /* If there is an isochrone, draw the roads it reaches under everything else. */
+        if (isochrone != null) {
+            drawIsochrone((Graphics2D) graphic, resultParams, img.getWidth(), img.getHeight());
+        }
         /* If there is a route, draw it. */
         if (route != null && !route.isEmpty()) {
             double ullon = resultParams.rasterUlLon;
@@ -197,6 +274,49 @@ public class MapServer {
         return img;
     }
 
+    /**
+     * Draws every road within reach of the current isochrone, the outer bands first and fainter
+     * so the inner ones stay visible on top. A road that crosses a band's limit is drawn up to
+     * the point where the limit runs out, and a closed road is not drawn at all.
+     * @param g2d The graphics of the rastered image.
+     * @param resultParams The bounding box of the image.
+     * @param width The width of the image in pixels.
+     * @param height The height of the image in pixels.
+     */
+    private static void drawIsochrone(Graphics2D g2d, RasterResultParams resultParams,
+                                      int width, int height) {
+        double ullon = resultParams.rasterUlLon;
+        double ullat = resultParams.rasterUlLat;
+        double wdpp = (resultParams.rasterLrLon - ullon) / width;
+        double hdpp = (ullat - resultParams.rasterLrLat) / height;
+        g2d.setStroke(new BasicStroke(ISOCHRONE_STROKE_WIDTH_PX,
+                BasicStroke.CAP_ROUND, BasicStroke.JOIN_ROUND));
+        CSRGraph adjacency = isochrone.adjacency;
+        for (int b = isochrone.bands.length - 1; b >= 0; b--) {
+            int alpha = 90 + 120 * (isochrone.bands.length - b) / isochrone.bands.length;
+            g2d.setColor(new Color(ISOCHRONE_STROKE_COLOR.getRed(),
+                    ISOCHRONE_STROKE_COLOR.getGreen(), ISOCHRONE_STROKE_COLOR.getBlue(), alpha));
+            double limit = isochrone.bands[b];
+            for (int i = 0; i < isochrone.size(b); i++) {
+                int v = isochrone.vertices[i];
+                double remaining = limit - isochrone.distances[i];
+                for (int e = adjacency.firstEdge(v); e < adjacency.endEdge(v); e++) {
+                    int w = adjacency.target(e);
+                    double weight = adjacency.weight(e);
+                    if (weight == Double.POSITIVE_INFINITY) {
+                        continue;
+                    }
+                    double reach = remaining >= weight ? 1.0 : remaining / weight;
+                    double lon = graph.lonAt(v) + reach * (graph.lonAt(w) - graph.lonAt(v));
+                    double lat = graph.latAt(v) + reach * (graph.latAt(w) - graph.latAt(v));
+                    g2d.drawLine((int) ((graph.lonAt(v) - ullon) / wdpp),
+                            (int) ((ullat - graph.latAt(v)) / hdpp),
+                            (int) ((lon - ullon) / wdpp), (int) ((ullat - lat) / hdpp));
+                }
+            }
+        }
+    }
+
     /**
      * Returns the image found at the given <code>imgPath</code>.
      * @param imgPath <code>String</code> path to the image.
@@ -234,6 +354,9 @@ public class MapServer {
     private static final float ROUTE_STROKE_WIDTH_PX = 5.0f;
     /** Route stroke information: semi-transparent cyan. */
     private static final Color ROUTE_STROKE_COLOR = new Color(108, 181, 230, 200);
+    /** Isochrone stroke information: thinner than a route, in semi-transparent orange. */
+    private static final float ISOCHRONE_STROKE_WIDTH_PX = 3.0f;
+    private static final Color ISOCHRONE_STROKE_COLOR = new Color(235, 130, 50);
     /** The directory where tile images can be found. */
     private static final String IMG_ROOT = "../library-su18/bearmaps/img/";
     /**
@@ -0,0 +1,64 @@
+import java.util.Map;
+
+/**
+ * The MatrixRequestParams contains the points received from the browser in a distance matrix
+ * request. Sources and targets are each given as one parameter listing
+ * <code>lon,lat</code> pairs separated by semicolons, such as
+ * <code>sources=-122.26,37.87;-122.25,37.86</code>.
+ */
+public class MatrixRequestParams {
+    /** The most sources, and the most targets, one request may ask for. */
+    public static final int MAX_POINTS = 500;
+
+    /** The source points. */
+    public final double[] sourceLons;
+    public final double[] sourceLats;
+    /** The target points. */
+    public final double[] targetLons;
+    public final double[] targetLats;
+
+    private MatrixRequestParams(double[][] sources, double[][] targets) {
+        this.sourceLons = sources[0];
+        this.sourceLats = sources[1];
+        this.targetLons = targets[0];
+        this.targetLats = targets[1];
+    }
+
+    /**
+     * Validate and return the points of a matrix request.
+     * @param req The queryParams map from a Spark HTTP Request.
+     * @return The parsed request.
+     */
+    public static MatrixRequestParams from(Map<String, String[]> req) {
+        return new MatrixRequestParams(points(req, "sources"), points(req, "targets"));
+    }
+
+    /** Parses the parameter <code>param</code> into its longitudes and latitudes. */
+    static double[][] points(Map<String, String[]> req, String param) {
+        if (!req.containsKey(param) || req.get(param).length == 0) {
+            String msg = String.format("Request failed: %s not found.", param);
+            throw new IllegalArgumentException(msg);
+        }
+        String[] pairs = req.get(param)[0].split(";");
+        if (pairs.length > MAX_POINTS) {
+            String msg = String.format("Request failed: more than %d %s.", MAX_POINTS, param);
+            throw new IllegalArgumentException(msg);
+        }
+        double[][] points = new double[2][pairs.length];
+        for (int i = 0; i < pairs.length; i++) {
+            String[] lonLat = pairs[i].split(",");
+            try {
+                if (lonLat.length != 2) {
+                    throw new NumberFormatException(pairs[i]);
+                }
+                points[0][i] = Double.parseDouble(lonLat[0].trim());
+                points[1][i] = Double.parseDouble(lonLat[1].trim());
+            } catch (NumberFormatException e) {
+                String msg = String.format("Incorrect parameters: unable to parse %s point %d.",
+                        param, i);
+                throw new IllegalArgumentException(msg);
+            }
+        }
+        return points;
+    }
+}
@@ -0,0 +1,34 @@
+/**
+ * The MatrixResultParams contains the distances computed by Router.distanceMatrix for
+ * serialization by Gson.
+ *
+ * The fields in this class cannot be accessed as it is only used to serialize results in MapServer.
+ */
+class MatrixResultParams {
+    /** The number of sources and targets. */
+    private final int rows;
+    private final int cols;
+    /**
+     * Distances in miles, row by row: from source <code>i</code> to target <code>j</code> at
+     * <code>i * cols + j</code>, or -1 if there is no route.
+     */
+    private final double[] distances;
+
+    /**
+     * Constructs a MatrixResultParams from a matrix of <code>rows</code> sources and
+     * <code>cols</code> targets, where unreachable targets are infinitely far.
+     * @param rows The number of sources.
+     * @param cols The number of targets.
+     * @param distances The distances, row by row; infinities are replaced in place.
+     */
+    MatrixResultParams(int rows, int cols, double[] distances) {
+        for (int i = 0; i < distances.length; i++) {
+            if (distances[i] == Double.POSITIVE_INFINITY) {
+                distances[i] = -1;
+            }
+        }
+        this.rows = rows;
+        this.cols = cols;
+        this.distances = distances;
+    }
+}
@@ -0,0 +1,276 @@
+import java.util.Arrays;
+import java.util.Set;
+
+/**
+ * The raw contents of an OSM extract, collected in primitive buffers: node IDs and coordinates,
+ * the named points of interest, and every routable way's ID, highway type, name and node
+ * references. Attribute values are stored as codes in a <code>StringDictionary</code>. Parsers
+ * fill one <code>OsmData</code> per chunk of input, and the chunks are appended in input order,
+ * so the merged result does not depend on how the input was split or scheduled.
+ */
+public class OsmData {
+    /**
+     * Only allow for non-service roads; this prevents going on pedestrian streets as much as
+     * possible. Note that in Berkeley, many of the campus roads are tagged as motor vehicle
+     * roads, but in practice we walk all over them with such impunity that we forget cars can
+     * actually drive on them.
+     */
+    static final Set<String> ALLOWED_HIGHWAY_TYPES = Set.of(
+            "motorway", "trunk", "primary", "secondary", "tertiary", "unclassified", "residential",
+            "living_street", "motorway_link", "trunk_link", "primary_link", "secondary_link",
+            "tertiary_link"
+    );
+
+    int nodeCount = 0;
+    long[] nodeIds = new long[16];
+    double[] nodeLons = new double[16];
+    double[] nodeLats = new double[16];
+
+    /** Nodes with a name tag, whether or not they are part of a road. */
+    int poiCount = 0;
+    long[] poiIds = new long[4];
+    double[] poiLons = new double[4];
+    double[] poiLats = new double[4];
+    /** Codes in <code>strings</code> of each point of interest's name, amenity and address. */
+    int[] poiNames = new int[4];
+    int[] poiAmenities = new int[4];
+    int[] poiAddresses = new int[4];
+
+    int wayCount = 0;
+    long[] wayIds = new long[4];
+    /** Start of each way's references in <code>wayRefs</code>; has wayCount + 1 entries. */
+    int[] wayRefStart = new int[5];
+    long[] wayRefs = new long[16];
+    /** Codes in <code>strings</code> of each way's highway type and name. */
+    int[] wayTypes = new int[4];
+    int[] wayNames = new int[4];
+
+    /** Dictionary of every attribute value above. */
+    StringDictionary strings = new StringDictionary();
+
+    public OsmData() {
+    }
+
+    public void addNode(long id, double lon, double lat) {
+        if (nodeCount == nodeIds.length) {
+            int capacity = nodeCount * 2;
+            nodeIds = Arrays.copyOf(nodeIds, capacity);
+            nodeLons = Arrays.copyOf(nodeLons, capacity);
+            nodeLats = Arrays.copyOf(nodeLats, capacity);
+        }
+        nodeIds[nodeCount] = id;
+        nodeLons[nodeCount] = lon;
+        nodeLats[nodeCount] = lat;
+        nodeCount++;
+    }
+
+    /**
+     * Adds a named point of interest.
+     *
+     * @param id      The OSM ID of the node.
+     * @param lon     The longitude of the node.
+     * @param lat     The latitude of the node.
+     * @param name    The value of the node's name tag.
+     * @param amenity The value of the node's amenity tag, or null if it has none.
+     * @param address The value of the node's addr:street tag, or null if it has none.
+     */
+    public void addPoi(long id, double lon, double lat, String name, String amenity,
+                       String address) {
+        if (poiCount == poiIds.length) {
+            int capacity = poiCount * 2;
+            poiIds = Arrays.copyOf(poiIds, capacity);
+            poiLons = Arrays.copyOf(poiLons, capacity);
+            poiLats = Arrays.copyOf(poiLats, capacity);
+            poiNames = Arrays.copyOf(poiNames, capacity);
+            poiAmenities = Arrays.copyOf(poiAmenities, capacity);
+            poiAddresses = Arrays.copyOf(poiAddresses, capacity);
+        }
+        poiIds[poiCount] = id;
+        poiLons[poiCount] = lon;
+        poiLats[poiCount] = lat;
+        poiNames[poiCount] = strings.code(name);
+        poiAmenities[poiCount] = strings.code(amenity);
+        poiAddresses[poiCount] = strings.code(address);
+        poiCount++;
+    }
+
+    /**
+     * Adds a way if its highway type is routable and it has at least two nodes.
+     *
+     * @param id       The OSM ID of the way.
+     * @param highway  The value of the way's highway tag, or null if it has none.
+     * @param name     The value of the way's name tag, or null if it has none.
+     * @param refs     The node references of the way.
+     * @param refCount The number of valid entries in <code>refs</code>.
+     * @return True if the way was kept.
+     */
+    public boolean addWay(long id, String highway, String name, long[] refs, int refCount) {
+        if (highway == null || !ALLOWED_HIGHWAY_TYPES.contains(highway) || refCount < 2) {
+            return false;
+        }
+        if (wayCount == wayIds.length) {
+            wayIds = Arrays.copyOf(wayIds, wayCount * 2);
+            wayTypes = Arrays.copyOf(wayTypes, wayCount * 2);
+            wayNames = Arrays.copyOf(wayNames, wayCount * 2);
+            wayRefStart = Arrays.copyOf(wayRefStart, wayCount * 2 + 1);
+        }
+        int start = wayRefStart[wayCount];
+        if (start + refCount > wayRefs.length) {
+            wayRefs = Arrays.copyOf(wayRefs, Math.max(wayRefs.length * 2, start + refCount));
+        }
+        System.arraycopy(refs, 0, wayRefs, start, refCount);
+        wayIds[wayCount] = id;
+        wayTypes[wayCount] = strings.code(highway);
+        wayNames[wayCount] = strings.code(name);
+        wayCount++;
+        wayRefStart[wayCount] = start + refCount;
+        return true;
+    }
+
+    /**
+     * Appends everything in <code>other</code> after the contents of this object.
+     *
+     * @param other The data parsed from the next chunk of input.
+     */
+    public void append(OsmData other) {
+        int[] remap = strings.merge(other.strings);
+        int nodes = nodeCount + other.nodeCount;
+        if (nodes > nodeIds.length) {
+            nodeIds = Arrays.copyOf(nodeIds, Math.max(nodes, nodeIds.length * 2));
+            nodeLons = Arrays.copyOf(nodeLons, nodeIds.length);
+            nodeLats = Arrays.copyOf(nodeLats, nodeIds.length);
+        }
+        System.arraycopy(other.nodeIds, 0, nodeIds, nodeCount, other.nodeCount);
+        System.arraycopy(other.nodeLons, 0, nodeLons, nodeCount, other.nodeCount);
+        System.arraycopy(other.nodeLats, 0, nodeLats, nodeCount, other.nodeCount);
+        nodeCount = nodes;
+
+        int pois = poiCount + other.poiCount;
+        if (pois > poiIds.length) {
+            poiIds = Arrays.copyOf(poiIds, Math.max(pois, poiIds.length * 2));
+            poiLons = Arrays.copyOf(poiLons, poiIds.length);
+            poiLats = Arrays.copyOf(poiLats, poiIds.length);
+            poiNames = Arrays.copyOf(poiNames, poiIds.length);
+            poiAmenities = Arrays.copyOf(poiAmenities, poiIds.length);
+            poiAddresses = Arrays.copyOf(poiAddresses, poiIds.length);
+        }
+        System.arraycopy(other.poiIds, 0, poiIds, poiCount, other.poiCount);
+        System.arraycopy(other.poiLons, 0, poiLons, poiCount, other.poiCount);
+        System.arraycopy(other.poiLats, 0, poiLats, poiCount, other.poiCount);
+        recode(other.poiNames, other.poiCount, remap, poiNames, poiCount);
+        recode(other.poiAmenities, other.poiCount, remap, poiAmenities, poiCount);
+        recode(other.poiAddresses, other.poiCount, remap, poiAddresses, poiCount);
+        poiCount = pois;
+
+        int ways = wayCount + other.wayCount;
+        int refBase = wayRefStart[wayCount];
+        int refs = refBase + other.wayRefStart[other.wayCount];
+        if (ways >= wayIds.length) {
+            wayIds = Arrays.copyOf(wayIds, Math.max(ways, wayIds.length * 2));
+            wayTypes = Arrays.copyOf(wayTypes, wayIds.length);
+            wayNames = Arrays.copyOf(wayNames, wayIds.length);
+            wayRefStart = Arrays.copyOf(wayRefStart, wayIds.length + 1);
+        }
+        if (refs > wayRefs.length) {
+            wayRefs = Arrays.copyOf(wayRefs, Math.max(refs, wayRefs.length * 2));
+        }
+        System.arraycopy(other.wayIds, 0, wayIds, wayCount, other.wayCount);
+        System.arraycopy(other.wayRefs, 0, wayRefs, refBase, refs - refBase);
+        for (int w = 1; w <= other.wayCount; w++) {
+            wayRefStart[wayCount + w] = refBase + other.wayRefStart[w];
+        }
+        recode(other.wayTypes, other.wayCount, remap, wayTypes, wayCount);
+        recode(other.wayNames, other.wayCount, remap, wayNames, wayCount);
+        wayCount = ways;
+    }
+
+    /** Copies <code>count</code> codes to <code>to[at...]</code>, translated by remap. */
+    private static void recode(int[] from, int count, int[] remap, int[] to, int at) {
+        for (int i = 0; i < count; i++) {
+            to[at + i] = remap[from[i]];
+        }
+    }
+
+    /**
+     * Replaces the ways of this object with those of <code>other</code>; used to combine the
+     * passes of a two-pass read.
+     *
+     * @param other The data holding the ways.
+     */
+    void takeWays(OsmData other) {
+        int[] remap = strings.merge(other.strings);
+        wayCount = other.wayCount;
+        wayIds = other.wayIds;
+        wayRefStart = other.wayRefStart;
+        wayRefs = other.wayRefs;
+        wayTypes = new int[wayIds.length];
+        wayNames = new int[wayIds.length];
+        recode(other.wayTypes, wayCount, remap, wayTypes, 0);
+        recode(other.wayNames, wayCount, remap, wayNames, 0);
+    }
+
+    /**
+     * Returns the sorted, distinct IDs of the nodes referenced by the ways.
+     *
+     * @return The referenced node IDs.
+     */
+    long[] referencedNodes() {
+        long[] referenced = Arrays.copyOf(wayRefs, wayRefStart[wayCount]);
+        Arrays.sort(referenced);
+        int unique = 0;
+        for (int i = 0; i < referenced.length; i++) {
+            if (unique == 0 || referenced[unique - 1] != referenced[i]) {
+                referenced[unique++] = referenced[i];
+            }
+        }
+        return Arrays.copyOf(referenced, unique);
+    }
+
+    /**
+     * Sorts the nodes by ID, keeping only the last occurrence of a repeated ID. OSM extracts
+     * are normally sorted already, in which case this is a single linear check.
+     */
+    void sortNodes() {
+        boolean sorted = true;
+        for (int i = 1; i < nodeCount && sorted; i++) {
+            sorted = nodeIds[i - 1] < nodeIds[i];
+        }
+        if (sorted) {
+            return;
+        }
+        Integer[] order = new Integer[nodeCount];
+        for (int i = 0; i < nodeCount; i++) {
+            order[i] = i;
+        }
+        /* Stable, so the last of several equal IDs stays last. */
+        Arrays.sort(order, (a, b) -> Long.compare(nodeIds[a], nodeIds[b]));
+        long[] ids = new long[nodeCount];
+        double[] lons = new double[nodeCount];
+        double[] lats = new double[nodeCount];
+        int count = 0;
+        for (int i = 0; i < nodeCount; i++) {
+            int from = order[i];
+            if (count > 0 && ids[count - 1] == nodeIds[from]) {
+                count--;
+            }
+            ids[count] = nodeIds[from];
+            lons[count] = nodeLons[from];
+            lats[count] = nodeLats[from];
+            count++;
+        }
+        nodeIds = ids;
+        nodeLons = lons;
+        nodeLats = lats;
+        nodeCount = count;
+    }
+
+    /**
+     * Returns the position of node <code>id</code>; only valid after <code>sortNodes</code>.
+     *
+     * @param id The OSM ID of a node.
+     * @return The position of the node, or a negative number if there is no such node.
+     */
+    int findNode(long id) {
+        return Arrays.binarySearch(nodeIds, 0, nodeCount, id);
+    }
+}
@@ -0,0 +1,266 @@
+import org.xml.sax.SAXException;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+
+/**
+ * Reads OSM XML into <code>OsmData</code>. The input is read in large blocks on the calling
+ * thread, each block is cut just before the last top-level element that starts in it, and the
+ * complete elements are handed to a pool of <code>OsmXmlScanner</code> workers. The partial
+ * element at the end of a block is carried over to the next one. Results are merged in input
+ * order, so the output is identical no matter how many workers there are.
+ *
+ * The number of workers defaults to the number of available processors and can be set with
+ * <code>-Dbearmaps.ingest.threads</code>.
+ *
+ * Files in the PBF format are recognized by their contents and handed to
+ * <code>OsmPbfReader</code> instead, which produces the same <code>OsmData</code>.
+ *
+ * Files can also be read in two passes with <code>-Dbearmaps.ingest.twoPass=true</code>. The
+ * first pass reads only the routable ways and collects the IDs of the nodes they reference; the
+ * second reads only those nodes and the named points of interest. Most nodes of an extract
+ * belong to buildings, areas and other features that never reach the graph, so this keeps peak
+ * memory proportional to the road network instead of the whole file, at the cost of scanning the
+ * file twice.
+ */
+public class OsmIngest {
+    /** Bytes read per block; each block is one unit of work for the scanners. */
+    static final int BLOCK_BYTES = 4 << 20;
+    /** Blocks that may be queued or in flight per worker, bounding memory use. */
+    private static final int BLOCKS_PER_WORKER = 2;
+
+    private static final byte[][] TOP_LEVEL = {
+        "<node".getBytes(StandardCharsets.US_ASCII), "<way".getBytes(StandardCharsets.US_ASCII),
+        "<relation".getBytes(StandardCharsets.US_ASCII)
+    };
+
+    /** The elements a pass over the input collects. */
+    static class Pass {
+        /** Collects every node and way. */
+        static final Pass ALL = new Pass(true, true, null);
+        /** Collects only the routable ways. */
+        static final Pass WAYS = new Pass(false, true, null);
+
+        final boolean nodes;
+        final boolean ways;
+        /** Sorted IDs of the nodes to keep, or null to keep all of them. */
+        private final long[] keep;
+
+        private Pass(boolean nodes, boolean ways, long[] keep) {
+            this.nodes = nodes;
+            this.ways = ways;
+            this.keep = keep;
+        }
+
+        /**
+         * Returns a pass that collects only the nodes in <code>keep</code>, plus the named
+         * points of interest.
+         *
+         * @param keep Sorted IDs of the nodes to keep.
+         * @return The pass.
+         */
+        static Pass nodes(long[] keep) {
+            return new Pass(true, false, keep);
+        }
+
+        boolean keepsNode(long id) {
+            return keep == null || Arrays.binarySearch(keep, id) >= 0;
+        }
+    }
+
+    /**
+     * Reads the OSM file at <code>path</code> using the default number of workers, in one or
+     * two passes depending on <code>-Dbearmaps.ingest.twoPass</code>. Compressed files are
+     * decompressed as they are read; see <code>OsmInput</code>.
+     *
+     * @param path The OSM XML or PBF file, optionally compressed with gzip, bzip2 or xz.
+     * @return The nodes and routable ways of the file.
+     * @throws IOException If the file cannot be read.
+     */
+    public static OsmData read(Path path) throws IOException {
+        return read(path, defaultThreads(), Boolean.getBoolean("bearmaps.ingest.twoPass"));
+    }
+
+    /**
+     * Reads the OSM file at <code>path</code>.
+     *
+     * @param path    The OSM XML or PBF file, optionally compressed with gzip, bzip2 or xz.
+     * @param threads The number of scanner threads to use.
+     * @param twoPass Whether to read ways first and then only the nodes they reference.
+     * @return The routable ways of the file, and its nodes; in a two-pass read, only the nodes
+     *         referenced by those ways.
+     * @throws IOException If the file cannot be read.
+     */
+    public static OsmData read(Path path, int threads, boolean twoPass) throws IOException {
+        if (!twoPass) {
+            return read(path, threads, Pass.ALL);
+        }
+        OsmData ways = read(path, threads, Pass.WAYS);
+        OsmData data = read(path, threads, Pass.nodes(ways.referencedNodes()));
+        data.takeWays(ways);
+        return data;
+    }
+
+    /** Reads one pass over a file, which may be XML or PBF. */
+    private static OsmData read(Path path, int threads, Pass pass) throws IOException {
+        try (InputStream in = new BufferedInputStream(OsmInput.open(path), 1 << 16)) {
+            byte[] start = new byte[16];
+            in.mark(start.length);
+            int length = 0;
+            int n;
+            while (length < start.length
+                    && (n = in.read(start, length, start.length - length)) > 0) {
+                length += n;
+            }
+            in.reset();
+            if (OsmPbfReader.isPbf(start, length)) {
+                return OsmPbfReader.read(in, threads, pass);
+            }
+            return read(in, threads, BLOCK_BYTES, pass);
+        }
+    }
+
+    /**
+     * Reads OSM XML from <code>in</code>, which is not closed.
+     *
+     * @param in      The OSM XML input.
+     * @param threads The number of scanner threads to use.
+     * @return The nodes and routable ways of the input.
+     * @throws IOException If the input cannot be read.
+     */
+    public static OsmData read(InputStream in, int threads) throws IOException {
+        return read(in, threads, BLOCK_BYTES, Pass.ALL);
+    }
+
+    static OsmData read(InputStream in, int threads, int blockBytes, Pass pass)
+            throws IOException {
+        ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "osm-scanner");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            return read(in, workers, threads * BLOCKS_PER_WORKER, blockBytes, pass);
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private static OsmData read(InputStream in, ExecutorService workers, int maxPending,
+                                int blockBytes, Pass pass) throws IOException {
+        OsmData result = new OsmData();
+        Deque<Future<OsmData>> pending = new ArrayDeque<>();
+        byte[] carry = new byte[0];
+        int carryLength = 0;
+        boolean eof = false;
+        while (!eof) {
+            byte[] block = Arrays.copyOf(carry, Math.max(blockBytes, carryLength * 2));
+            int length = carryLength;
+            while (length < block.length) {
+                int n = in.read(block, length, block.length - length);
+                if (n < 0) {
+                    eof = true;
+                    break;
+                }
+                length += n;
+            }
+            int cut = eof ? length : lastElementStart(block, length);
+            if (cut <= 0) {
+                /* A single element longer than the block; read on until it ends. */
+                carry = block;
+                carryLength = length;
+                continue;
+            }
+            final int end = cut;
+            pending.addLast(workers.submit(() -> OsmXmlScanner.scan(block, 0, end, pass)));
+            carry = Arrays.copyOfRange(block, cut, length);
+            carryLength = carry.length;
+            while (pending.size() >= maxPending) {
+                result.append(await(pending.removeFirst()));
+            }
+        }
+        while (!pending.isEmpty()) {
+            result.append(await(pending.removeFirst()));
+        }
+        return result;
+    }
+
+    /** Returns the position of the last top-level element start tag in buf[0, length). */
+    private static int lastElementStart(byte[] buf, int length) {
+        for (int i = length - 1; i > 0; i--) {
+            if (buf[i] != '<') {
+                continue;
+            }
+            for (byte[] tag : TOP_LEVEL) {
+                int after = i + tag.length;
+                if (after < length && startsWith(buf, i, tag)
+                        && (buf[after] == ' ' || buf[after] == '\t' || buf[after] == '\n'
+                        || buf[after] == '\r' || buf[after] == '>' || buf[after] == '/')) {
+                    return i;
+                }
+            }
+        }
+        return 0;
+    }
+
+    private static boolean startsWith(byte[] buf, int at, byte[] prefix) {
+        for (int i = 0; i < prefix.length; i++) {
+            if (buf[at + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    static OsmData await(Future<OsmData> chunk) throws IOException {
+        try {
+            return chunk.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading OSM data");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause);
+        }
+    }
+
+    /**
+     * Reads OSM XML with the SAX <code>GraphBuildingHandler</code>. Much slower than
+     * <code>read</code>, but kept as the reference implementation to check the scanner against.
+     *
+     * @param in The OSM XML input.
+     * @return The nodes and routable ways of the input.
+     * @throws IOException If the input cannot be read or is not well-formed XML.
+     */
+    public static OsmData readWithSax(InputStream in) throws IOException {
+        OsmData data = new OsmData();
+        try {
+            SAXParserFactory.newInstance().newSAXParser()
+                    .parse(in, new GraphBuildingHandler(data));
+        } catch (ParserConfigurationException | SAXException e) {
+            throw new IOException(e);
+        }
+        return data;
+    }
+
+    static int defaultThreads() {
+        return Integer.getInteger("bearmaps.ingest.threads",
+                Runtime.getRuntime().availableProcessors());
+    }
+}
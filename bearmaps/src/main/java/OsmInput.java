@@ -0,0 +1,244 @@
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Opens OSM files for reading, decompressing them on the fly. The format is detected from the
+ * first bytes of the file rather than its name:
+ * <ul>
+ *     <li>gzip is decoded in-process with <code>GZIPInputStream</code>;</li>
+ *     <li>bzip2 and xz are decoded by the system <code>bzip2</code> and <code>xz</code> tools,
+ *     whose output is read through a pipe, so these must be on the <code>PATH</code>;</li>
+ *     <li>anything else is read as is.</li>
+ * </ul>
+ * Decompression always runs concurrently with the parser: in-process decoders run on a
+ * background thread that fills a bounded queue of blocks, and external decoders run in their own
+ * process. Nothing is ever written to a temporary file.
+ */
+public class OsmInput {
+    /** Size of the blocks handed from the decompression thread to the reader. */
+    private static final int BLOCK_BYTES = 1 << 20;
+    /** Decompressed blocks that may wait for the reader before decompression pauses. */
+    private static final int QUEUED_BLOCKS = 8;
+
+    /** Compression formats recognized by <code>open</code>. */
+    enum Format {
+        RAW, GZIP, BZIP2, XZ;
+
+        /** Identifies the format from the first bytes of a file. */
+        static Format of(byte[] magic, int length) {
+            if (length >= 2 && (magic[0] & 0xff) == 0x1f && (magic[1] & 0xff) == 0x8b) {
+                return GZIP;
+            } else if (length >= 3 && magic[0] == 'B' && magic[1] == 'Z' && magic[2] == 'h') {
+                return BZIP2;
+            } else if (length >= 6 && (magic[0] & 0xff) == 0xfd && magic[1] == '7'
+                    && magic[2] == 'z' && magic[3] == 'X' && magic[4] == 'Z' && magic[5] == 0) {
+                return XZ;
+            }
+            return RAW;
+        }
+    }
+
+    /**
+     * Returns the compression format of <code>path</code>.
+     *
+     * @param path The file to inspect.
+     * @return The format.
+     * @throws IOException If the file cannot be read.
+     */
+    static Format format(Path path) throws IOException {
+        byte[] magic = new byte[6];
+        int length = 0;
+        try (InputStream in = Files.newInputStream(path)) {
+            int n;
+            while (length < magic.length
+                    && (n = in.read(magic, length, magic.length - length)) > 0) {
+                length += n;
+            }
+        }
+        return Format.of(magic, length);
+    }
+
+    /**
+     * Opens <code>path</code>, decompressing it if it is gzip, bzip2 or xz compressed.
+     *
+     * @param path The OSM file, compressed or not.
+     * @return A stream of the uncompressed contents; the caller must close it.
+     * @throws IOException If the file cannot be opened, or the tool that decompresses it
+     *                     cannot be run.
+     */
+    public static InputStream open(Path path) throws IOException {
+        switch (format(path)) {
+            case GZIP:
+                return new ReadAhead(new GZIPInputStream(Files.newInputStream(path), 1 << 16));
+            case BZIP2:
+                return new ExternalDecoder(path, "bzip2");
+            case XZ:
+                return new ExternalDecoder(path, "xz");
+            default:
+                return Files.newInputStream(path);
+        }
+    }
+
+    /**
+     * Reads another stream on a background thread, keeping up to <code>QUEUED_BLOCKS</code>
+     * blocks ready for the reader.
+     */
+    private static class ReadAhead extends InputStream {
+        /** Marks the end of the input in the queue. */
+        private static final byte[] END = new byte[0];
+
+        private final InputStream source;
+        private final BlockingQueue<byte[]> queue = new ArrayBlockingQueue<>(QUEUED_BLOCKS);
+        private final Thread worker;
+        private volatile IOException failure;
+        private byte[] block = new byte[0];
+        private int position = 0;
+        private boolean finished = false;
+
+        ReadAhead(InputStream source) {
+            this.source = source;
+            this.worker = new Thread(this::fill, "osm-decompressor");
+            worker.setDaemon(true);
+            worker.start();
+        }
+
+        private void fill() {
+            try {
+                while (true) {
+                    byte[] buffer = new byte[BLOCK_BYTES];
+                    int length = 0;
+                    int n = 0;
+                    while (length < buffer.length
+                            && (n = source.read(buffer, length, buffer.length - length)) > 0) {
+                        length += n;
+                    }
+                    if (length > 0) {
+                        queue.put(length == buffer.length ? buffer : Arrays.copyOf(buffer, length));
+                    }
+                    if (n < 0) {
+                        break;
+                    }
+                }
+            } catch (IOException e) {
+                failure = e;
+            } catch (InterruptedException e) {
+                /* Closed by the reader. */
+                return;
+            }
+            try {
+                queue.put(END);
+            } catch (InterruptedException e) {
+                /* Closed by the reader. */
+            }
+        }
+
+        private boolean nextBlock() throws IOException {
+            if (finished) {
+                return false;
+            }
+            try {
+                block = queue.take();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while decompressing");
+            }
+            position = 0;
+            if (block == END) {
+                finished = true;
+                if (failure != null) {
+                    throw failure;
+                }
+                return false;
+            }
+            return true;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (position == block.length && !nextBlock()) {
+                return -1;
+            }
+            return block[position++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (position == block.length && !nextBlock()) {
+                return -1;
+            }
+            int n = Math.min(len, block.length - position);
+            System.arraycopy(block, position, b, off, n);
+            position += n;
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            worker.interrupt();
+            queue.clear();
+            source.close();
+        }
+    }
+
+    /** The standard output of an external decompressor reading a file. */
+    private static class ExternalDecoder extends InputStream {
+        private final Process process;
+        private final InputStream output;
+        private final String tool;
+
+        ExternalDecoder(Path path, String tool) throws IOException {
+            this.tool = tool;
+            try {
+                this.process = new ProcessBuilder(tool, "-dc", path.toString())
+                        .redirectError(ProcessBuilder.Redirect.INHERIT)
+                        .start();
+            } catch (IOException e) {
+                throw new IOException("Reading " + path + " needs the " + tool
+                        + " command on the PATH: " + e.getMessage(), e);
+            }
+            this.output = process.getInputStream();
+        }
+
+        @Override
+        public int read() throws IOException {
+            return checkEnd(output.read());
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            return checkEnd(output.read(b, off, len));
+        }
+
+        /** Turns the end of a failed decompression into an error instead of truncated input. */
+        private int checkEnd(int n) throws IOException {
+            if (n < 0) {
+                try {
+                    int status = process.waitFor();
+                    if (status != 0) {
+                        throw new IOException(tool + " exited with status " + status);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while decompressing");
+                }
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            output.close();
+            process.destroy();
+        }
+    }
+}
@@ -0,0 +1,482 @@
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads OSM PBF files into <code>OsmData</code>. See the
+ * <a href="https://wiki.openstreetmap.org/wiki/PBF_Format">PBF format</a> documentation.
+ *
+ * A PBF file is a sequence of independently compressed blobs. The calling thread only splits
+ * the input into blobs; inflating and decoding them runs on a pool of workers, and the results
+ * are merged in file order exactly like <code>OsmIngest</code> merges XML blocks. Plain and
+ * dense nodes, ways and their tags are read; relations are skipped. Blobs must be stored raw or
+ * zlib compressed, which is what every common writer produces.
+ */
+public class OsmPbfReader {
+    /** Upper bounds from the format specification, to reject corrupt input early. */
+    private static final int MAX_HEADER_BYTES = 64 << 10;
+    private static final int MAX_BLOB_BYTES = 32 << 20;
+    /** Blobs that may be queued or in flight per worker, bounding memory use. */
+    private static final int BLOBS_PER_WORKER = 4;
+
+    /** Features this reader implements; files that require anything else are rejected. */
+    private static final String[] SUPPORTED_FEATURES = {"OsmSchema-V0.6", "DenseNodes"};
+
+    /**
+     * Returns whether <code>start</code>, the first bytes of a file, look like an OSM PBF file:
+     * a 4-byte header length followed by a header of type "OSMHeader".
+     *
+     * @param start  The first bytes of the file.
+     * @param length The number of valid bytes in <code>start</code>.
+     * @return True if the bytes start a PBF file.
+     */
+    static boolean isPbf(byte[] start, int length) {
+        byte[] type = "OSMHeader".getBytes(StandardCharsets.US_ASCII);
+        if (length < 6 + type.length || start[4] != 0x0a || start[5] != type.length) {
+            return false;
+        }
+        for (int i = 0; i < type.length; i++) {
+            if (start[6 + i] != type[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Reads a PBF stream, which is not closed.
+     *
+     * @param in      The PBF input.
+     * @param threads The number of decoding threads to use.
+     * @param pass    The elements to collect.
+     * @return The selected nodes, points of interest and routable ways of the input.
+     * @throws IOException If the input cannot be read or is not a valid PBF file.
+     */
+    static OsmData read(InputStream in, int threads, OsmIngest.Pass pass) throws IOException {
+        ExecutorService workers = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "osm-pbf-decoder");
+            t.setDaemon(true);
+            return t;
+        });
+        try {
+            return read(new DataInputStream(in), workers, threads * BLOBS_PER_WORKER, pass);
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private static OsmData read(DataInputStream in, ExecutorService workers, int maxPending,
+                                OsmIngest.Pass pass) throws IOException {
+        OsmData result = new OsmData();
+        Deque<Future<OsmData>> pending = new ArrayDeque<>();
+        boolean sawHeader = false;
+        while (true) {
+            int headerLength;
+            try {
+                headerLength = in.readInt();
+            } catch (EOFException e) {
+                break;
+            }
+            if (headerLength < 0 || headerLength > MAX_HEADER_BYTES) {
+                throw new IOException("Invalid blob header length " + headerLength);
+            }
+            byte[] header = new byte[headerLength];
+            in.readFully(header);
+            String type = null;
+            int blobLength = -1;
+            Protobuf.Reader r = new Protobuf.Reader(header, 0, headerLength);
+            while (r.next()) {
+                if (r.field() == 1) {
+                    type = r.readString();
+                } else if (r.field() == 3) {
+                    blobLength = (int) r.readVarint();
+                } else {
+                    r.skip();
+                }
+            }
+            if (blobLength < 0 || blobLength > MAX_BLOB_BYTES) {
+                throw new IOException("Invalid blob length " + blobLength);
+            }
+            byte[] blob = new byte[blobLength];
+            in.readFully(blob);
+            if ("OSMHeader".equals(type)) {
+                checkHeader(inflate(blob));
+                sawHeader = true;
+            } else if ("OSMData".equals(type)) {
+                if (!sawHeader) {
+                    throw new IOException("OSMData blob before the OSMHeader blob");
+                }
+                pending.addLast(workers.submit(() -> decodeBlock(inflate(blob), pass)));
+                while (pending.size() >= maxPending) {
+                    result.append(OsmIngest.await(pending.removeFirst()));
+                }
+            }
+            /* Blobs of other types are allowed by the format and must be skipped. */
+        }
+        while (!pending.isEmpty()) {
+            result.append(OsmIngest.await(pending.removeFirst()));
+        }
+        return result;
+    }
+
+    /** Returns the uncompressed contents of a Blob message. */
+    static byte[] inflate(byte[] blob) throws IOException {
+        Protobuf.Reader r = new Protobuf.Reader(blob, 0, blob.length);
+        int rawSize = -1;
+        int zlibStart = -1;
+        int zlibEnd = -1;
+        while (r.next()) {
+            switch (r.field()) {
+                case 1:
+                    int start = r.readLengthDelimited();
+                    return Arrays.copyOfRange(blob, start, r.position());
+                case 2:
+                    rawSize = (int) r.readVarint();
+                    break;
+                case 3:
+                    zlibStart = r.readLengthDelimited();
+                    zlibEnd = r.position();
+                    break;
+                case 4:
+                case 5:
+                case 6:
+                case 7:
+                    throw new IOException("Unsupported PBF blob compression (field "
+                            + r.field() + ")");
+                default:
+                    r.skip();
+            }
+        }
+        if (zlibStart < 0 || rawSize < 0 || rawSize > MAX_BLOB_BYTES) {
+            throw new IOException("Blob has no data");
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(blob, zlibStart, zlibEnd - zlibStart);
+            byte[] raw = new byte[rawSize];
+            int length = 0;
+            while (length < rawSize && !inflater.finished()) {
+                int n = inflater.inflate(raw, length, rawSize - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                    break;
+                }
+                length += n;
+            }
+            if (length != rawSize) {
+                throw new IOException("Blob is shorter than its declared size");
+            }
+            return raw;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt zlib data in blob", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    /** Rejects files that need features this reader does not implement. */
+    private static void checkHeader(byte[] block) throws IOException {
+        Protobuf.Reader r = new Protobuf.Reader(block, 0, block.length);
+        while (r.next()) {
+            if (r.field() == 4) {
+                String feature = r.readString();
+                if (!Arrays.asList(SUPPORTED_FEATURES).contains(feature)) {
+                    throw new IOException("Unsupported PBF feature " + feature);
+                }
+            } else {
+                r.skip();
+            }
+        }
+    }
+
+    /** Decodes one PrimitiveBlock. */
+    static OsmData decodeBlock(byte[] block, OsmIngest.Pass pass) throws IOException {
+        OsmData out = new OsmData();
+        Protobuf.Reader r = new Protobuf.Reader(block, 0, block.length);
+        Block b = new Block();
+        /* The string table and the coordinate parameters may follow the groups, so read them
+         * first and come back for the groups. */
+        while (r.next()) {
+            switch (r.field()) {
+                case 1:
+                    b.strings = readStringTable(r.readMessage());
+                    break;
+                case 17:
+                    b.granularity = r.readVarint();
+                    break;
+                case 19:
+                    b.latOffset = r.readVarint();
+                    break;
+                case 20:
+                    b.lonOffset = r.readVarint();
+                    break;
+                default:
+                    r.skip();
+            }
+        }
+        r = new Protobuf.Reader(block, 0, block.length);
+        while (r.next()) {
+            if (r.field() == 2) {
+                decodeGroup(r.readMessage(), b, pass, out);
+            } else {
+                r.skip();
+            }
+        }
+        return out;
+    }
+
+    /** The per-block decoding context. */
+    private static class Block {
+        byte[][] strings = new byte[0][];
+        long granularity = 100;
+        long latOffset = 0;
+        long lonOffset = 0;
+        /** Scratch buffer for way references. */
+        long[] refs = new long[64];
+
+        /** Decodes a coordinate; exact for the usual 100 nanodegree granularity. */
+        double lat(long value) {
+            return (latOffset + granularity * value) / 1e9;
+        }
+
+        double lon(long value) {
+            return (lonOffset + granularity * value) / 1e9;
+        }
+
+        boolean is(int string, String value) throws IOException {
+            byte[] s = get(string);
+            if (s.length != value.length()) {
+                return false;
+            }
+            for (int i = 0; i < s.length; i++) {
+                if (s[i] != value.charAt(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        String string(int string) throws IOException {
+            return new String(get(string), StandardCharsets.UTF_8);
+        }
+
+        private byte[] get(int string) throws IOException {
+            if (string < 0 || string >= strings.length) {
+                throw new IOException("String table index " + string + " out of range");
+            }
+            return strings[string];
+        }
+    }
+
+    private static byte[][] readStringTable(Protobuf.Reader r) throws IOException {
+        List<byte[]> strings = new ArrayList<>();
+        while (r.next()) {
+            if (r.field() == 1) {
+                int start = r.readLengthDelimited();
+                strings.add(Arrays.copyOfRange(r.buffer(), start, r.position()));
+            } else {
+                r.skip();
+            }
+        }
+        return strings.toArray(new byte[0][]);
+    }
+
+    private static void decodeGroup(Protobuf.Reader r, Block b, OsmIngest.Pass pass,
+                                    OsmData out) throws IOException {
+        while (r.next()) {
+            switch (r.field()) {
+                case 1:
+                    if (pass.nodes) {
+                        decodeNode(r.readMessage(), b, pass, out);
+                    } else {
+                        r.skip();
+                    }
+                    break;
+                case 2:
+                    if (pass.nodes) {
+                        decodeDenseNodes(r.readMessage(), b, pass, out);
+                    } else {
+                        r.skip();
+                    }
+                    break;
+                case 3:
+                    if (pass.ways) {
+                        decodeWay(r.readMessage(), b, out);
+                    } else {
+                        r.skip();
+                    }
+                    break;
+                default:
+                    r.skip();
+            }
+        }
+    }
+
+    private static void decodeNode(Protobuf.Reader r, Block b, OsmIngest.Pass pass,
+                                   OsmData out) throws IOException {
+        long id = 0;
+        long lat = 0;
+        long lon = 0;
+        Protobuf.Reader keys = null;
+        Protobuf.Reader values = null;
+        while (r.next()) {
+            switch (r.field()) {
+                case 1:
+                    id = r.readSignedVarint();
+                    break;
+                case 2:
+                    keys = r.readMessage();
+                    break;
+                case 3:
+                    values = r.readMessage();
+                    break;
+                case 8:
+                    lat = r.readSignedVarint();
+                    break;
+                case 9:
+                    lon = r.readSignedVarint();
+                    break;
+                default:
+                    r.skip();
+            }
+        }
+        String[] poi = new String[3];
+        if (keys != null && values != null) {
+            while (keys.position() < keys.end() && values.position() < values.end()) {
+                readNodeTag(b, (int) keys.readVarint(), (int) values.readVarint(), poi);
+            }
+        }
+        addNode(id, b.lon(lon), b.lat(lat), poi, pass, out);
+    }
+
+    private static void decodeDenseNodes(Protobuf.Reader r, Block b, OsmIngest.Pass pass,
+                                         OsmData out) throws IOException {
+        Protobuf.Reader ids = null;
+        Protobuf.Reader lats = null;
+        Protobuf.Reader lons = null;
+        Protobuf.Reader tags = null;
+        while (r.next()) {
+            switch (r.field()) {
+                case 1:
+                    ids = r.readMessage();
+                    break;
+                case 8:
+                    lats = r.readMessage();
+                    break;
+                case 9:
+                    lons = r.readMessage();
+                    break;
+                case 10:
+                    tags = r.readMessage();
+                    break;
+                default:
+                    r.skip();
+            }
+        }
+        if (ids == null || lats == null || lons == null) {
+            return;
+        }
+        long id = 0;
+        long lat = 0;
+        long lon = 0;
+        String[] poi = new String[3];
+        while (ids.position() < ids.end()) {
+            id += ids.readSignedVarint();
+            lat += lats.readSignedVarint();
+            lon += lons.readSignedVarint();
+            poi[0] = null;
+            poi[1] = null;
+            poi[2] = null;
+            /* Tags of all nodes, each node's list of key and value pairs ending with a 0. */
+            while (tags != null && tags.position() < tags.end()) {
+                int key = (int) tags.readVarint();
+                if (key == 0) {
+                    break;
+                }
+                readNodeTag(b, key, (int) tags.readVarint(), poi);
+            }
+            addNode(id, b.lon(lon), b.lat(lat), poi, pass, out);
+        }
+    }
+
+    /** Records the name, amenity and addr:street tags of a node in <code>poi</code>. */
+    private static void readNodeTag(Block b, int key, int value, String[] poi)
+            throws IOException {
+        if (b.is(key, "name")) {
+            poi[0] = b.string(value);
+        } else if (b.is(key, "amenity")) {
+            poi[1] = b.string(value);
+        } else if (b.is(key, "addr:street")) {
+            poi[2] = b.string(value);
+        }
+    }
+
+    private static void addNode(long id, double lon, double lat, String[] poi,
+                                OsmIngest.Pass pass, OsmData out) {
+        if (pass.keepsNode(id)) {
+            out.addNode(id, lon, lat);
+        }
+        if (poi[0] != null) {
+            out.addPoi(id, lon, lat, poi[0], poi[1], poi[2]);
+        }
+    }
+
+    private static void decodeWay(Protobuf.Reader r, Block b, OsmData out) throws IOException {
+        long id = 0;
+        Protobuf.Reader keys = null;
+        Protobuf.Reader values = null;
+        Protobuf.Reader refs = null;
+        while (r.next()) {
+            switch (r.field()) {
+                case 1:
+                    id = r.readVarint();
+                    break;
+                case 2:
+                    keys = r.readMessage();
+                    break;
+                case 3:
+                    values = r.readMessage();
+                    break;
+                case 8:
+                    refs = r.readMessage();
+                    break;
+                default:
+                    r.skip();
+            }
+        }
+        String highway = null;
+        String name = null;
+        if (keys != null && values != null) {
+            while (keys.position() < keys.end() && values.position() < values.end()) {
+                int key = (int) keys.readVarint();
+                int value = (int) values.readVarint();
+                if (b.is(key, "highway")) {
+                    highway = b.string(value);
+                } else if (b.is(key, "name")) {
+                    name = b.string(value);
+                }
+            }
+        }
+        int refCount = 0;
+        long ref = 0;
+        while (refs != null && refs.position() < refs.end()) {
+            if (refCount == b.refs.length) {
+                b.refs = Arrays.copyOf(b.refs, refCount * 2);
+            }
+            ref += refs.readSignedVarint();
+            b.refs[refCount++] = ref;
+        }
+        out.addWay(id, highway, name, b.refs, refCount);
+    }
+}
@@ -0,0 +1,218 @@
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.Deflater;
+
+/**
+ * Writes <code>OsmData</code> as an OSM PBF file, with dense nodes and zlib compressed blobs.
+ * Only what the graph builder reads survives the trip: every node's coordinates, the name,
+ * amenity and address of named nodes, and the routable ways with their highway and name tags.
+ * Reading the output with <code>OsmPbfReader</code> gives back the same <code>OsmData</code>.
+ *
+ * Coordinates are stored with the standard granularity of 100 nanodegrees, which is exact for
+ * OSM data since OSM itself stores coordinates with 7 decimal places.
+ *
+ * Usage: <code>OsmPbfWriter input.osm.xml output.osm.pbf</code>
+ */
+public class OsmPbfWriter {
+    /** Nodes or ways per primitive block; the specification recommends 8000. */
+    private static final int ENTITIES_PER_BLOCK = 8000;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            System.err.println("Usage: OsmPbfWriter input.osm.xml output.osm.pbf");
+            System.exit(1);
+        }
+        OsmData data = OsmIngest.read(Paths.get(args[0]), OsmIngest.defaultThreads(), false);
+        try (OutputStream out = new BufferedOutputStream(
+                Files.newOutputStream(Paths.get(args[1])))) {
+            write(data, out);
+        }
+        System.out.println("Wrote " + data.nodeCount + " nodes and " + data.wayCount + " ways to "
+                + args[1]);
+    }
+
+    /**
+     * Writes <code>data</code> to <code>out</code> in PBF format.
+     *
+     * @param data The data to write.
+     * @param out  The stream to write to, which is not closed.
+     * @throws IOException If writing fails.
+     */
+    public static void write(OsmData data, OutputStream out) throws IOException {
+        DataOutputStream file = new DataOutputStream(out);
+        Protobuf.Writer header = new Protobuf.Writer()
+                .string(4, "OsmSchema-V0.6")
+                .string(4, "DenseNodes")
+                .string(16, "bearmaps");
+        writeBlob(file, "OSMHeader", header.toByteArray());
+
+        Map<Long, Integer> pois = new HashMap<>();
+        for (int p = 0; p < data.poiCount; p++) {
+            pois.put(data.poiIds[p], p);
+        }
+        for (int start = 0; start < data.nodeCount; start += ENTITIES_PER_BLOCK) {
+            int end = Math.min(data.nodeCount, start + ENTITIES_PER_BLOCK);
+            writeBlob(file, "OSMData", nodeBlock(data, pois, start, end));
+        }
+        for (int start = 0; start < data.wayCount; start += ENTITIES_PER_BLOCK) {
+            int end = Math.min(data.wayCount, start + ENTITIES_PER_BLOCK);
+            writeBlob(file, "OSMData", wayBlock(data, start, end));
+        }
+        file.flush();
+    }
+
+    private static byte[] nodeBlock(OsmData data, Map<Long, Integer> pois, int start, int end) {
+        Strings strings = new Strings();
+        int count = end - start;
+        long[] ids = new long[count];
+        long[] lats = new long[count];
+        long[] lons = new long[count];
+        long[] tags = new long[count * 7];
+        int tagCount = 0;
+        long lastId = 0;
+        long lastLat = 0;
+        long lastLon = 0;
+        for (int i = 0; i < count; i++) {
+            int n = start + i;
+            long lat = Math.round(data.nodeLats[n] * 1e7);
+            long lon = Math.round(data.nodeLons[n] * 1e7);
+            ids[i] = data.nodeIds[n] - lastId;
+            lats[i] = lat - lastLat;
+            lons[i] = lon - lastLon;
+            lastId = data.nodeIds[n];
+            lastLat = lat;
+            lastLon = lon;
+            Integer p = pois.get(data.nodeIds[n]);
+            if (p != null) {
+                tagCount = putTag(tags, tagCount, strings, "name",
+                        data.strings.get(data.poiNames[p]));
+                tagCount = putTag(tags, tagCount, strings, "amenity",
+                        data.strings.get(data.poiAmenities[p]));
+                tagCount = putTag(tags, tagCount, strings, "addr:street",
+                        data.strings.get(data.poiAddresses[p]));
+            }
+            tags[tagCount++] = 0;
+        }
+        Protobuf.Writer dense = new Protobuf.Writer()
+                .packedSigned(1, ids, count)
+                .packedSigned(8, lats, count)
+                .packedSigned(9, lons, count)
+                .packed(10, tags, tagCount);
+        return new Protobuf.Writer()
+                .message(1, strings.table())
+                .message(2, new Protobuf.Writer().message(2, dense))
+                .toByteArray();
+    }
+
+    private static int putTag(long[] tags, int tagCount, Strings strings, String key,
+                              String value) {
+        if (value == null) {
+            return tagCount;
+        }
+        tags[tagCount] = strings.index(key);
+        tags[tagCount + 1] = strings.index(value);
+        return tagCount + 2;
+    }
+
+    private static byte[] wayBlock(OsmData data, int start, int end) {
+        Strings strings = new Strings();
+        Protobuf.Writer group = new Protobuf.Writer();
+        for (int w = start; w < end; w++) {
+            long[] keys = new long[2];
+            long[] values = new long[2];
+            keys[0] = strings.index("highway");
+            values[0] = strings.index(data.strings.get(data.wayTypes[w]));
+            int tagCount = 1;
+            if (data.wayNames[w] != 0) {
+                keys[1] = strings.index("name");
+                values[1] = strings.index(data.strings.get(data.wayNames[w]));
+                tagCount = 2;
+            }
+            int first = data.wayRefStart[w];
+            int refCount = data.wayRefStart[w + 1] - first;
+            long[] refs = new long[refCount];
+            long last = 0;
+            for (int r = 0; r < refCount; r++) {
+                refs[r] = data.wayRefs[first + r] - last;
+                last = data.wayRefs[first + r];
+            }
+            group.message(3, new Protobuf.Writer()
+                    .varint(1, data.wayIds[w])
+                    .packed(2, keys, tagCount)
+                    .packed(3, values, tagCount)
+                    .packedSigned(8, refs, refCount));
+        }
+        return new Protobuf.Writer()
+                .message(1, strings.table())
+                .message(2, group)
+                .toByteArray();
+    }
+
+    /** Writes one zlib compressed blob with its header. */
+    private static void writeBlob(DataOutputStream file, String type, byte[] contents)
+            throws IOException {
+        Deflater deflater = new Deflater(Deflater.BEST_COMPRESSION);
+        byte[] compressed;
+        try {
+            deflater.setInput(contents);
+            deflater.finish();
+            byte[] buffer = new byte[contents.length + 64];
+            int length = 0;
+            while (!deflater.finished()) {
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, buffer.length * 2);
+                }
+                length += deflater.deflate(buffer, length, buffer.length - length);
+            }
+            compressed = Arrays.copyOf(buffer, length);
+        } finally {
+            deflater.end();
+        }
+        byte[] blob = new Protobuf.Writer()
+                .varint(2, contents.length)
+                .bytes(3, compressed)
+                .toByteArray();
+        byte[] header = new Protobuf.Writer()
+                .string(1, type)
+                .varint(3, blob.length)
+                .toByteArray();
+        file.writeInt(header.length);
+        file.write(header);
+        file.write(blob);
+    }
+
+    /** The string table of one block; index 0 is reserved as the tag list delimiter. */
+    private static class Strings {
+        private final Map<String, Integer> indices = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+
+        Strings() {
+            strings.add("");
+        }
+
+        int index(String s) {
+            return indices.computeIfAbsent(s, k -> {
+                strings.add(k);
+                return strings.size() - 1;
+            });
+        }
+
+        Protobuf.Writer table() {
+            Protobuf.Writer table = new Protobuf.Writer();
+            for (String s : strings) {
+                table.bytes(1, s.getBytes(StandardCharsets.UTF_8));
+            }
+            return table;
+        }
+    }
+}
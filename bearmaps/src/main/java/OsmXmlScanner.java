@@ -0,0 +1,523 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A hand-rolled scanner for the subset of XML that OSM extracts use. It walks raw bytes instead
+ * of going through SAX, parses IDs and coordinates straight from the bytes without creating
+ * strings or boxed numbers, and only materializes <code>String</code>s for the tag values that
+ * are kept.
+ *
+ * A scanner handles one chunk of input that starts and ends on element boundaries, as produced
+ * by <code>OsmIngest</code>, so several scanners can work on different chunks of the same file at
+ * once. It is not a validating parser: anything it does not recognize is skipped.
+ */
+public class OsmXmlScanner {
+    private static final byte[] NODE = bytes("node");
+    private static final byte[] WAY = bytes("way");
+    private static final byte[] ND = bytes("nd");
+    private static final byte[] TAG = bytes("tag");
+    private static final byte[] ID = bytes("id");
+    private static final byte[] LAT = bytes("lat");
+    private static final byte[] LON = bytes("lon");
+    private static final byte[] REF = bytes("ref");
+    private static final byte[] K = bytes("k");
+    private static final byte[] V = bytes("v");
+    /** Tag keys read from ways and from nodes; the order matters to the callers of readTag. */
+    private static final byte[][] WAY_KEYS = {bytes("highway"), bytes("name")};
+    private static final byte[][] NODE_KEYS = {bytes("name"), bytes("amenity"),
+        bytes("addr:street")};
+    private static final byte[] COMMENT = bytes("!--");
+    private static final byte[] COMMENT_END = bytes("-->");
+
+    /** Exact powers of ten usable for correctly rounded decimal parsing. */
+    private static final double[] POWERS_OF_TEN = {
+        1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+        1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+    };
+
+    private final byte[] buf;
+    private final int end;
+    private int pos;
+    private final OsmData out;
+    private final OsmIngest.Pass pass;
+
+    /* Attribute value of the most recently read attribute, as a byte range of buf. */
+    private int valueStart;
+    private int valueEnd;
+
+    /* Scratch state for the element being read. */
+    private long[] refs = new long[64];
+    private String tagValue;
+
+    private OsmXmlScanner(byte[] buf, int start, int end, OsmData out, OsmIngest.Pass pass) {
+        this.buf = buf;
+        this.pos = start;
+        this.end = end;
+        this.out = out;
+        this.pass = pass;
+    }
+
+    /**
+     * Scans the bytes <code>[start, end)</code> of <code>buf</code>, collecting everything.
+     *
+     * @param buf   The input bytes.
+     * @param start The first byte of the chunk; must be outside of any element.
+     * @param end   One past the last byte of the chunk; must be outside of any element.
+     * @return The nodes, named points of interest and routable ways found in the chunk.
+     */
+    public static OsmData scan(byte[] buf, int start, int end) {
+        return scan(buf, start, end, OsmIngest.Pass.ALL);
+    }
+
+    /**
+     * Scans the bytes <code>[start, end)</code> of <code>buf</code>, collecting what
+     * <code>pass</code> asks for.
+     *
+     * @param buf   The input bytes.
+     * @param start The first byte of the chunk; must be outside of any element.
+     * @param end   One past the last byte of the chunk; must be outside of any element.
+     * @param pass  The elements to collect.
+     * @return The selected elements found in the chunk.
+     */
+    static OsmData scan(byte[] buf, int start, int end, OsmIngest.Pass pass) {
+        OsmData out = new OsmData();
+        new OsmXmlScanner(buf, start, end, out, pass).run();
+        return out;
+    }
+
+    private void run() {
+        while (skipTo('<')) {
+            pos++;
+            if (pos >= end) {
+                return;
+            }
+            if (nameIs(NODE)) {
+                if (pass.nodes) {
+                    readNode();
+                } else {
+                    skipElement();
+                }
+            } else if (nameIs(WAY)) {
+                if (pass.ways) {
+                    readWay();
+                } else {
+                    skipElement();
+                }
+            } else if (startsWith(COMMENT)) {
+                skipComment();
+            } else {
+                /*
+                 * Everything else is either a closing tag or an element whose children can only
+                 * be other ignored elements (<osm>, <bounds>, <relation> and its members), so
+                 * stepping over the tag itself is enough.
+                 */
+                skipPast('>');
+            }
+        }
+    }
+
+    private void readNode() {
+        pos += NODE.length;
+        long id = 0;
+        double lon = 0.0;
+        double lat = 0.0;
+        while (nextAttribute()) {
+            if (attributeIs(ID)) {
+                id = parseLong();
+            } else if (attributeIs(LON)) {
+                lon = parseDouble();
+            } else if (attributeIs(LAT)) {
+                lat = parseDouble();
+            }
+        }
+        String name = null;
+        String amenity = null;
+        String address = null;
+        if (!selfClosed()) {
+            while (nextChild()) {
+                if (nameIs(TAG)) {
+                    int key = readTag(NODE_KEYS);
+                    if (key == 0) {
+                        name = tagValue;
+                    } else if (key == 1) {
+                        amenity = tagValue;
+                    } else if (key == 2) {
+                        address = tagValue;
+                    }
+                } else {
+                    skipElement();
+                }
+            }
+        }
+        if (pass.keepsNode(id)) {
+            out.addNode(id, lon, lat);
+        }
+        if (name != null) {
+            out.addPoi(id, lon, lat, name, amenity, address);
+        }
+    }
+
+    private void readWay() {
+        pos += WAY.length;
+        long id = 0;
+        while (nextAttribute()) {
+            if (attributeIs(ID)) {
+                id = parseLong();
+            }
+        }
+        int refCount = 0;
+        String highway = null;
+        String name = null;
+        if (!selfClosed()) {
+            while (nextChild()) {
+                if (nameIs(ND)) {
+                    pos += ND.length;
+                    while (nextAttribute()) {
+                        if (attributeIs(REF)) {
+                            if (refCount == refs.length) {
+                                refs = Arrays.copyOf(refs, refCount * 2);
+                            }
+                            refs[refCount++] = parseLong();
+                        }
+                    }
+                    selfClosed();
+                } else if (nameIs(TAG)) {
+                    int key = readTag(WAY_KEYS);
+                    if (key == 0) {
+                        highway = tagValue;
+                    } else if (key == 1) {
+                        name = tagValue;
+                    }
+                } else {
+                    skipElement();
+                }
+            }
+        }
+        out.addWay(id, highway, name, refs, refCount);
+    }
+
+    /**
+     * Advances to the next child element of the current element, skipping comments.
+     *
+     * @return False once the end tag of the current element has been consumed.
+     */
+    private boolean nextChild() {
+        while (skipTo('<')) {
+            pos++;
+            if (pos < end && buf[pos] == '/') {
+                skipPast('>');
+                return false;
+            } else if (startsWith(COMMENT)) {
+                skipComment();
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Reads a <code>tag</code> element whose name starts at pos. The value is only decoded,
+     * into <code>tagValue</code>, if the key is one of <code>keys</code>.
+     *
+     * @param keys The interesting keys.
+     * @return The index of the tag's key in <code>keys</code>, or -1 if it is not one of them.
+     */
+    private int readTag(byte[][] keys) {
+        pos += TAG.length;
+        int key = -1;
+        int vStart = -1;
+        int vEnd = -1;
+        while (nextAttribute()) {
+            if (attributeIs(K)) {
+                for (int i = 0; i < keys.length && key < 0; i++) {
+                    if (valueIs(keys[i])) {
+                        key = i;
+                    }
+                }
+            } else if (attributeIs(V)) {
+                vStart = valueStart;
+                vEnd = valueEnd;
+            }
+        }
+        selfClosed();
+        if (key < 0 || vStart < 0) {
+            return -1;
+        }
+        valueStart = vStart;
+        valueEnd = vEnd;
+        tagValue = decodeValue();
+        valueEnd = 0;
+        return key;
+    }
+
+    /* Low-level scanning helpers. pos always points at the next unread byte. */
+
+    private boolean skipTo(char c) {
+        while (pos < end && buf[pos] != c) {
+            pos++;
+        }
+        return pos < end;
+    }
+
+    private void skipPast(char c) {
+        skipTo(c);
+        pos++;
+    }
+
+    private boolean startsWith(byte[] prefix) {
+        if (pos + prefix.length > end) {
+            return false;
+        }
+        for (int i = 0; i < prefix.length; i++) {
+            if (buf[pos + i] != prefix[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void skipComment() {
+        pos += COMMENT.length;
+        while (pos < end && !startsWith(COMMENT_END)) {
+            pos++;
+        }
+        pos += COMMENT_END.length;
+    }
+
+    /** Returns whether the element name starting at pos is exactly <code>name</code>. */
+    private boolean nameIs(byte[] name) {
+        int after = pos + name.length;
+        if (after >= end) {
+            return false;
+        }
+        for (int i = 0; i < name.length; i++) {
+            if (buf[pos + i] != name[i]) {
+                return false;
+            }
+        }
+        byte b = buf[after];
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r' || b == '/' || b == '>';
+    }
+
+    /**
+     * Advances to the next attribute of the current start tag, leaving the attribute name at
+     * <code>pos</code> and its value in <code>valueStart</code> and <code>valueEnd</code>.
+     *
+     * @return False once the end of the start tag is reached.
+     */
+    private boolean nextAttribute() {
+        if (valueEnd > pos) {
+            pos = valueEnd + 1;
+        }
+        while (pos < end && isSpace(buf[pos])) {
+            pos++;
+        }
+        if (pos >= end || buf[pos] == '>' || buf[pos] == '/') {
+            return false;
+        }
+        int eq = pos;
+        while (eq < end && buf[eq] != '=') {
+            eq++;
+        }
+        int quote = eq + 1;
+        while (quote < end && buf[quote] != '"' && buf[quote] != '\'') {
+            quote++;
+        }
+        if (quote >= end) {
+            pos = end;
+            return false;
+        }
+        valueStart = quote + 1;
+        valueEnd = valueStart;
+        while (valueEnd < end && buf[valueEnd] != buf[quote]) {
+            valueEnd++;
+        }
+        return true;
+    }
+
+    private boolean attributeIs(byte[] name) {
+        for (int i = 0; i < name.length; i++) {
+            if (pos + i >= end || buf[pos + i] != name[i]) {
+                return false;
+            }
+        }
+        int after = pos + name.length;
+        return after < end && (buf[after] == '=' || isSpace(buf[after]));
+    }
+
+    private boolean valueIs(byte[] value) {
+        if (valueEnd - valueStart != value.length) {
+            return false;
+        }
+        for (int i = 0; i < value.length; i++) {
+            if (buf[valueStart + i] != value[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Consumes the rest of a start tag and returns whether it was self-closing. */
+    private boolean selfClosed() {
+        if (valueEnd > pos) {
+            pos = valueEnd + 1;
+        }
+        valueEnd = 0;
+        skipTo('>');
+        boolean closed = pos > 0 && buf[pos - 1] == '/';
+        pos++;
+        return closed;
+    }
+
+    /** Skips an element whose name starts at pos, including all of its children. */
+    private void skipElement() {
+        int nameStart = pos;
+        while (pos < end && !isSpace(buf[pos]) && buf[pos] != '>' && buf[pos] != '/') {
+            pos++;
+        }
+        byte[] name = Arrays.copyOfRange(buf, nameStart, pos);
+        while (nextAttribute()) {
+            continue;
+        }
+        if (!selfClosed()) {
+            skipChildren(name);
+        }
+    }
+
+    /** Skips forward past the end tag of the element named <code>name</code>. */
+    private void skipChildren(byte[] name) {
+        int depth = 1;
+        while (depth > 0 && skipTo('<')) {
+            pos++;
+            if (pos < end && buf[pos] == '/') {
+                pos++;
+                boolean match = nameIs(name);
+                skipPast('>');
+                if (match) {
+                    depth--;
+                }
+            } else if (nameIs(name)) {
+                while (nextAttribute()) {
+                    continue;
+                }
+                if (!selfClosed()) {
+                    depth++;
+                }
+            }
+        }
+    }
+
+    private static boolean isSpace(byte b) {
+        return b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+
+    /* Value decoding. */
+
+    private long parseLong() {
+        int i = valueStart;
+        boolean negative = i < valueEnd && buf[i] == '-';
+        if (negative) {
+            i++;
+        }
+        long value = 0;
+        for (; i < valueEnd; i++) {
+            value = value * 10 + (buf[i] - '0');
+        }
+        return negative ? -value : value;
+    }
+
+    /**
+     * Parses the current attribute value as a double. Plain decimals with at most 15
+     * significant digits, which covers every OSM coordinate, are computed as one exact integer
+     * divided by an exact power of ten, which IEEE division rounds correctly; so the result is
+     * always identical to <code>Double.parseDouble</code>, which handles everything else.
+     */
+    private double parseDouble() {
+        int i = valueStart;
+        boolean negative = i < valueEnd && buf[i] == '-';
+        if (negative) {
+            i++;
+        }
+        long mantissa = 0;
+        int digits = 0;
+        int fraction = -1;
+        for (; i < valueEnd; i++) {
+            byte b = buf[i];
+            if (b >= '0' && b <= '9') {
+                mantissa = mantissa * 10 + (b - '0');
+                if (mantissa != 0) {
+                    digits++;
+                }
+                if (fraction >= 0) {
+                    fraction++;
+                }
+            } else if (b == '.' && fraction < 0) {
+                fraction = 0;
+            } else {
+                digits = Integer.MAX_VALUE;
+                break;
+            }
+        }
+        if (digits > 15 || fraction >= POWERS_OF_TEN.length || valueEnd == valueStart) {
+            String text = new String(buf, valueStart, valueEnd - valueStart,
+                    StandardCharsets.US_ASCII);
+            return Double.parseDouble(text);
+        }
+        double value = fraction > 0 ? mantissa / POWERS_OF_TEN[fraction] : mantissa;
+        return negative ? -value : value;
+    }
+
+    /** Decodes the current attribute value, resolving the XML entity references. */
+    private String decodeValue() {
+        int amp = valueStart;
+        while (amp < valueEnd && buf[amp] != '&') {
+            amp++;
+        }
+        if (amp == valueEnd) {
+            return new String(buf, valueStart, valueEnd - valueStart, StandardCharsets.UTF_8);
+        }
+        String raw = new String(buf, valueStart, valueEnd - valueStart, StandardCharsets.UTF_8);
+        StringBuilder sb = new StringBuilder(raw.length());
+        for (int i = 0; i < raw.length(); i++) {
+            char c = raw.charAt(i);
+            int semi = c == '&' ? raw.indexOf(';', i) : -1;
+            if (semi < 0) {
+                sb.append(c);
+                continue;
+            }
+            String entity = raw.substring(i + 1, semi);
+            switch (entity) {
+                case "amp":
+                    sb.append('&');
+                    break;
+                case "lt":
+                    sb.append('<');
+                    break;
+                case "gt":
+                    sb.append('>');
+                    break;
+                case "quot":
+                    sb.append('"');
+                    break;
+                case "apos":
+                    sb.append('\'');
+                    break;
+                default:
+                    if (entity.startsWith("#x")) {
+                        sb.appendCodePoint(Integer.parseInt(entity.substring(2), 16));
+                    } else if (entity.startsWith("#")) {
+                        sb.appendCodePoint(Integer.parseInt(entity.substring(1)));
+                    } else {
+                        sb.append(raw, i, semi + 1);
+                    }
+            }
+            i = semi;
+        }
+        return sb.toString();
+    }
+
+    private static byte[] bytes(String s) {
+        return s.getBytes(StandardCharsets.US_ASCII);
+    }
+}
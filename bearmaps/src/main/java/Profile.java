@@ -0,0 +1,124 @@
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * A way of travelling that routes are optimised for. <code>DISTANCE</code> finds the shortest
+ * route by length over every road, with edges weighted in miles. The other profiles find the
+ * quickest route for a walker, a cyclist or a driver: each highway type has a typical speed,
+ * edges are weighted by the seconds it takes to travel them at that speed, and roads whose type
+ * has no speed are closed to the profile.
+ *
+ * <code>GraphDB</code> computes one weight array per profile when it builds the graph, sharing
+ * the adjacency's vertex and edge numbering, so a search only swaps which weights it reads.
+ */
+public enum Profile {
+    DISTANCE(Map.of()),
+    WALK(Map.ofEntries(
+            Map.entry("trunk", 3.0), Map.entry("trunk_link", 3.0),
+            Map.entry("primary", 3.0), Map.entry("primary_link", 3.0),
+            Map.entry("secondary", 3.0), Map.entry("secondary_link", 3.0),
+            Map.entry("tertiary", 3.0), Map.entry("tertiary_link", 3.0),
+            Map.entry("unclassified", 3.0), Map.entry("residential", 3.0),
+            Map.entry("living_street", 3.0))),
+    BIKE(Map.ofEntries(
+            Map.entry("trunk", 12.0), Map.entry("trunk_link", 12.0),
+            Map.entry("primary", 12.0), Map.entry("primary_link", 12.0),
+            Map.entry("secondary", 12.0), Map.entry("secondary_link", 12.0),
+            Map.entry("tertiary", 12.0), Map.entry("tertiary_link", 12.0),
+            Map.entry("unclassified", 12.0), Map.entry("residential", 12.0),
+            Map.entry("living_street", 8.0))),
+    DRIVE(Map.ofEntries(
+            Map.entry("motorway", 65.0), Map.entry("motorway_link", 40.0),
+            Map.entry("trunk", 55.0), Map.entry("trunk_link", 35.0),
+            Map.entry("primary", 40.0), Map.entry("primary_link", 30.0),
+            Map.entry("secondary", 35.0), Map.entry("secondary_link", 25.0),
+            Map.entry("tertiary", 30.0), Map.entry("tertiary_link", 25.0),
+            Map.entry("unclassified", 25.0), Map.entry("residential", 25.0),
+            Map.entry("living_street", 10.0)));
+
+    private static final double SECONDS_PER_HOUR = 3600;
+
+    /** Speed in miles per hour by highway type; types that are missing are closed. */
+    private final Map<String, Double> speeds;
+    /** The fastest speed of any highway type, which bounds how quickly any route can go. */
+    private final double maxSpeed;
+
+    Profile(Map<String, Double> speeds) {
+        this.speeds = speeds;
+        double max = 0;
+        for (double speed : speeds.values()) {
+            max = Math.max(max, speed);
+        }
+        this.maxSpeed = max;
+    }
+
+    /**
+     * Returns the profile with the given name, in any case.
+     *
+     * @param name The name of a profile, such as <code>drive</code>.
+     * @return The profile.
+     * @throws IllegalArgumentException If no profile has that name.
+     */
+    static Profile named(String name) {
+        for (Profile profile : values()) {
+            if (profile.name().equals(name.toUpperCase(Locale.ROOT))) {
+                return profile;
+            }
+        }
+        throw new IllegalArgumentException("Unknown profile " + name);
+    }
+
+    /**
+     * Returns the speed of this profile on a highway type.
+     *
+     * @param highway The value of a way's highway tag.
+     * @return The speed in miles per hour, or 0 if the profile may not use the way.
+     */
+    double speed(String highway) {
+        return speeds.getOrDefault(highway, 0.0);
+    }
+
+    /**
+     * Returns the weight of every edge of <code>g</code> in this profile: the seconds it takes
+     * to travel the edge, or infinity if the edge is closed. Searches never reach a vertex
+     * through an edge of infinite weight, so closed roads need no check of their own.
+     *
+     * @param g A graph whose adjacency has been built; <code>DISTANCE</code> uses that
+     *          adjacency's own weights instead.
+     * @return The weights, indexed like the edges of <code>g.adjacency()</code>.
+     */
+    float[] weights(GraphDB g) {
+        CSRGraph adjacency = g.adjacency();
+        /* Seconds per mile on each way, so that each way's type is looked up once. */
+        double[] pace = new double[g.wayCount()];
+        for (int w = 0; w < pace.length; w++) {
+            double speed = speed(g.wayTypeAt(w));
+            pace[w] = speed > 0 ? SECONDS_PER_HOUR / speed : Double.POSITIVE_INFINITY;
+        }
+        float[] weights = new float[adjacency.numEdges()];
+        for (int e = 0; e < weights.length; e++) {
+            /* Tested first so that a closed edge of length 0 is infinite rather than NaN. */
+            double p = pace[adjacency.way(e)];
+            weights[e] = p == Double.POSITIVE_INFINITY ? Float.POSITIVE_INFINITY
+                    : (float) (adjacency.weight(e) * p);
+        }
+        return weights;
+    }
+
+    /**
+     * Returns a heuristic in this profile's units: the great-circle distance for
+     * <code>DISTANCE</code>, and otherwise the time it would take to cover the great-circle
+     * distance at the profile's fastest speed, which no route can beat.
+     *
+     * @param g The graph the search runs on.
+     * @return The heuristic.
+     */
+    Heuristic heuristic(GraphDB g) {
+        Heuristic greatCircle = Heuristic.greatCircle(g);
+        if (this == DISTANCE) {
+            return greatCircle;
+        }
+        double pace = SECONDS_PER_HOUR / maxSpeed;
+        return (v, target) -> greatCircle.estimate(v, target) * pace;
+    }
+}
@@ -0,0 +1,194 @@
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The small part of the Protocol Buffers wire format that OSM PBF files use: varints, zigzag
+ * encoded signed varints and length-delimited fields, including packed repeated fields. Only
+ * what <code>OsmPbfReader</code> and <code>OsmPbfWriter</code> need is implemented, so there is
+ * no dependency on the protobuf library or on generated message classes.
+ */
+public class Protobuf {
+    /** Wire types. */
+    static final int VARINT = 0, FIXED64 = 1, LENGTH_DELIMITED = 2, FIXED32 = 5;
+
+    /**
+     * Reads the fields of one message out of a byte range. Typical use:
+     * <pre>
+     * while (r.next()) {
+     *     switch (r.field()) { case 1: ... r.readVarint() ...; default: r.skip(); }
+     * }
+     * </pre>
+     */
+    static class Reader {
+        private final byte[] buf;
+        private int pos;
+        private final int end;
+        private int key;
+
+        Reader(byte[] buf, int start, int end) {
+            this.buf = buf;
+            this.pos = start;
+            this.end = end;
+        }
+
+        /** Advances to the next field, returning false at the end of the message. */
+        boolean next() throws IOException {
+            if (pos >= end) {
+                return false;
+            }
+            key = (int) readVarint();
+            return true;
+        }
+
+        int field() {
+            return key >>> 3;
+        }
+
+        int wireType() {
+            return key & 7;
+        }
+
+        long readVarint() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                if (pos >= end) {
+                    throw new IOException("Truncated varint");
+                }
+                byte b = buf[pos++];
+                value |= (long) (b & 0x7f) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        long readSignedVarint() throws IOException {
+            long value = readVarint();
+            return (value >>> 1) ^ -(value & 1);
+        }
+
+        /**
+         * Reads the length of a length-delimited field and skips over its contents.
+         *
+         * @return The start of the contents; they end at <code>position()</code>.
+         */
+        int readLengthDelimited() throws IOException {
+            int length = (int) readVarint();
+            int start = pos;
+            if (length < 0 || length > end - pos) {
+                throw new IOException("Truncated field");
+            }
+            pos += length;
+            return start;
+        }
+
+        /** Returns a reader over the contents of the current length-delimited field. */
+        Reader readMessage() throws IOException {
+            int start = readLengthDelimited();
+            return new Reader(buf, start, pos);
+        }
+
+        String readString() throws IOException {
+            int start = readLengthDelimited();
+            return new String(buf, start, pos - start, StandardCharsets.UTF_8);
+        }
+
+        int position() {
+            return pos;
+        }
+
+        int end() {
+            return end;
+        }
+
+        byte[] buffer() {
+            return buf;
+        }
+
+        /** Skips the value of the current field. */
+        void skip() throws IOException {
+            switch (wireType()) {
+                case VARINT:
+                    readVarint();
+                    break;
+                case FIXED64:
+                    pos += 8;
+                    break;
+                case LENGTH_DELIMITED:
+                    readLengthDelimited();
+                    break;
+                case FIXED32:
+                    pos += 4;
+                    break;
+                default:
+                    throw new IOException("Unsupported wire type " + wireType());
+            }
+        }
+    }
+
+    /** Builds one message in memory. */
+    static class Writer {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+
+        Writer varint(int field, long value) {
+            tag(field, VARINT);
+            rawVarint(value);
+            return this;
+        }
+
+        Writer signedVarint(int field, long value) {
+            return varint(field, (value << 1) ^ (value >> 63));
+        }
+
+        Writer bytes(int field, byte[] value) {
+            tag(field, LENGTH_DELIMITED);
+            rawVarint(value.length);
+            out.write(value, 0, value.length);
+            return this;
+        }
+
+        Writer string(int field, String value) {
+            return bytes(field, value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        Writer message(int field, Writer message) {
+            return bytes(field, message.toByteArray());
+        }
+
+        /** Writes <code>values</code> as a packed repeated varint field. */
+        Writer packed(int field, long[] values, int count) {
+            Writer packed = new Writer();
+            for (int i = 0; i < count; i++) {
+                packed.rawVarint(values[i]);
+            }
+            return bytes(field, packed.toByteArray());
+        }
+
+        /** Writes <code>values</code> as a packed repeated zigzag varint field. */
+        Writer packedSigned(int field, long[] values, int count) {
+            Writer packed = new Writer();
+            for (int i = 0; i < count; i++) {
+                packed.rawVarint((values[i] << 1) ^ (values[i] >> 63));
+            }
+            return bytes(field, packed.toByteArray());
+        }
+
+        byte[] toByteArray() {
+            return out.toByteArray();
+        }
+
+        private void tag(int field, int wireType) {
+            rawVarint((field << 3) | wireType);
+        }
+
+        private void rawVarint(long value) {
+            while ((value & ~0x7fL) != 0) {
+                out.write((int) (value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            out.write((int) value);
+        }
+    }
+}
@@ -0,0 +1,155 @@
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A bounded cache of routes and their directions, keyed by the vertices the endpoints snap to,
+ * so that repeated requests between the same places, and clicks close enough to snap to the
+ * same vertices, are answered without searching again. When full, the least recently used
+ * route is evicted.
+ *
+ * Each <code>GraphDB</code> owns its cache, so loading a new graph starts with an empty one.
+ * A route is only served while the graph's <code>WeightOverlay</code> is the one it was found
+ * under, so closures and slowdowns are never answered with a stale route.
+ * Routes are computed outside the cache's lock; two threads missing on the same pair at once
+ * both search, and the second simply replaces the first's identical entry.
+ */
+public class RouteCache {
+    /** A cached route and its directions. */
+    public static class Route {
+        /** The vertex IDs of the route, or an empty list if there is none. */
+        public final List<Long> path;
+        /** The directions along the route. */
+        public final List<Router.NavigationDirection> directions;
+        /** The edge weight adjustments in force when the route was found. */
+        final WeightOverlay overlay;
+
+        Route(List<Long> path, List<Router.NavigationDirection> directions,
+              WeightOverlay overlay) {
+            this.path = Collections.unmodifiableList(path);
+            this.directions = Collections.unmodifiableList(directions);
+            this.overlay = overlay;
+        }
+    }
+
+    /** The snapped endpoints and profile a route is cached under. */
+    private static final class Key {
+        private final int source;
+        private final int dest;
+        private final Profile profile;
+
+        Key(int source, int dest, Profile profile) {
+            this.source = source;
+            this.dest = dest;
+            this.profile = profile;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return source == other.source && dest == other.dest && profile == other.profile;
+        }
+
+        @Override
+        public int hashCode() {
+            return (31 * source + dest) * 31 + profile.ordinal();
+        }
+    }
+
+    private final GraphDB g;
+    private final int capacity;
+    /** Routes by their endpoints' vertex indices and profile, least recently used first. */
+    private final LinkedHashMap<Key, Route> routes;
+    private long hits;
+    private long misses;
+
+    /**
+     * Creates an empty cache of routes on <code>g</code>.
+     *
+     * @param g        The graph the routes are on.
+     * @param capacity The most routes to keep.
+     */
+    RouteCache(GraphDB g, int capacity) {
+        this.g = g;
+        this.capacity = capacity;
+        this.routes = new LinkedHashMap<Key, Route>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Route> eldest) {
+                return size() > RouteCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the route between the vertices closest to two points, computing it with
+     * <code>Router.shortestPath</code> and <code>Router.routeDirections</code> unless it is
+     * cached.
+     *
+     * @param stlon   The longitude of the starting coordinate.
+     * @param stlat   The latitude of the starting coordinate.
+     * @param destlon The longitude of the destination coordinate.
+     * @param destlat The latitude of the destination coordinate.
+     * @return The route.
+     */
+    public Route route(double stlon, double stlat, double destlon, double destlat) {
+        return route(stlon, stlat, destlon, destlat, Profile.DISTANCE);
+    }
+
+    /**
+     * Returns the route for <code>profile</code> between the vertices closest to two points,
+     * computing it unless it is cached. Each profile's routes are cached separately.
+     *
+     * @param stlon   The longitude of the starting coordinate.
+     * @param stlat   The latitude of the starting coordinate.
+     * @param destlon The longitude of the destination coordinate.
+     * @param destlat The latitude of the destination coordinate.
+     * @param profile The way of travelling to route for.
+     * @return The route.
+     */
+    public Route route(double stlon, double stlat, double destlon, double destlat,
+                       Profile profile) {
+        int source = g.routingIndex(stlon, stlat);
+        int dest = g.routingIndex(destlon, destlat);
+        Key key = new Key(source, dest, profile);
+        /* Taken before searching, so a route found under a newer overlay is only ever redone. */
+        WeightOverlay overlay = g.weightOverlay();
+        synchronized (this) {
+            Route cached = routes.get(key);
+            if (cached != null && cached.overlay == overlay) {
+                hits++;
+                return cached;
+            }
+            misses++;
+        }
+        List<Long> path = Router.shortestPath(g, source, dest, profile);
+        Route route = new Route(path, Router.routeDirections(g, path), overlay);
+        synchronized (this) {
+            routes.put(key, route);
+        }
+        return route;
+    }
+
+    /** Returns the number of requests answered from the cache. */
+    public synchronized long hits() {
+        return hits;
+    }
+
+    /** Returns the number of requests that had to search. */
+    public synchronized long misses() {
+        return misses;
+    }
+
+    /** Returns the number of routes cached. */
+    public synchronized int size() {
+        return routes.size();
+    }
+
+    /** Returns the most routes the cache keeps. */
+    public int capacity() {
+        return capacity;
+    }
+}
@@ -19,10 +19,13 @@ public class RouteRequestParams {
     public final double endLat;
     /** The end point longitude. */
     public final double endLon;
+    /** The way of travelling to route for; <code>Profile.DISTANCE</code> unless requested. */
+    public final Profile profile;
 
     /**
      * Validate and return a parameter map of the required request parameters.
-     * Requires that all input parameters are doubles.
+     * Requires that all input parameters are doubles, except the optional <code>profile</code>,
+     * which names a <code>Profile</code>.
      * @param req The queryParams map from a Spark HTTP Request.
      * @return A populated map of input parameter to it's numerical value.
      */
@@ -42,6 +45,9 @@ public class RouteRequestParams {
                 }
             }
         }
+        if (req.containsKey("profile")) {
+            builder.setProfile(Profile.named(req.get("profile")[0]));
+        }
         return builder.create();
     }
 
@@ -50,18 +56,21 @@ public class RouteRequestParams {
      * instance. Use the the factory method, from, instead.
      */
     private RouteRequestParams() {
-        this(0.0, 0.0, 0.0, 0.0);
+        this(0.0, 0.0, 0.0, 0.0, Profile.DISTANCE);
     }
 
-    private RouteRequestParams(double startLat, double startLon, double endLat, double endLon) {
+    private RouteRequestParams(double startLat, double startLon, double endLat, double endLon,
+                               Profile profile) {
         this.startLat = startLat;
         this.startLon = startLon;
         this.endLat = endLat;
         this.endLon = endLon;
+        this.profile = profile;
     }
 
     public static class Builder {
         private double startLat, startLon, endLat, endLon;
+        private Profile profile = Profile.DISTANCE;
 
         /**
          * Creates a RouteRequestParams.Builder instance that can be used to build
@@ -71,7 +80,7 @@ public class RouteRequestParams {
         }
 
         public RouteRequestParams create() {
-            return new RouteRequestParams(startLat, startLon, endLat, endLon);
+            return new RouteRequestParams(startLat, startLon, endLat, endLon, profile);
         }
 
         public Builder setStartLat(double value) {
@@ -94,6 +103,11 @@ public class RouteRequestParams {
             return this;
         }
 
+        public Builder setProfile(Profile value) {
+            this.profile = value;
+            return this;
+        }
+
         private Builder set(String field, double value) {
             switch (field) {
                 case "start_lat":
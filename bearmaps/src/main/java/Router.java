@@ -1,10 +1,16 @@
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
+import java.util.Comparator;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Objects;
-import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.function.IntUnaryOperator;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -13,9 +19,26 @@ import java.util.regex.Pattern;
  * finding routes between two points on the map.
  */
 public class Router {
+    /**
+     * The most of the shortest route's length that an alternative may share with any route
+     * returned before it.
+     */
+    static final double ALTERNATIVE_MAX_SHARING = 0.8;
+    /**
+     * The least length, as a fraction of the shortest route's, of the plateau an alternative is
+     * built around; the longer it is, the longer the alternative is locally a shortest path.
+     */
+    static final double ALTERNATIVE_MIN_PLATEAU = 0.2;
+    /** The most routes of a batch one task computes itself instead of splitting. */
+    private static final int ROUTE_GRAIN = 16;
+
     /**
      * Return a <code>List</code> of vertex IDs corresponding to the shortest path from a given
-     * starting coordinate and destination coordinate.
+     * starting coordinate and destination coordinate. The search is A* with the heuristic chosen
+     * by <code>defaultHeuristic</code>, run from both ends at once if
+     * <code>-Dbearmaps.router.search=bidirectional</code>. With
+     * <code>-Dbearmaps.router.search=ch</code> the route is found in the graph's
+     * <code>ContractionHierarchy</code> instead, which is built on first use.
      *
      * @param g       <code>GraphDB</code> data source.
      * @param stlon   The longitude of the starting coordinate.
@@ -24,70 +47,985 @@ public class Router {
      * @param destlat The latitude of the destination coordinate.
      * @return The <code>List</code> of vertex IDs corresponding to the shortest path.
      */
+    public static List<Long> shortestPath(GraphDB g,
+                                          double stlon, double stlat,
+                                          double destlon, double destlat) {
+        return shortestPath(g, g.routingIndex(stlon, stlat), g.routingIndex(destlon, destlat));
+    }
 
-    //Compare nodes in the fringe using a comparator that pulls the
-    //distance between two nodes from the bestDist hashMap
+    /**
+     * Return a <code>List</code> of vertex IDs corresponding to the quickest path for
+     * <code>profile</code> from a given starting coordinate and destination coordinate, found
+     * the way <code>shortestPath</code> finds the shortest one.
+     *
+     * @param g       <code>GraphDB</code> data source.
+     * @param stlon   The longitude of the starting coordinate.
+     * @param stlat   The latitude of the starting coordinate.
+     * @param destlon The longitude of the destination coordinate.
+     * @param destlat The latitude of the destination coordinate.
+     * @param profile The way of travelling whose edge weights the route minimises.
+     * @return The <code>List</code> of vertex IDs corresponding to the path, or an empty list if
+     * the profile cannot reach the destination.
+     */
     public static List<Long> shortestPath(GraphDB g,
-                                   double stlon, double stlat,
-                                   double destlon, double destlat) {
+                                          double stlon, double stlat,
+                                          double destlon, double destlat, Profile profile) {
+        return shortestPath(g, g.routingIndex(stlon, stlat), g.routingIndex(destlon, destlat),
+                profile);
+    }
 
-        HashMap<Long, Double> bestDist = new HashMap<>();
-        HashSet<Long> visited = new HashSet<>();
-        HashMap<Long, Long> paths = new HashMap<>();
+    /**
+     * Returns the shortest route between two vertices, found the way
+     * <code>shortestPath</code> on coordinates finds it.
+     *
+     * @param g      <code>GraphDB</code> data source.
+     * @param source The index of the starting vertex.
+     * @param dest   The index of the destination vertex.
+     * @return The <code>List</code> of vertex IDs corresponding to the shortest path.
+     */
+    static List<Long> shortestPath(GraphDB g, int source, int dest) {
+        return shortestPath(g, source, dest, Profile.DISTANCE);
+    }
 
-        long sourceNode = g.closest(stlon, stlat);
-        long destNode = g.closest(destlon, destlat);
-        PriorityQueue<Long> fringe = new PriorityQueue<>((o1, o2)
-            -> Double.compare((bestDist.get(o1)
-                + g.distance(o1, sourceNode)), bestDist.get(o2) + g.distance(o2, sourceNode)));
+    /**
+     * Returns the best route for <code>profile</code> between two vertices. The search reads the
+     * profile's own weight array, so choosing a profile costs nothing per edge. The contraction
+     * hierarchy is built over unadjusted distances, so with
+     * <code>-Dbearmaps.router.search=ch</code> the other profiles fall back to unidirectional
+     * A*, as does every profile while the graph's <code>WeightOverlay</code> adjusts any edge.
+     *
+     * @param g       <code>GraphDB</code> data source.
+     * @param source  The index of the starting vertex.
+     * @param dest    The index of the destination vertex.
+     * @param profile The way of travelling whose edge weights the route minimises.
+     * @return The <code>List</code> of vertex IDs corresponding to the path.
+     */
+    static List<Long> shortestPath(GraphDB g, int source, int dest, Profile profile) {
+        String search = System.getProperty("bearmaps.router.search", "unidirectional");
+        /* A search between components would settle all of one before giving up. */
+        if (g.component(source) != g.component(dest)) {
+            return Collections.emptyList();
+        }
+        SearchStats stats = new SearchStats();
+        CSRGraph adjacency = g.adjacency(profile);
+        if (search.equals("bidirectional")) {
+            return pathFinder(g, bidirectionalSearch(g, adjacency, source, dest,
+                    defaultHeuristic(g, profile), stats), source, dest);
+        } else if (search.equals("ch") && profile == Profile.DISTANCE
+                && g.weightOverlay().isEmpty()) {
+            return g.contractionHierarchy().shortestPath(source, dest, stats);
+        } else if (search.equals("unidirectional") || search.equals("ch")) {
+            return pathFinder(g, search(g, adjacency, source, dest,
+                    defaultHeuristic(g, profile), stats), source, dest);
+        }
+        throw new IllegalArgumentException("Unknown search " + search);
+    }
 
-        fringe.add(sourceNode);
-        visited.add(sourceNode);
-        paths.put(sourceNode, sourceNode);
-        bestDist.put(sourceNode, 0.0);
+    /**
+     * Returns the shortest route for each of a batch of requests, found the way
+     * <code>shortestPath</code> finds them but in parallel on the common fork-join pool.
+     *
+     * @param g        <code>GraphDB</code> data source.
+     * @param requests The start and end points of each route.
+     * @return The vertex IDs of each route, in the order of <code>requests</code>.
+     */
+    public static List<List<Long>> shortestPaths(GraphDB g, List<RouteRequestParams> requests) {
+        return shortestPaths(g, requests, ForkJoinPool.commonPool());
+    }
 
-        while (!fringe.isEmpty()) {
+    /**
+     * Returns the shortest route for each of a batch of requests, computed on
+     * <code>pool</code>. The batch is split in halves until the pieces are small, so idle
+     * workers steal whole runs of requests from busy ones; every worker searches in its own
+     * thread's <code>SearchWorkspace</code>.
+     *
+     * @param g        <code>GraphDB</code> data source.
+     * @param requests The start and end points of each route.
+     * @param pool     The pool to search on.
+     * @return The vertex IDs of each route, in the order of <code>requests</code>.
+     */
+    static List<List<Long>> shortestPaths(GraphDB g, List<RouteRequestParams> requests,
+                                          ForkJoinPool pool) {
+        return shortestPaths(requests.size(), i -> {
+            RouteRequestParams r = requests.get(i);
+            return shortestPath(g, r.startLon, r.startLat, r.endLon, r.endLat, r.profile);
+        }, pool);
+    }
+
+    /**
+     * Returns the shortest route from each source vertex to the matching destination vertex,
+     * computed on <code>pool</code> like the routes of a batch of requests.
+     *
+     * @param g       <code>GraphDB</code> data source.
+     * @param sources The index of the starting vertex of each route.
+     * @param dests   The index of the destination vertex of each route.
+     * @param pool    The pool to search on.
+     * @return The vertex IDs of each route, in the order of <code>sources</code>.
+     */
+    static List<List<Long>> shortestPaths(GraphDB g, int[] sources, int[] dests,
+                                          ForkJoinPool pool) {
+        return shortestPaths(sources.length, i -> shortestPath(g, sources[i], dests[i]), pool);
+    }
+
+    /** Returns <code>route.apply(i)</code> for every <code>i</code> below <code>count</code>. */
+    private static List<List<Long>> shortestPaths(int count, IntFunction<List<Long>> route,
+                                                  ForkJoinPool pool) {
+        List<List<Long>> paths = new ArrayList<>(Collections.nCopies(count, null));
+        pool.invoke(new BatchTask(i -> paths.set(i, route.apply(i)), ROUTE_GRAIN, 0, count));
+        return paths;
+    }
+
+    /**
+     * Runs <code>body</code> for every index in <code>[from, to)</code>, splitting the range while
+     * it holds more than <code>grain</code> indices.
+     */
+    private static class BatchTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
 
-            Long checkNode = fringe.poll();
+        private final IntConsumer body;
+        private final int grain;
+        private final int from;
+        private final int to;
 
-            while (visited.contains(checkNode) && !fringe.isEmpty()) {
-                checkNode = fringe.poll();
+        BatchTask(IntConsumer body, int grain, int from, int to) {
+            this.body = body;
+            this.grain = grain;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > grain) {
+                int mid = (from + to) >>> 1;
+                invokeAll(new BatchTask(body, grain, from, mid),
+                        new BatchTask(body, grain, mid, to));
+                return;
+            }
+            for (int i = from; i < to; i++) {
+                body.accept(i);
             }
+        }
+    }
 
-            if (checkNode.equals(destNode)) {
+    /**
+     * Return a <code>List</code> of vertex IDs corresponding to the shortest path from a given
+     * starting coordinate and destination coordinate, found by A* with <code>heuristic</code>.
+     *
+     * @param g         <code>GraphDB</code> data source.
+     * @param stlon     The longitude of the starting coordinate.
+     * @param stlat     The latitude of the starting coordinate.
+     * @param destlon   The longitude of the destination coordinate.
+     * @param destlat   The latitude of the destination coordinate.
+     * @param heuristic An admissible heuristic; <code>Heuristic.NONE</code> runs Dijkstra.
+     * @param stats     Receives the work done by the search, or null.
+     * @return The <code>List</code> of vertex IDs corresponding to the shortest path.
+     */
+    public static List<Long> shortestPath(GraphDB g,
+                                          double stlon, double stlat,
+                                          double destlon, double destlat,
+                                          Heuristic heuristic, SearchStats stats) {
+        int source = g.routingIndex(stlon, stlat);
+        int dest = g.routingIndex(destlon, destlat);
+        SearchWorkspace ws = search(g, source, dest, heuristic,
+                stats == null ? new SearchStats() : stats);
+        return pathFinder(g, ws, source, dest);
+    }
+
+    /**
+     * Return a <code>List</code> of vertex IDs corresponding to the shortest path from a given
+     * starting coordinate and destination coordinate, found by bidirectional A* with
+     * <code>heuristic</code>.
+     *
+     * @param g         <code>GraphDB</code> data source.
+     * @param stlon     The longitude of the starting coordinate.
+     * @param stlat     The latitude of the starting coordinate.
+     * @param destlon   The longitude of the destination coordinate.
+     * @param destlat   The latitude of the destination coordinate.
+     * @param heuristic An admissible heuristic; <code>Heuristic.NONE</code> runs bidirectional
+     *                  Dijkstra.
+     * @param stats     Receives the work done by both halves of the search, or null.
+     * @return The <code>List</code> of vertex IDs corresponding to the shortest path.
+     */
+    public static List<Long> shortestPathBidirectional(GraphDB g,
+                                                       double stlon, double stlat,
+                                                       double destlon, double destlat,
+                                                       Heuristic heuristic, SearchStats stats) {
+        int source = g.routingIndex(stlon, stlat);
+        int dest = g.routingIndex(destlon, destlat);
+        SearchWorkspace ws = bidirectionalSearch(g, source, dest, heuristic,
+                stats == null ? new SearchStats() : stats);
+        return pathFinder(g, ws, source, dest);
+    }
+
+    /**
+     * Returns the heuristic that <code>shortestPath</code> uses by default: great-circle
+     * distance to the destination, unless <code>-Dbearmaps.router.heuristic=none</code> asks for
+     * plain Dijkstra or <code>-Dbearmaps.router.heuristic=landmarks</code> for the graph's
+     * <code>Landmarks</code>.
+     *
+     * @param g The graph the search runs on.
+     * @return The heuristic.
+     */
+    static Heuristic defaultHeuristic(GraphDB g) {
+        return defaultHeuristic(g, Profile.DISTANCE);
+    }
+
+    /**
+     * Returns the heuristic that <code>shortestPath</code> uses by default for
+     * <code>profile</code>, chosen as for distances. Landmark distances bound lengths rather
+     * than travel times, so the other profiles use their great-circle heuristic instead.
+     *
+     * @param g       The graph the search runs on.
+     * @param profile The profile whose weights the search minimises.
+     * @return The heuristic.
+     */
+    static Heuristic defaultHeuristic(GraphDB g, Profile profile) {
+        String name = System.getProperty("bearmaps.router.heuristic", "greatCircle");
+        if (name.equals("none")) {
+            return Heuristic.NONE;
+        } else if (name.equals("greatCircle")) {
+            return profile.heuristic(g);
+        } else if (name.equals("landmarks")) {
+            return profile == Profile.DISTANCE ? g.landmarks() : profile.heuristic(g);
+        }
+        throw new IllegalArgumentException("Unknown heuristic " + name);
+    }
+
+    /**
+     * Runs A* from <code>source</code> until <code>dest</code> is settled. Vertices are keyed by
+     * their distance from the source plus the heuristic's estimate of their distance to the
+     * destination; with a consistent heuristic a settled vertex is never improved again. The
+     * search runs in the calling thread's <code>SearchWorkspace</code>.
+     *
+     * @param g         <code>GraphDB</code> data source.
+     * @param source    The index of the starting vertex.
+     * @param dest      The index of the destination vertex.
+     * @param heuristic An admissible, consistent heuristic.
+     * @param stats     Receives the work done by the search.
+     * @return The workspace holding the parent of every reached vertex, for
+     * <code>pathFinder</code>, until the thread's next search.
+     */
+    static SearchWorkspace search(GraphDB g, int source, int dest, Heuristic heuristic,
+                                  SearchStats stats) {
+        return search(g, g.adjacency(Profile.DISTANCE), source, dest, heuristic, stats);
+    }
+
+    /**
+     * Runs A* over <code>adjacency</code>, whose weights are those of one profile, with a
+     * heuristic in the same units.
+     */
+    static SearchWorkspace search(GraphDB g, CSRGraph adjacency, int source, int dest,
+                                  Heuristic heuristic, SearchStats stats) {
+        SearchWorkspace ws = SearchWorkspace.begin(g.size());
+        int epoch = ws.epoch;
+        double[] bestDist = ws.forwardDist;
+        /* The heuristic is evaluated once per reached vertex, when it is first reached. */
+        double[] estimates = ws.estimates;
+        /* Each vertex is queued at most once; a shorter distance lowers its key in place. */
+        IndexedMinHeap fringe = ws.forward;
+
+        ws.reachForward(source, 0.0, source);
+        estimates[source] = heuristic.estimate(source, dest);
+        fringe.offer(source, estimates[source]);
+
+        while (!fringe.isEmpty()) {
+            int v = fringe.poll();
+            ws.forwardSettled[v] = epoch;
+            stats.settled++;
+            if (v == dest) {
+                stats.distance = bestDist[v];
                 break;
             }
+            /* Relax each edge out of the settled vertex straight from the CSR arrays. */
+            for (int e = adjacency.firstEdge(v), end = adjacency.endEdge(v); e < end; e++) {
+                int to = adjacency.target(e);
+                double candidate = bestDist[v] + adjacency.weight(e);
+                /* An unreached vertex is infinitely far, so closed edges never reach one. */
+                if (ws.forwardSettled[to] != epoch && candidate < ws.forwardDistance(to)) {
+                    if (ws.forwardReached[to] != epoch) {
+                        estimates[to] = heuristic.estimate(to, dest);
+                    }
+                    ws.reachForward(to, candidate, v);
+                    fringe.offer(to, candidate + estimates[to]);
+                    stats.relaxed++;
+                }
+            }
+        }
+        return ws;
+    }
 
-            visited.add(checkNode);
+    /**
+     * Runs A* forward from <code>source</code> over the adjacency and backward from
+     * <code>dest</code> over the reverse adjacency, always advancing the side whose next key is
+     * smaller, until no undiscovered route can beat the best one seen where the two searches
+     * meet.
+     *
+     * Both sides use the average potential <code>p(v) = (h(v, dest) - h(v, source)) / 2</code>,
+     * the forward side <code>p</code> and the backward side <code>-p</code>. Because the two
+     * potentials sum to zero, a route through <code>v</code> has length at least
+     * <code>forwardKey(v) + backwardKey(v)</code>, so the search may stop as soon as the two
+     * smallest keys add up to the best route length found. With <code>Heuristic.NONE</code> this
+     * is the classic bidirectional Dijkstra stopping rule.
+     *
+     * @param g         <code>GraphDB</code> data source.
+     * @param source    The index of the starting vertex.
+     * @param dest      The index of the destination vertex.
+     * @param heuristic An admissible, consistent heuristic.
+     * @param stats     Receives the work done by both sides.
+     * @return The workspace whose forward parents lead along the route, for
+     * <code>pathFinder</code>, until the thread's next search.
+     */
+    static SearchWorkspace bidirectionalSearch(GraphDB g, int source, int dest,
+                                               Heuristic heuristic, SearchStats stats) {
+        return bidirectionalSearch(g, g.adjacency(Profile.DISTANCE), source, dest, heuristic,
+                stats);
+    }
+
+    /**
+     * Runs bidirectional A* over <code>adjacency</code>, whose weights are those of one
+     * profile. Every profile weighs both directions of a road alike, so the reweighted graph is
+     * its own reverse just as the adjacency is.
+     */
+    static SearchWorkspace bidirectionalSearch(GraphDB g, CSRGraph adjacency, int source,
+                                               int dest, Heuristic heuristic,
+                                               SearchStats stats) {
+        SearchWorkspace ws = SearchWorkspace.begin(g.size());
+        int epoch = ws.epoch;
+        IndexedMinHeap forward = ws.forward;
+        IndexedMinHeap backward = ws.backward;
+        /* The best route found so far: its length and the vertex where its halves meet. */
+        double best = source == dest ? 0.0 : Double.POSITIVE_INFINITY;
+        int meeting = source == dest ? source : -1;
 
-            for (Long w : g.adjacent(checkNode)) {
+        ws.reachForward(source, 0.0, source);
+        forward.offer(source, potential(ws, heuristic, source, source, dest));
+        ws.reachBackward(dest, 0.0, dest);
+        backward.offer(dest, -potential(ws, heuristic, dest, source, dest));
 
-                if (!bestDist.containsKey(w)) {
-                    bestDist.put(w, 1E99);
+        CSRGraph reverse = adjacency;
+        while (!forward.isEmpty() && !backward.isEmpty()
+                && forward.peekKey() + backward.peekKey() < best) {
+            if (forward.peekKey() <= backward.peekKey()) {
+                int v = forward.poll();
+                ws.forwardSettled[v] = epoch;
+                stats.settled++;
+                for (int e = adjacency.firstEdge(v), end = adjacency.endEdge(v); e < end; e++) {
+                    int to = adjacency.target(e);
+                    double candidate = ws.forwardDist[v] + adjacency.weight(e);
+                    if (ws.forwardSettled[to] != epoch && candidate < ws.forwardDistance(to)) {
+                        ws.reachForward(to, candidate, v);
+                        forward.offer(to, candidate + potential(ws, heuristic, to, source, dest));
+                        stats.relaxed++;
+                        if (candidate + ws.backwardDistance(to) < best) {
+                            best = candidate + ws.backwardDistance(to);
+                            meeting = to;
+                        }
+                    }
                 }
+            } else {
+                int v = backward.poll();
+                ws.backwardSettled[v] = epoch;
+                stats.settled++;
+                for (int e = reverse.firstEdge(v), end = reverse.endEdge(v); e < end; e++) {
+                    int to = reverse.target(e);
+                    double candidate = ws.backwardDist[v] + reverse.weight(e);
+                    if (ws.backwardSettled[to] != epoch && candidate < ws.backwardDistance(to)) {
+                        ws.reachBackward(to, candidate, v);
+                        backward.offer(to, candidate - potential(ws, heuristic, to, source, dest));
+                        stats.relaxed++;
+                        if (candidate + ws.forwardDistance(to) < best) {
+                            best = candidate + ws.forwardDistance(to);
+                            meeting = to;
+                        }
+                    }
+                }
+            }
+        }
+        stats.distance = best;
+        if (meeting < 0) {
+            return ws;
+        }
 
-                if (bestDist.get(checkNode) + g.distance(checkNode, w) < bestDist.get(w)) {
+        /*
+         * Forward parents lead from the meeting vertex back to the source. Pointing the backward
+         * half the same way makes one parent chain from dest to source for pathFinder.
+         */
+        for (int v = meeting; v != dest; ) {
+            int next = ws.backwardParent[v];
+            ws.reachForward(next, ws.forwardDistance(v) + ws.backwardDist[v]
+                    - ws.backwardDist[next], v);
+            v = next;
+        }
+        return ws;
+    }
 
-                    bestDist.put(w, bestDist.get(checkNode) + g.distance(checkNode, w));
-                    fringe.remove(w);
-                    fringe.add(w);
+    /** Returns the forward potential of <code>v</code>, computing it on first use. */
+    private static double potential(SearchWorkspace ws, Heuristic heuristic, int v, int source,
+                                    int dest) {
+        if (ws.estimated[v] != ws.epoch) {
+            ws.estimates[v] = (heuristic.estimate(v, dest) - heuristic.estimate(v, source)) / 2;
+            ws.estimated[v] = ws.epoch;
+        }
+        return ws.estimates[v];
+    }
+
+    /**
+     * Returns the road distances from every source point to every target point, each point
+     * snapped to its closest vertex, computed by <code>distanceTable</code>.
+     *
+     * @param g          <code>GraphDB</code> data source.
+     * @param sourceLons The longitudes of the sources.
+     * @param sourceLats The latitudes of the sources.
+     * @param targetLons The longitudes of the targets.
+     * @param targetLats The latitudes of the targets.
+     * @return The distance in miles from source <code>i</code> to target <code>j</code> at
+     * <code>i * targets + j</code>, or infinity if there is no route.
+     */
+    public static double[] distanceMatrix(GraphDB g, double[] sourceLons, double[] sourceLats,
+                                          double[] targetLons, double[] targetLats) {
+        return distanceTable(g, g.routingIndices(sourceLons, sourceLats),
+                g.routingIndices(targetLons, targetLats));
+    }
 
-                    paths.put(w, checkNode);
+    /**
+     * Returns the road distances from every source vertex to every target vertex. Every source
+     * runs one Dijkstra that stops once it has settled all the targets, and the sources are
+     * spread over the common <code>ForkJoinPool</code>; with
+     * <code>-Dbearmaps.router.search=ch</code> the distances are read from the graph's
+     * <code>ContractionHierarchy</code> instead, which only searches a little way up the
+     * hierarchy from each source and target, unless the graph's <code>WeightOverlay</code>
+     * adjusts any edge.
+     *
+     * @param g       <code>GraphDB</code> data source.
+     * @param sources The indices of the source vertices.
+     * @param targets The indices of the target vertices.
+     * @return The distance from source <code>i</code> to target <code>j</code> at
+     * <code>i * targets.length + j</code>, or infinity if there is no route.
+     */
+    static double[] distanceTable(GraphDB g, int[] sources, int[] targets) {
+        if (System.getProperty("bearmaps.router.search", "unidirectional").equals("ch")
+                && g.weightOverlay().isEmpty()) {
+            return g.contractionHierarchy().distanceTable(sources, targets);
+        }
+        return distanceMatrix(g, sources, targets, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Returns the road distances from every source vertex to every target vertex, computed on
+     * <code>pool</code> one source at a time. Every search runs in its worker thread's
+     * <code>SearchWorkspace</code>, so a call allocates nothing in proportion to the graph.
+     *
+     * @param g       <code>GraphDB</code> data source.
+     * @param sources The indices of the source vertices.
+     * @param targets The indices of the target vertices.
+     * @param pool    The pool to search on.
+     * @return The distance from source <code>i</code> to target <code>j</code> at
+     * <code>i * targets.length + j</code>, or infinity if there is no route.
+     */
+    static double[] distanceMatrix(GraphDB g, int[] sources, int[] targets, ForkJoinPool pool) {
+        double[] matrix = new double[sources.length * targets.length];
+        pool.invoke(new BatchTask(row -> {
+            SearchWorkspace ws = oneToMany(g, sources[row], targets);
+            for (int j = 0; j < targets.length; j++) {
+                matrix[row * targets.length + j] = ws.forwardDistance(targets[j]);
+            }
+        }, 1, 0, sources.length));
+        return matrix;
+    }
+
+    /**
+     * Runs Dijkstra from <code>source</code> until it has settled every one of
+     * <code>targets</code> in the source's component, or no vertex is left. The targets are
+     * marked in the workspace, so points snapped to the same vertex are waited for once, and
+     * targets in other components, which can never be settled, not at all.
+     *
+     * @return The workspace holding the distances, final for every settled target.
+     */
+    private static SearchWorkspace oneToMany(GraphDB g, int source, int[] targets) {
+        SearchWorkspace ws = SearchWorkspace.begin(g.size());
+        int component = g.component(source);
+        int pending = 0;
+        for (int t : targets) {
+            if (ws.targeted[t] != ws.epoch) {
+                ws.targeted[t] = ws.epoch;
+                if (g.component(t) == component) {
+                    pending++;
+                }
+            }
+        }
+        IndexedMinHeap fringe = ws.forward;
+        CSRGraph adjacency = g.adjacency(Profile.DISTANCE);
+        ws.reachForward(source, 0.0, source);
+        fringe.offer(source, 0.0);
+        while (pending > 0 && !fringe.isEmpty()) {
+            int v = fringe.poll();
+            ws.forwardSettled[v] = ws.epoch;
+            if (ws.targeted[v] == ws.epoch) {
+                pending--;
+            }
+            for (int e = adjacency.firstEdge(v), end = adjacency.endEdge(v); e < end; e++) {
+                int to = adjacency.target(e);
+                double candidate = ws.forwardDist[v] + adjacency.weight(e);
+                if (ws.forwardSettled[to] != ws.epoch && candidate < ws.forwardDistance(to)) {
+                    ws.reachForward(to, candidate, v);
+                    fringe.offer(to, candidate);
+                }
+            }
+        }
+        return ws;
+    }
+
+    /**
+     * Returns everything reachable by road within each of several distances of the vertex
+     * closest to a point, all from one Dijkstra search bounded by the largest distance.
+     *
+     * @param g      <code>GraphDB</code> data source.
+     * @param lon    The longitude of the origin.
+     * @param lat    The latitude of the origin.
+     * @param limits The distance limits in miles, each positive.
+     * @return The reachable vertices and their distances, with one band per limit in ascending
+     * order.
+     */
+    public static Isochrone isochrone(GraphDB g, double lon, double lat, double... limits) {
+        double[] bands = limits.clone();
+        Arrays.sort(bands);
+        if (bands.length == 0 || !(bands[0] > 0) || Double.isInfinite(bands[bands.length - 1])) {
+            throw new IllegalArgumentException("Isochrone limits must be positive and finite: "
+                    + Arrays.toString(limits));
+        }
+        double cap = bands[bands.length - 1];
+        int origin = g.routingIndex(lon, lat);
+        SearchWorkspace ws = SearchWorkspace.begin(g.size());
+        IndexedMinHeap fringe = ws.forward;
+        CSRGraph adjacency = g.adjacency(Profile.DISTANCE);
+        int[] settled = new int[64];
+        int count = 0;
+        ws.reachForward(origin, 0.0, origin);
+        fringe.offer(origin, 0.0);
+        while (!fringe.isEmpty() && fringe.peekKey() <= cap) {
+            int v = fringe.poll();
+            ws.forwardSettled[v] = ws.epoch;
+            if (count == settled.length) {
+                settled = Arrays.copyOf(settled, count * 2);
+            }
+            settled[count++] = v;
+            for (int e = adjacency.firstEdge(v), end = adjacency.endEdge(v); e < end; e++) {
+                int to = adjacency.target(e);
+                double candidate = ws.forwardDist[v] + adjacency.weight(e);
+                if (ws.forwardSettled[to] != ws.epoch && candidate < ws.forwardDistance(to)) {
+                    ws.reachForward(to, candidate, v);
+                    fringe.offer(to, candidate);
+                }
+            }
+        }
+        double[] distances = new double[count];
+        for (int i = 0; i < count; i++) {
+            distances[i] = ws.forwardDist[settled[i]];
+        }
+        return new Isochrone(bands, origin, Arrays.copyOf(settled, count), distances,
+                adjacency);
+    }
+
+    /**
+     * Returns the shortest route between the vertices closest to two points, followed by up to
+     * <code>k - 1</code> alternatives to it, found with the heuristic chosen by
+     * <code>defaultHeuristic</code>.
+     *
+     * @param g       <code>GraphDB</code> data source.
+     * @param stlon   The longitude of the starting coordinate.
+     * @param stlat   The latitude of the starting coordinate.
+     * @param destlon The longitude of the destination coordinate.
+     * @param destlat The latitude of the destination coordinate.
+     * @param k       The most routes to return, counting the shortest one.
+     * @param stretch How many times longer than the shortest route an alternative may be.
+     * @return The vertex IDs of each route, shortest first; empty if there is no route.
+     * @see #alternatives(GraphDB, int, int, int, double, Heuristic, SearchStats)
+     */
+    public static List<List<Long>> alternatives(GraphDB g, double stlon, double stlat,
+                                                double destlon, double destlat, int k,
+                                                double stretch) {
+        return alternatives(g, stlon, stlat, destlon, destlat, k, stretch, defaultHeuristic(g),
+                null);
+    }
+
+    /**
+     * Returns the shortest route between the vertices closest to two points, followed by up to
+     * <code>k - 1</code> alternatives to it.
+     *
+     * @param g         <code>GraphDB</code> data source.
+     * @param stlon     The longitude of the starting coordinate.
+     * @param stlat     The latitude of the starting coordinate.
+     * @param destlon   The longitude of the destination coordinate.
+     * @param destlat   The latitude of the destination coordinate.
+     * @param k         The most routes to return, counting the shortest one.
+     * @param stretch   How many times longer than the shortest route an alternative may be.
+     * @param heuristic An admissible, consistent heuristic.
+     * @param stats     Receives the work done by the search, or null.
+     * @return The vertex IDs of each route, shortest first; empty if there is no route.
+     */
+    public static List<List<Long>> alternatives(GraphDB g, double stlon, double stlat,
+                                                double destlon, double destlat, int k,
+                                                double stretch, Heuristic heuristic,
+                                                SearchStats stats) {
+        return alternatives(g, g.routingIndex(stlon, stlat), g.routingIndex(destlon, destlat), k,
+                stretch, heuristic, stats == null ? new SearchStats() : stats);
+    }
+
+    /**
+     * Returns the shortest route from <code>source</code> to <code>dest</code>, followed by up
+     * to <code>k - 1</code> alternatives found by the plateau method.
+     *
+     * A* is run forward from the source and backward from the destination, each side toward
+     * the other end, and carried on past the shortest route until each has settled every vertex
+     * that lies on some route at most <code>stretch</code> times as long; a better heuristic
+     * keeps that area close to the routes themselves. The forward search then holds a
+     * shortest path tree out of the source and the backward search one into the destination.
+     * Where the two trees run along the same edges they form a plateau, and the route from the
+     * source down the forward tree to a plateau, along it and on down the backward tree is
+     * shortest over the whole length of the plateau. Plateaus are tried longest first, so the
+     * alternatives are the routes that are locally shortest over the longest stretch; one is
+     * kept if its plateau covers at least <code>ALTERNATIVE_MIN_PLATEAU</code> of the shortest
+     * route, it does not visit a vertex twice, and it shares at most
+     * <code>ALTERNATIVE_MAX_SHARING</code> of the shortest route's length with each route kept
+     * before it. All <code>k</code> routes come from the same two trees, so the cost is that of
+     * one search over a somewhat wider area rather than one search per route.
+     *
+     * @param g         <code>GraphDB</code> data source.
+     * @param source    The index of the starting vertex.
+     * @param dest      The index of the destination vertex.
+     * @param k         The most routes to return, counting the shortest one.
+     * @param stretch   How many times longer than the shortest route an alternative may be.
+     * @param heuristic An admissible, consistent heuristic.
+     * @param stats     Receives the work done by the search; its distance is the shortest
+     *                  route's.
+     * @return The vertex IDs of each route, shortest first; empty if there is no route.
+     */
+    static List<List<Long>> alternatives(GraphDB g, int source, int dest, int k, double stretch,
+                                         Heuristic heuristic, SearchStats stats) {
+        if (k < 1 || !(stretch >= 1) || Double.isInfinite(stretch)) {
+            throw new IllegalArgumentException("Need k >= 1 and a finite stretch >= 1, not k = "
+                    + k + ", stretch = " + stretch);
+        }
+        if (g.component(source) != g.component(dest)) {
+            stats.distance = Double.POSITIVE_INFINITY;
+            return new ArrayList<>();
+        }
+        SearchWorkspace ws = SearchWorkspace.begin(g.size());
+        int epoch = ws.epoch;
+        IndexedMinHeap forward = ws.forward;
+        IndexedMinHeap backward = ws.backward;
+        double best = source == dest ? 0.0 : Double.POSITIVE_INFINITY;
+        int meeting = source == dest ? source : -1;
+        /*
+         * Each side is keyed by its own A* estimate of the whole route through a vertex, so it
+         * only settles vertices that may lie on a route no longer than the limit.
+         */
+        double limit = stretch * best;
+        int[] settled = new int[64];
+        int count = 0;
+
+        ws.reachForward(source, 0.0, source);
+        ws.estimates[source] = heuristic.estimate(source, dest);
+        ws.estimated[source] = epoch;
+        forward.offer(source, ws.estimates[source]);
+        ws.reachBackward(dest, 0.0, dest);
+        backward.offer(dest, heuristic.estimate(dest, source));
+
+        CSRGraph adjacency = g.adjacency(Profile.DISTANCE);
+        CSRGraph reverse = adjacency;
+        while (true) {
+            boolean forwardOpen = !forward.isEmpty() && forward.peekKey() <= limit;
+            boolean backwardOpen = !backward.isEmpty() && backward.peekKey() <= limit;
+            if (!forwardOpen && !backwardOpen
+                    || meeting < 0 && (forward.isEmpty() || backward.isEmpty())) {
+                break;
+            }
+            if (forwardOpen && (!backwardOpen || forward.peekKey() <= backward.peekKey())) {
+                int v = forward.poll();
+                ws.forwardSettled[v] = epoch;
+                stats.settled++;
+                if (count == settled.length) {
+                    settled = Arrays.copyOf(settled, count * 2);
+                }
+                settled[count++] = v;
+                for (int e = adjacency.firstEdge(v), end = adjacency.endEdge(v); e < end; e++) {
+                    int to = adjacency.target(e);
+                    double candidate = ws.forwardDist[v] + adjacency.weight(e);
+                    if (ws.forwardSettled[to] != epoch && candidate < ws.forwardDistance(to)) {
+                        if (ws.estimated[to] != epoch) {
+                            ws.estimates[to] = heuristic.estimate(to, dest);
+                            ws.estimated[to] = epoch;
+                        }
+                        ws.reachForward(to, candidate, v);
+                        forward.offer(to, candidate + ws.estimates[to]);
+                        stats.relaxed++;
+                        if (candidate + ws.backwardDistance(to) < best) {
+                            best = candidate + ws.backwardDistance(to);
+                            meeting = to;
+                            limit = stretch * best;
+                        }
+                    }
+                }
+            } else {
+                int v = backward.poll();
+                ws.backwardSettled[v] = epoch;
+                stats.settled++;
+                for (int e = reverse.firstEdge(v), end = reverse.endEdge(v); e < end; e++) {
+                    int to = reverse.target(e);
+                    double candidate = ws.backwardDist[v] + reverse.weight(e);
+                    if (ws.backwardSettled[to] != epoch && candidate < ws.backwardDistance(to)) {
+                        ws.reachBackward(to, candidate, v);
+                        backward.offer(to, candidate + heuristic.estimate(to, source));
+                        stats.relaxed++;
+                        if (candidate + ws.forwardDistance(to) < best) {
+                            best = candidate + ws.forwardDistance(to);
+                            meeting = to;
+                            limit = stretch * best;
+                        }
+                    }
+                }
+            }
+        }
+        stats.distance = best;
+        List<List<Long>> routes = new ArrayList<>();
+        if (meeting < 0) {
+            return routes;
+        }
+
+        /* Find each long enough plateau from its end nearest the source, as {start, end}. */
+        List<int[]> plateaus = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int v = settled[i];
+            if (ws.backwardSettled[v] != epoch || ws.forwardDist[v] + ws.backwardDist[v] > limit) {
+                continue;
+            }
+            int parent = ws.forwardParent[v];
+            if (v != source && ws.backwardSettled[parent] == epoch
+                    && ws.backwardParent[parent] == v) {
+                continue;
+            }
+            int end = v;
+            while (end != dest && ws.forwardParent(ws.backwardParent[end]) == end) {
+                end = ws.backwardParent[end];
+            }
+            double length = ws.forwardDist[end] - ws.forwardDist[v];
+            if (length > 0 && length >= ALTERNATIVE_MIN_PLATEAU * best) {
+                plateaus.add(new int[] {v, end});
+            }
+        }
+        plateaus.sort((p, q) -> Double.compare(ws.forwardDist[q[1]] - ws.forwardDist[q[0]],
+                ws.forwardDist[p[1]] - ws.forwardDist[p[0]]));
+
+        List<Set<Long>> kept = new ArrayList<>();
+        List<int[]> keptRoutes = new ArrayList<>();
+        List<Integer> vias = new ArrayList<>();
+        keptRoutes.add(viaRoute(ws, source, dest, meeting, best, kept));
+        vias.add(meeting);
+        for (int[] plateau : plateaus) {
+            if (keptRoutes.size() == k) {
+                break;
+            }
+            int[] route = viaRoute(ws, source, dest, plateau[0], best, kept);
+            if (route != null) {
+                keptRoutes.add(route);
+                vias.add(plateau[0]);
+            }
+        }
+        /* The shortest route first, then the alternatives from shortest to longest. */
+        List<Integer> order = new ArrayList<>();
+        for (int i = 1; i < keptRoutes.size(); i++) {
+            order.add(i);
+        }
+        order.sort(Comparator.comparingDouble(i -> ws.forwardDist[vias.get(i)]
+                + ws.backwardDist[vias.get(i)]));
+        order.add(0, 0);
+        for (int i : order) {
+            List<Long> ids = new ArrayList<>(keptRoutes.get(i).length);
+            for (int v : keptRoutes.get(i)) {
+                ids.add(g.id(v));
+            }
+            routes.add(ids);
+        }
+        return routes;
+    }
+
+    /**
+     * Returns the route down the forward tree to <code>via</code> and on down the backward
+     * tree, and adds its edges to <code>kept</code>, unless it visits a vertex twice or shares
+     * too much with a route already kept.
+     *
+     * @param shortest The length of the shortest route.
+     * @param kept     The edges of each route kept so far, as <code>from &lt;&lt; 32 | to</code>.
+     * @return The vertices of the route, or null if it is not kept.
+     */
+    private static int[] viaRoute(SearchWorkspace ws, int source, int dest, int via,
+                                  double shortest, List<Set<Long>> kept) {
+        int[] route = new int[16];
+        int n = 0;
+        for (int v = via; ; v = ws.forwardParent[v]) {
+            if (n == route.length) {
+                route = Arrays.copyOf(route, n * 2);
+            }
+            route[n++] = v;
+            if (v == source) {
+                break;
+            }
+        }
+        int viaIndex = n - 1;
+        for (int i = 0, j = n - 1; i < j; i++, j--) {
+            int swap = route[i];
+            route[i] = route[j];
+            route[j] = swap;
+        }
+        for (int v = via; v != dest; ) {
+            v = ws.backwardParent[v];
+            if (n == route.length) {
+                route = Arrays.copyOf(route, n * 2);
+            }
+            route[n++] = v;
+        }
+
+        Set<Integer> visited = new HashSet<>();
+        Set<Long> edges = new HashSet<>();
+        double[] shared = new double[kept.size()];
+        for (int i = 0; i < n; i++) {
+            if (!visited.add(route[i])) {
+                return null;
+            }
+            if (i == 0) {
+                continue;
+            }
+            long edge = (long) route[i - 1] << 32 | route[i];
+            /* Up to via the route follows the forward tree, and after it the backward tree. */
+            double weight = i <= viaIndex
+                    ? ws.forwardDist[route[i]] - ws.forwardDist[route[i - 1]]
+                    : ws.backwardDist[route[i - 1]] - ws.backwardDist[route[i]];
+            edges.add(edge);
+            for (int r = 0; r < kept.size(); r++) {
+                if (kept.get(r).contains(edge)) {
+                    shared[r] += weight;
+                }
+            }
+        }
+        for (double length : shared) {
+            if (length > ALTERNATIVE_MAX_SHARING * shortest) {
+                return null;
+            }
+        }
+        kept.add(edges);
+        return Arrays.copyOf(route, n);
+    }
+
+    /**
+     * Returns a route that starts at the first of several stops and visits all the others,
+     * each snapped to its closest vertex, in the order <code>TripPlanner</code> finds within its
+     * time budget. The road distances between every pair of stops come from one
+     * <code>distanceTable</code> pass, and once the order is chosen the legs between
+     * consecutive stops are routed in parallel and joined.
+     *
+     * @param g         <code>GraphDB</code> data source.
+     * @param lons      The longitudes of the stops, the starting point first.
+     * @param lats      The latitudes of the stops.
+     * @param roundTrip Whether to return to the first stop after the last one.
+     * @return The trip.
+     * @throws IllegalArgumentException If there are fewer than two stops or two of them are not
+     *                                  connected by road.
+     */
+    public static Trip trip(GraphDB g, double[] lons, double[] lats, boolean roundTrip) {
+        int n = lons.length;
+        if (n < 2) {
+            throw new IllegalArgumentException("A trip needs at least two stops, not " + n);
+        }
+        int[] stops = g.routingIndices(lons, lats);
+        double[] table = distanceTable(g, stops, stops);
+        for (int i = 0; i < table.length; i++) {
+            if (table[i] == Double.POSITIVE_INFINITY) {
+                throw new IllegalArgumentException(String.format(
+                        "Stops %d and %d are not connected by road.", i / n, i % n));
+            }
+        }
+        int[] order = TripPlanner.visitOrder(table, n, roundTrip,
+                System.nanoTime() + TripPlanner.budgetNanos());
+
+        int legs = roundTrip ? n : n - 1;
+        int[] from = new int[legs];
+        int[] to = new int[legs];
+        for (int k = 0; k < legs; k++) {
+            from[k] = stops[order[k]];
+            to[k] = stops[order[(k + 1) % n]];
+        }
+        List<Long> path = new ArrayList<>();
+        for (List<Long> leg : shortestPaths(g, from, to, ForkJoinPool.commonPool())) {
+            /* Each leg starts where the last one ended. */
+            for (long id : leg) {
+                if (path.isEmpty() || path.get(path.size() - 1) != id) {
+                    path.add(id);
                 }
             }
         }
-        return pathFinder(paths, sourceNode, destNode);
+        return new Trip(order, roundTrip, TripPlanner.length(table, n, order, roundTrip), path);
     }
 
-    public static List<Long> pathFinder(HashMap paths, Long sourceNode, Long finalNode) {
-        Long current = (Long) paths.get(finalNode);
+    /** Counts of the work done by one search, for comparing search modes. */
+    public static class SearchStats {
+        /** Vertices removed from the fringe, including the destination. */
+        int settled;
+        /** Edges that lowered the distance of a vertex. */
+        int relaxed;
+        /** Length of the route found in miles, or infinity if there is none. */
+        double distance = Double.POSITIVE_INFINITY;
+
+        public String toString() {
+            return String.format("%d settled, %d relaxed, %.3f miles", settled, relaxed,
+                    distance);
+        }
+    }
+
+    /**
+     * Walks the parent pointers back from <code>finalNode</code> and translates the dense vertex
+     * indices on the way into OSM IDs.
+     *
+     * @param g          <code>GraphDB</code> data source.
+     * @param paths      The parent index of every reached vertex.
+     * @param sourceNode The index of the starting vertex.
+     * @param finalNode  The index of the destination vertex.
+     * @return The <code>List</code> of vertex IDs from the source to the destination, or an
+     * empty list if the destination was never reached.
+     */
+    public static List<Long> pathFinder(GraphDB g, int[] paths, int sourceNode, int finalNode) {
+        return pathFinder(g, v -> paths[v], sourceNode, finalNode);
+    }
+
+    /**
+     * Walks the forward parents of the last search in <code>ws</code> back from
+     * <code>finalNode</code> and translates the dense vertex indices on the way into OSM IDs.
+     *
+     * @param g          <code>GraphDB</code> data source.
+     * @param ws         The workspace the search ran in.
+     * @param sourceNode The index of the starting vertex.
+     * @param finalNode  The index of the destination vertex.
+     * @return The <code>List</code> of vertex IDs from the source to the destination, or an
+     * empty list if the destination was never reached.
+     */
+    static List<Long> pathFinder(GraphDB g, SearchWorkspace ws, int sourceNode, int finalNode) {
+        return pathFinder(g, ws::forwardParent, sourceNode, finalNode);
+    }
+
+    private static List<Long> pathFinder(GraphDB g, IntUnaryOperator parent, int sourceNode,
+                                         int finalNode) {
+        int current = parent.applyAsInt(finalNode);
+        if (current < 0) {
+            return Collections.emptyList();
+        }
         ArrayList<Long> result = new ArrayList<>();
-        result.add(0, finalNode);
-        while (!current.equals(sourceNode)) {
-            result.add(0, current);
-            current = (Long) paths.get(current);
+        result.add(g.id(finalNode));
+        while (current != sourceNode) {
+            result.add(g.id(current));
+            current = parent.applyAsInt(current);
         }
-        result.add(0, sourceNode);
+        result.add(g.id(sourceNode));
+        Collections.reverse(result);
         return result;
     }
 
@@ -0,0 +1,219 @@
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Random;
+
+/**
+ * This class provides a main method for timing <code>Router.shortestPath</code> on cross-region
+ * queries, which start near one corner of the graph and end near the opposite one, so each
+ * search settles a large part of the graph. The router is compared against the search it
+ * replaced, which kept its fringe in a <code>PriorityQueue</code> and re-queued a vertex with a
+ * linear <code>remove</code> on every relaxation. Dijkstra and great-circle A*, each run from
+ * one end and from both ends, are reported separately with their 99th percentile query time and
+ * the average number of vertices each settles; every mode must find routes exactly as long as
+ * Dijkstra's. A* also runs with the ALT heuristic of <code>Landmarks</code>, another mode
+ * queries the graph's <code>ContractionHierarchy</code>, and the preprocessing time and memory
+ * of both are reported first. The last mode finds three alternative routes at once with
+ * <code>Router.alternatives</code> and landmarks, for comparison with a single landmark search.
+ * The bytes each mode allocates per query are reported too, since searches reuse per-thread
+ * <code>SearchWorkspace</code>s rather than allocating per query.
+ *
+ * Usage: <code>RouterBenchmark [osm-file] [queries] [rounds]</code>
+ */
+public class RouterBenchmark {
+    private static final String OSM_DB_PATH = "../library-su18/bearmaps/berkeley-2018.osm.xml";
+    /** Fraction of the graph's extent, measured from each corner, that endpoints are drawn from. */
+    private static final double CORNER = 0.2;
+    /** How much longer than the shortest route the alternatives may be. */
+    private static final double ALTERNATIVE_STRETCH = 1.25;
+
+    public static void main(String[] args) {
+        String path = args.length > 0 ? args[0] : OSM_DB_PATH;
+        int count = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+        GraphDB g = new GraphDB(path);
+        double[][] queries = crossRegionQueries(g, count, new Random(61));
+        System.out.printf("%s: %,d vertices, %,d edges, %d cross-region queries%n", path,
+                g.size(), g.adjacency().numEdges(), count);
+
+        long landmarkStart = System.nanoTime();
+        Landmarks landmarks = Landmarks.build(g, Integer.getInteger("bearmaps.router.landmarks",
+                16), Runtime.getRuntime().availableProcessors());
+        System.out.printf("landmarks: %d in %.1f ms, %,d bytes each, %,d bytes in all%n",
+                landmarks.count(), (System.nanoTime() - landmarkStart) / 1e6,
+                landmarks.tableBytes() / Math.max(1, landmarks.count()), landmarks.tableBytes());
+        long preprocessStart = System.nanoTime();
+        ContractionHierarchy ch = ContractionHierarchy.build(g,
+                ContractionHierarchy.defaultThreads());
+        System.out.printf("contraction hierarchy: %,d upward edges in %.1f ms%n", ch.numEdges(),
+                (System.nanoTime() - preprocessStart) / 1e6);
+
+        Heuristic greatCircle = Heuristic.greatCircle(g);
+        String[] names = {"Dijkstra", "A* great-circle", "A* landmarks", "bidir Dijkstra",
+            "bidir A*", "CH", "3 alternatives"};
+        Route[] modes = {
+            (q, stats) -> Router.shortestPath(g, q[0], q[1], q[2], q[3], Heuristic.NONE, stats),
+            (q, stats) -> Router.shortestPath(g, q[0], q[1], q[2], q[3], greatCircle, stats),
+            (q, stats) -> Router.shortestPath(g, q[0], q[1], q[2], q[3], landmarks, stats),
+            (q, stats) -> Router.shortestPathBidirectional(g, q[0], q[1], q[2], q[3],
+                    Heuristic.NONE, stats),
+            (q, stats) -> Router.shortestPathBidirectional(g, q[0], q[1], q[2], q[3],
+                    greatCircle, stats),
+            (q, stats) -> ch.shortestPath(q[0], q[1], q[2], q[3], stats),
+            (q, stats) -> Router.alternatives(g, q[0], q[1], q[2], q[3], 3, ALTERNATIVE_STRETCH,
+                    landmarks, stats).get(0),
+        };
+        long[] settled = new long[modes.length];
+        for (double[] q : queries) {
+            double expected = Double.NaN;
+            for (int m = 0; m < modes.length; m++) {
+                Router.SearchStats stats = new Router.SearchStats();
+                modes[m].run(q, stats);
+                if (m == 0) {
+                    expected = stats.distance;
+                } else if (Math.abs(stats.distance - expected) > 1e-9 * Math.max(1, expected)) {
+                    throw new IllegalStateException(names[m] + " found a route of "
+                            + stats.distance + " miles instead of " + expected + " for "
+                            + Arrays.toString(q));
+                }
+                settled[m] += stats.settled;
+            }
+        }
+        double[] baseline = best(rounds, queries,
+            q -> priorityQueueShortestPath(g, q[0], q[1], q[2], q[3]));
+        report("PriorityQueue", baseline, baseline, count);
+        for (int m = 0; m < modes.length; m++) {
+            Route mode = modes[m];
+            double[] times = best(rounds, queries, q -> mode.run(q, null));
+            report(names[m], times, baseline, count);
+            long allocated = allocatedBytes();
+            for (double[] q : queries) {
+                mode.run(q, null);
+            }
+            allocated = allocatedBytes() - allocated;
+            System.out.printf("%-16s %,10d vertices settled, %,d bytes allocated per query%n", "",
+                    settled[m] / count, allocated / count);
+        }
+    }
+
+    /**
+     * Draws query endpoints from opposite corners of the bounding box of the graph's vertices,
+     * alternating between the two diagonals.
+     */
+    private static double[][] crossRegionQueries(GraphDB g, int count, Random random) {
+        double minLon = Double.MAX_VALUE, maxLon = -Double.MAX_VALUE;
+        double minLat = Double.MAX_VALUE, maxLat = -Double.MAX_VALUE;
+        for (int v = 0; v < g.size(); v++) {
+            minLon = Math.min(minLon, g.lonAt(v));
+            maxLon = Math.max(maxLon, g.lonAt(v));
+            minLat = Math.min(minLat, g.latAt(v));
+            maxLat = Math.max(maxLat, g.latAt(v));
+        }
+        double width = maxLon - minLon;
+        double height = maxLat - minLat;
+        double[][] queries = new double[count][];
+        for (int i = 0; i < count; i++) {
+            double a = CORNER * random.nextDouble();
+            double b = CORNER * random.nextDouble();
+            double c = 1 - CORNER * random.nextDouble();
+            double d = 1 - CORNER * random.nextDouble();
+            if (i % 2 == 1) {
+                double swap = b;
+                b = d;
+                d = swap;
+            }
+            queries[i] = new double[] {minLon + a * width, minLat + b * height,
+                minLon + c * width, minLat + d * height};
+        }
+        return queries;
+    }
+
+    /** Returns the bytes the calling thread has allocated so far. */
+    private static long allocatedBytes() {
+        com.sun.management.ThreadMXBean threads =
+                (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    private interface Search {
+        List<Long> run(double[] query);
+    }
+
+    private interface Route {
+        List<Long> run(double[] query, Router.SearchStats stats);
+    }
+
+    /**
+     * Runs every query <code>rounds</code> times after one warm-up pass.
+     *
+     * @return The total time of the fastest round, then the 99th percentile query time over all
+     * rounds, both in milliseconds.
+     */
+    private static double[] best(int rounds, double[][] queries, Search search) {
+        for (double[] q : queries) {
+            search.run(q);
+        }
+        double best = Double.MAX_VALUE;
+        double[] latencies = new double[rounds * queries.length];
+        for (int i = 0; i < rounds; i++) {
+            long roundStart = System.nanoTime();
+            for (int j = 0; j < queries.length; j++) {
+                long start = System.nanoTime();
+                search.run(queries[j]);
+                latencies[i * queries.length + j] = (System.nanoTime() - start) / 1e6;
+            }
+            best = Math.min(best, (System.nanoTime() - roundStart) / 1e6);
+        }
+        Arrays.sort(latencies);
+        return new double[] {best, latencies[(int) Math.ceil(0.99 * latencies.length) - 1]};
+    }
+
+    private static void report(String name, double[] times, double[] baseline, int count) {
+        System.out.printf("%-16s %10.1f ms %10.3f ms/query %10.3f ms p99 %6.2fx%n", name,
+                times[0], times[0] / count, times[1], baseline[0] / times[0]);
+    }
+
+    /** The previous <code>Router.shortestPath</code>, kept as the baseline. */
+    private static List<Long> priorityQueueShortestPath(GraphDB g, double stlon, double stlat,
+                                                        double destlon, double destlat) {
+        int source = g.closestIndex(stlon, stlat);
+        int dest = g.closestIndex(destlon, destlat);
+
+        double[] bestDist = new double[g.size()];
+        boolean[] visited = new boolean[g.size()];
+        int[] paths = new int[g.size()];
+        Arrays.fill(bestDist, 1E99);
+        Arrays.fill(paths, -1);
+
+        PriorityQueue<Integer> fringe = new PriorityQueue<>((o1, o2)
+            -> Double.compare(bestDist[o1] + g.distanceAt(o1, source),
+                bestDist[o2] + g.distanceAt(o2, source)));
+        CSRGraph.NeighborVisitor relax = (from, to, weight, edge) -> {
+            double candidate = bestDist[from] + weight;
+            if (candidate < bestDist[to]) {
+                bestDist[to] = candidate;
+                fringe.remove(to);
+                fringe.add(to);
+                paths[to] = from;
+            }
+        };
+
+        fringe.add(source);
+        visited[source] = true;
+        paths[source] = source;
+        bestDist[source] = 0.0;
+        while (!fringe.isEmpty()) {
+            int checkNode = fringe.poll();
+            while (visited[checkNode] && !fringe.isEmpty()) {
+                checkNode = fringe.poll();
+            }
+            if (checkNode == dest) {
+                break;
+            }
+            visited[checkNode] = true;
+            g.forEachNeighbor(checkNode, relax);
+        }
+        return Router.pathFinder(g, paths, source, dest);
+    }
+}
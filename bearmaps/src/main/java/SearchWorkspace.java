@@ -0,0 +1,115 @@
+import java.util.Arrays;
+
+/**
+ * The per-vertex state of a <code>Router</code> search, kept per thread and reused by every
+ * search the thread runs, so that a query allocates nothing in proportion to the graph.
+ *
+ * Instead of clearing its arrays between searches, a workspace starts a new epoch: every entry
+ * is stamped with the epoch it was written in, and an entry with an older stamp reads as unset.
+ * Starting a search therefore costs the same however many vertices the previous one touched,
+ * apart from emptying what was left in the fringes. The stamps only wrap around after two
+ * billion searches, when the arrays are cleared once.
+ *
+ * The results of a search stay valid until the same thread starts another one.
+ */
+public class SearchWorkspace {
+    private static final ThreadLocal<SearchWorkspace> WORKSPACES = new ThreadLocal<>();
+
+    /** Distance and parent of each vertex reached from the source, and from the destination. */
+    final double[] forwardDist;
+    final double[] backwardDist;
+    final int[] forwardParent;
+    final int[] backwardParent;
+    /** The heuristic's estimate or potential of each vertex, computed once per search. */
+    final double[] estimates;
+    /** Epochs in which each vertex was reached, settled, or estimated, by side. */
+    final int[] forwardReached;
+    final int[] backwardReached;
+    final int[] forwardSettled;
+    final int[] backwardSettled;
+    final int[] estimated;
+    /** Epochs in which each vertex was marked as a target of a one-to-many search. */
+    final int[] targeted;
+    final IndexedMinHeap forward;
+    final IndexedMinHeap backward;
+    /** The current search's stamp; never 0, which is what the stamp arrays start as. */
+    int epoch;
+
+    SearchWorkspace(int capacity) {
+        forwardDist = new double[capacity];
+        backwardDist = new double[capacity];
+        forwardParent = new int[capacity];
+        backwardParent = new int[capacity];
+        estimates = new double[capacity];
+        forwardReached = new int[capacity];
+        backwardReached = new int[capacity];
+        forwardSettled = new int[capacity];
+        backwardSettled = new int[capacity];
+        estimated = new int[capacity];
+        targeted = new int[capacity];
+        forward = new IndexedMinHeap(capacity);
+        backward = new IndexedMinHeap(capacity);
+    }
+
+    /**
+     * Returns the calling thread's workspace, replacing it with a larger one if it cannot hold
+     * a graph of <code>size</code> vertices, and starts a new search in it.
+     *
+     * @param size The number of vertices in the graph to search.
+     * @return The workspace, with no vertex reached.
+     */
+    static SearchWorkspace begin(int size) {
+        SearchWorkspace workspace = WORKSPACES.get();
+        if (workspace == null || workspace.forwardDist.length < size) {
+            workspace = new SearchWorkspace(size);
+            WORKSPACES.set(workspace);
+        }
+        workspace.nextEpoch();
+        return workspace;
+    }
+
+    /** Forgets the previous search. */
+    void nextEpoch() {
+        forward.clear();
+        backward.clear();
+        epoch++;
+        if (epoch == Integer.MAX_VALUE) {
+            Arrays.fill(forwardReached, 0);
+            Arrays.fill(backwardReached, 0);
+            Arrays.fill(forwardSettled, 0);
+            Arrays.fill(backwardSettled, 0);
+            Arrays.fill(estimated, 0);
+            Arrays.fill(targeted, 0);
+            epoch = 1;
+        }
+    }
+
+    /** Returns the distance from the source to <code>v</code>, or infinity if unreached. */
+    double forwardDistance(int v) {
+        return forwardReached[v] == epoch ? forwardDist[v] : Double.POSITIVE_INFINITY;
+    }
+
+    /** Returns the distance from <code>v</code> to the destination, or infinity if unreached. */
+    double backwardDistance(int v) {
+        return backwardReached[v] == epoch ? backwardDist[v] : Double.POSITIVE_INFINITY;
+    }
+
+    /** Returns the parent of <code>v</code> on the way from the source, or -1 if unreached. */
+    int forwardParent(int v) {
+        return forwardReached[v] == epoch ? forwardParent[v] : -1;
+    }
+
+    /** Sets the distance and parent of <code>v</code> on the way from the source. */
+    void reachForward(int v, double dist, int parent) {
+        forwardReached[v] = epoch;
+        forwardDist[v] = dist;
+        forwardParent[v] = parent;
+    }
+
+    /** Sets the distance and parent of <code>v</code> on the way to the destination. */
+    void reachBackward(int v, double dist, int parent) {
+        backwardReached[v] = epoch;
+        backwardDist[v] = dist;
+        backwardParent[v] = parent;
+    }
+}
@@ -0,0 +1,75 @@
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assigns a small integer code to every distinct string, so that repeated attribute values such
+ * as highway types, street names and amenities are stored once and compared as ints. Code 0 is
+ * reserved for absent values; null and the empty string both encode to it.
+ *
+ * Dictionaries are only used while building a graph. <code>freeze</code> turns one into a
+ * <code>StringTable</code> in which entry <code>i</code> is the string with code <code>i</code>.
+ */
+public class StringDictionary {
+    private final Map<String, Integer> codes = new HashMap<>();
+    private final List<String> strings = new ArrayList<>();
+
+    public StringDictionary() {
+        strings.add(null);
+    }
+
+    /**
+     * Returns the code of <code>s</code>, assigning the next free code if it is new.
+     *
+     * @param s The string to encode, or null.
+     * @return The code of the string, or 0 if it is null or empty.
+     */
+    public int code(String s) {
+        if (s == null || s.isEmpty()) {
+            return 0;
+        }
+        Integer code = codes.get(s);
+        if (code == null) {
+            code = strings.size();
+            codes.put(s, code);
+            strings.add(s);
+        }
+        return code;
+    }
+
+    /**
+     * Returns the string with code <code>code</code>.
+     *
+     * @param code A code returned by <code>code</code>.
+     * @return The string, or null for code 0.
+     */
+    public String get(int code) {
+        return strings.get(code);
+    }
+
+    /** Returns the number of codes in use, including the reserved code 0. */
+    public int size() {
+        return strings.size();
+    }
+
+    /**
+     * Adds every string of <code>other</code> to this dictionary.
+     *
+     * @param other Another dictionary.
+     * @return An array mapping each code of <code>other</code> to the code of the same string
+     *         in this dictionary.
+     */
+    int[] merge(StringDictionary other) {
+        int[] remap = new int[other.size()];
+        for (int c = 1; c < remap.length; c++) {
+            remap[c] = code(other.strings.get(c));
+        }
+        return remap;
+    }
+
+    /** Returns the strings of this dictionary as a table indexed by code. */
+    StringTable freeze() {
+        return StringTable.of(strings.toArray(new String[0]));
+    }
+}
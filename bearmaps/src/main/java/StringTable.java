@@ -0,0 +1,63 @@
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * An immutable list of strings packed into one UTF-8 byte buffer, with entry <code>i</code>
+ * stored in the bytes <code>[offsets[i], offsets[i + 1])</code>. Empty entries stand for absent
+ * values and are returned as null. The two buffers can be written to a graph snapshot and read
+ * back from a memory-mapped file without decoding anything up front.
+ */
+public class StringTable {
+    /** Start of each entry; has <code>size() + 1</code> entries. */
+    final IntBuffer offsets;
+    /** The UTF-8 bytes of every entry, back to back. */
+    final ByteBuffer bytes;
+
+    StringTable(IntBuffer offsets, ByteBuffer bytes) {
+        this.offsets = offsets;
+        this.bytes = bytes;
+    }
+
+    /**
+     * Packs <code>values</code> into a new table.
+     *
+     * @param values The strings to store; null entries are allowed.
+     * @return A new <code>StringTable</code>.
+     */
+    public static StringTable of(String[] values) {
+        byte[][] encoded = new byte[values.length][];
+        int[] offsets = new int[values.length + 1];
+        for (int i = 0; i < values.length; i++) {
+            encoded[i] = values[i] == null
+                    ? new byte[0] : values[i].getBytes(StandardCharsets.UTF_8);
+            offsets[i + 1] = offsets[i] + encoded[i].length;
+        }
+        byte[] bytes = new byte[offsets[values.length]];
+        for (int i = 0; i < values.length; i++) {
+            System.arraycopy(encoded[i], 0, bytes, offsets[i], encoded[i].length);
+        }
+        return new StringTable(IntBuffer.wrap(offsets), ByteBuffer.wrap(bytes));
+    }
+
+    public int size() {
+        return offsets.limit() - 1;
+    }
+
+    /**
+     * Returns entry <code>i</code>.
+     *
+     * @param i The index of the entry.
+     * @return The decoded string, or null if the entry is absent.
+     */
+    public String get(int i) {
+        int start = offsets.get(i);
+        int end = offsets.get(i + 1);
+        if (start == end) {
+            return null;
+        }
+        byte[] utf8 = new byte[end - start];
+        bytes.duplicate().position(start).get(utf8);
+        return new String(utf8, StandardCharsets.UTF_8);
+    }
+}
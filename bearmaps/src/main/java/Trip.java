@@ -0,0 +1,23 @@
+import java.util.List;
+
+/**
+ * A route from a first stop through several others, computed by <code>Router.trip</code>: the
+ * order it visits the stops in and the road route itself.
+ */
+public class Trip {
+    /** The indices of the stops, as given, in the order they are visited, first stop first. */
+    final int[] order;
+    /** Whether the route returns to the first stop after the last one. */
+    final boolean roundTrip;
+    /** The length of the route in miles. */
+    final double distance;
+    /** The vertex IDs of the route. */
+    final List<Long> path;
+
+    Trip(int[] order, boolean roundTrip, double distance, List<Long> path) {
+        this.order = order;
+        this.roundTrip = roundTrip;
+        this.distance = distance;
+        this.path = path;
+    }
+}
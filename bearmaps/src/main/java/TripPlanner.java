@@ -0,0 +1,172 @@
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Chooses the order in which a trip visits its stops, given the road distance between every
+ * pair of them: a travelling salesman tour if the trip returns to the first stop, or a path
+ * starting there if it does not. The first stop is always visited first.
+ *
+ * A nearest-neighbour order is improved by two kinds of move until neither finds an
+ * improvement or the time budget runs out: 2-opt, which reverses a run of stops, and Or-opt,
+ * which moves a run of one to three stops elsewhere. Each change in length is computed exactly
+ * even if the table is not symmetric, since a run of stops that is reversed is costed in the
+ * direction it will be driven.
+ */
+public class TripPlanner {
+    /** The longest run of stops that Or-opt moves. */
+    private static final int MAX_RUN = 3;
+    /** The least improvement in miles that counts, so rounding cannot cause endless moves. */
+    private static final double EPSILON = 1e-9;
+
+    /**
+     * Returns the time allowed for improving the visit order, set in milliseconds by
+     * <code>-Dbearmaps.trip.budget</code>.
+     */
+    static long budgetNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(Long.getLong("bearmaps.trip.budget", 50));
+    }
+
+    /**
+     * Returns an order in which to visit <code>n</code> stops.
+     *
+     * @param table     The distance from stop <code>i</code> to stop <code>j</code> at
+     *                  <code>i * n + j</code>, all finite.
+     * @param n         The number of stops.
+     * @param roundTrip Whether the trip returns to stop 0 after the last stop.
+     * @param deadline  The <code>System.nanoTime()</code> after which no more moves are tried.
+     * @return The stops in the order they are visited, starting with stop 0 and not repeating
+     * it at the end.
+     */
+    static int[] visitOrder(double[] table, int n, boolean roundTrip, long deadline) {
+        int[] tour = nearestNeighbor(table, n, roundTrip);
+        boolean improved = true;
+        while (improved && System.nanoTime() < deadline) {
+            improved = twoOpt(table, n, tour) || orOpt(table, n, tour);
+        }
+        return Arrays.copyOf(tour, n);
+    }
+
+    /**
+     * Returns the length of a trip.
+     *
+     * @param table     The distance table.
+     * @param n         The number of stops.
+     * @param order     The stops in the order they are visited.
+     * @param roundTrip Whether the trip returns to the first stop.
+     * @return The total distance.
+     */
+    static double length(double[] table, int n, int[] order, boolean roundTrip) {
+        double length = 0;
+        for (int i = 1; i < order.length; i++) {
+            length += table[order[i - 1] * n + order[i]];
+        }
+        if (roundTrip) {
+            length += table[order[order.length - 1] * n + order[0]];
+        }
+        return length;
+    }
+
+    /**
+     * Visits the nearest unvisited stop next, starting from stop 0. The returned tour lists
+     * the stops in order, followed by stop 0 again for a round trip; its last movable position
+     * is <code>n - 1</code> either way.
+     */
+    private static int[] nearestNeighbor(double[] table, int n, boolean roundTrip) {
+        int[] tour = new int[roundTrip ? n + 1 : n];
+        boolean[] visited = new boolean[n];
+        visited[0] = true;
+        for (int k = 1; k < n; k++) {
+            int from = tour[k - 1];
+            int nearest = -1;
+            for (int j = 0; j < n; j++) {
+                if (!visited[j]
+                        && (nearest < 0 || table[from * n + j] < table[from * n + nearest])) {
+                    nearest = j;
+                }
+            }
+            visited[nearest] = true;
+            tour[k] = nearest;
+        }
+        return tour;
+    }
+
+    /** Applies the first 2-opt move that shortens the tour, if there is one. */
+    private static boolean twoOpt(double[] table, int n, int[] tour) {
+        int m = tour.length;
+        /* Lengths of the tour's prefixes driven forward, and driven in reverse. */
+        double[] forward = new double[m];
+        double[] backward = new double[m];
+        for (int k = 1; k < m; k++) {
+            forward[k] = forward[k - 1] + table[tour[k - 1] * n + tour[k]];
+            backward[k] = backward[k - 1] + table[tour[k] * n + tour[k - 1]];
+        }
+        for (int i = 1; i < n - 1; i++) {
+            for (int j = i + 1; j < n; j++) {
+                /* Reverse tour[i..j]. */
+                double before = table[tour[i - 1] * n + tour[i]] + forward[j] - forward[i];
+                double after = table[tour[i - 1] * n + tour[j]] + backward[j] - backward[i];
+                if (j + 1 < m) {
+                    before += table[tour[j] * n + tour[j + 1]];
+                    after += table[tour[i] * n + tour[j + 1]];
+                }
+                if (after < before - EPSILON) {
+                    for (int a = i, b = j; a < b; a++, b--) {
+                        int swap = tour[a];
+                        tour[a] = tour[b];
+                        tour[b] = swap;
+                    }
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Applies the first Or-opt move that shortens the tour, if there is one. */
+    private static boolean orOpt(double[] table, int n, int[] tour) {
+        int m = tour.length;
+        for (int run = 1; run <= MAX_RUN; run++) {
+            for (int i = 1; i + run <= n; i++) {
+                /* Take tour[i..end] out from between a and b. */
+                int end = i + run - 1;
+                int a = tour[i - 1];
+                int first = tour[i];
+                int last = tour[end];
+                double saved = table[a * n + first];
+                if (end + 1 < m) {
+                    int b = tour[end + 1];
+                    saved += table[last * n + b] - table[a * n + b];
+                }
+                /* Put it back after tour[p]; only an open trip may end with it. */
+                for (int p = 0; p < n; p++) {
+                    if (p >= i - 1 && p <= end) {
+                        continue;
+                    }
+                    int c = tour[p];
+                    double added = table[c * n + first];
+                    if (p + 1 < m) {
+                        int d = tour[p + 1];
+                        added += table[last * n + d] - table[c * n + d];
+                    }
+                    if (added < saved - EPSILON) {
+                        move(tour, i, run, p);
+                        return true;
+                    }
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Moves <code>tour[i, i + run)</code> to just after the stop now at <code>p</code>. */
+    private static void move(int[] tour, int i, int run, int p) {
+        int[] moved = Arrays.copyOfRange(tour, i, i + run);
+        if (p < i) {
+            System.arraycopy(tour, p + 1, tour, p + 1 + run, i - p - 1);
+            System.arraycopy(moved, 0, tour, p + 1, run);
+        } else {
+            System.arraycopy(tour, i + run, tour, i, p - i - run + 1);
+            System.arraycopy(moved, 0, tour, p - run + 1, run);
+        }
+    }
+}
@@ -0,0 +1,47 @@
+import java.util.Map;
+
+/**
+ * The TripRequestParams contains the fields received from the browser in a trip request: the
+ * stops as <code>lon,lat</code> pairs separated by semicolons, starting point first, such as
+ * <code>stops=-122.26,37.87;-122.25,37.86;-122.24,37.88</code>, and optionally
+ * <code>roundtrip=false</code> for a trip that ends at its last stop instead of returning.
+ */
+public class TripRequestParams {
+    /** The most stops one request may ask for. */
+    public static final int MAX_STOPS = 100;
+
+    /** The stops, starting point first. */
+    public final double[] lons;
+    public final double[] lats;
+    /** Whether the trip returns to the starting point. */
+    public final boolean roundTrip;
+
+    private TripRequestParams(double[][] stops, boolean roundTrip) {
+        this.lons = stops[0];
+        this.lats = stops[1];
+        this.roundTrip = roundTrip;
+    }
+
+    /**
+     * Validate and return the fields of a trip request.
+     * @param req The queryParams map from a Spark HTTP Request.
+     * @return The parsed request.
+     */
+    public static TripRequestParams from(Map<String, String[]> req) {
+        double[][] stops = MatrixRequestParams.points(req, "stops");
+        if (stops[0].length < 2 || stops[0].length > MAX_STOPS) {
+            String msg = String.format("Request failed: a trip needs 2 to %d stops.", MAX_STOPS);
+            throw new IllegalArgumentException(msg);
+        }
+        boolean roundTrip = true;
+        if (req.containsKey("roundtrip") && req.get("roundtrip").length > 0) {
+            String value = req.get("roundtrip")[0];
+            if (!value.equals("true") && !value.equals("false")) {
+                String msg = "Incorrect parameters: roundtrip must be true or false.";
+                throw new IllegalArgumentException(msg);
+            }
+            roundTrip = Boolean.parseBoolean(value);
+        }
+        return new TripRequestParams(stops, roundTrip);
+    }
+}
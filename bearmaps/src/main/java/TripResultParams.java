@@ -0,0 +1,28 @@
+import java.util.List;
+
+/**
+ * The TripResultParams contains the trip computed by Router.trip for serialization by Gson.
+ *
+ * The fields in this class cannot be accessed as it is only used to serialize results in MapServer.
+ */
+class TripResultParams {
+    /** The indices of the requested stops in the order they are visited. */
+    private final int[] order;
+    /** Whether the trip returns to the first stop. */
+    private final boolean roundTrip;
+    /** The length of the trip in miles. */
+    private final double distance;
+    /** The vertex IDs along the whole trip. */
+    private final List<Long> route;
+
+    /**
+     * Constructs a TripResultParams from <code>trip</code>.
+     * @param trip The trip.
+     */
+    TripResultParams(Trip trip) {
+        this.order = trip.order;
+        this.roundTrip = trip.roundTrip;
+        this.distance = trip.distance;
+        this.route = trip.path;
+    }
+}
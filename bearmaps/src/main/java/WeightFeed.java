@@ -0,0 +1,195 @@
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Follows a local file of edge weight updates, such as a closure or congestion feed, and
+ * applies them to a graph's <code>WeightOverlay</code>. The file is a log that is only ever
+ * appended to; each <code>poll</code> applies the complete lines added since the last one, up
+ * to <code>MAX_READ</code> bytes of them, as a single batch. A line is one of
+ * <pre>
+ *     from-node-id to-node-id factor    slow the road segment down by a factor of at least 1
+ *     from-node-id to-node-id closed    close the road segment
+ *     from-node-id to-node-id 1         lift any adjustment of the road segment
+ *     clear                             lift every adjustment
+ * </pre>
+ * and blank lines and lines starting with <code>#</code> are ignored. Segments are named by the
+ * OSM IDs of two adjacent vertices, and an update applies to both directions of every way
+ * joining them. Lines that cannot be applied are reported and skipped. If the file shrinks, it
+ * is taken to have been replaced: every adjustment is lifted and it is read again from the
+ * start.
+ */
+public class WeightFeed {
+    /** The most bytes of the file one poll reads; a longer backlog takes several polls. */
+    static final int MAX_READ = 1 << 20;
+
+    private final GraphDB g;
+    private final Path path;
+    /** The number of bytes of the file applied so far; always the end of a line. */
+    private long offset = 0;
+    /** The number of lines read so far, for reporting bad lines. */
+    private long lineNumber = 0;
+    /** Whether the file continues a line longer than <code>MAX_READ</code>, to be skipped. */
+    private boolean skipping = false;
+
+    /**
+     * Creates a feed that applies the updates in <code>path</code> to <code>g</code>. Nothing is
+     * read until the first <code>poll</code>.
+     *
+     * @param g    The graph to update.
+     * @param path The file of updates.
+     */
+    WeightFeed(GraphDB g, Path path) {
+        this.g = g;
+        this.path = path;
+    }
+
+    /**
+     * Starts following <code>path</code> on a daemon thread, polling it every
+     * <code>periodMillis</code> milliseconds until the JVM exits. A poll that fails is reported
+     * and does not stop later ones.
+     *
+     * @param g            The graph to update.
+     * @param path         The file of updates.
+     * @param periodMillis The time between polls.
+     * @return The feed.
+     */
+    static WeightFeed start(GraphDB g, Path path, long periodMillis) {
+        WeightFeed feed = new WeightFeed(g, path);
+        ScheduledExecutorService poller = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "weight-feed");
+            t.setDaemon(true);
+            return t;
+        });
+        poller.scheduleWithFixedDelay(() -> {
+            try {
+                feed.poll();
+            } catch (IOException e) {
+                System.err.println("Unable to read weight feed " + path + ": " + e.getMessage());
+            } catch (RuntimeException e) {
+                /* Letting this escape would cancel every later poll. */
+                System.err.println("Unable to apply weight feed " + path + ": " + e);
+            }
+        }, 0, periodMillis, TimeUnit.MILLISECONDS);
+        return feed;
+    }
+
+    /**
+     * Applies the complete lines appended to the file since the last poll, up to
+     * <code>MAX_READ</code> bytes of them.
+     *
+     * @return The number of segments updated.
+     * @throws IOException If the file cannot be read.
+     */
+    synchronized int poll() throws IOException {
+        if (!Files.exists(path)) {
+            return 0;
+        }
+        /* Whether the batch replaces every adjustment rather than adding to them. */
+        boolean cleared = false;
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < offset) {
+                /* The adjustments of the old file no longer hold. */
+                offset = 0;
+                lineNumber = 0;
+                skipping = false;
+                cleared = true;
+            }
+            buffer = ByteBuffer.allocate((int) Math.min(size - offset, MAX_READ));
+            while (buffer.hasRemaining()) {
+                if (channel.read(buffer, offset + buffer.position()) < 0) {
+                    break;
+                }
+            }
+        }
+        byte[] bytes = buffer.array();
+        int start = 0;
+        if (skipping) {
+            while (start < buffer.position() && bytes[start] != '\n') {
+                start++;
+            }
+            if (start < buffer.position()) {
+                start++;
+                skipping = false;
+            }
+        }
+        /* A line still being written is left for the next poll. */
+        int end = buffer.position();
+        while (end > start && bytes[end - 1] != '\n') {
+            end--;
+        }
+        if (end == 0 && buffer.position() == MAX_READ) {
+            lineNumber++;
+            System.err.println("Ignoring line " + lineNumber + " of weight feed " + path
+                    + ": longer than " + MAX_READ + " bytes");
+            skipping = true;
+        }
+        offset += skipping ? buffer.position() : end;
+
+        int[] edges = new int[16];
+        float[] factors = new float[16];
+        int count = 0;
+        int updated = 0;
+        String text = skipping ? "" : new String(bytes, start, end - start, StandardCharsets.UTF_8);
+        for (String line : text.isEmpty() ? new String[0] : text.split("\n")) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            if (line.equals("clear")) {
+                cleared = true;
+                count = 0;
+                updated = 0;
+                continue;
+            }
+            String[] fields = line.split("\\s+");
+            try {
+                if (fields.length != 3) {
+                    throw new IllegalArgumentException("expected 3 fields");
+                }
+                int from = g.indexOf(Long.parseLong(fields[0]));
+                int to = g.indexOf(Long.parseLong(fields[1]));
+                int[] segment = from < 0 || to < 0 ? new int[0] : g.edgeIndices(from, to);
+                if (segment.length == 0) {
+                    throw new IllegalArgumentException("no such road segment");
+                }
+                float factor = fields[2].equals("closed") ? Float.POSITIVE_INFINITY
+                        : Float.parseFloat(fields[2]);
+                if (!(factor >= 1)) {
+                    throw new IllegalArgumentException("factor below 1");
+                }
+                for (int edge : segment) {
+                    if (count == edges.length) {
+                        edges = Arrays.copyOf(edges, count * 2);
+                        factors = Arrays.copyOf(factors, count * 2);
+                    }
+                    edges[count] = edge;
+                    factors[count++] = factor;
+                }
+                updated++;
+            } catch (IllegalArgumentException e) {
+                System.err.println("Ignoring line " + lineNumber + " of weight feed " + path
+                        + ": " + e.getMessage());
+            }
+        }
+        edges = Arrays.copyOf(edges, count);
+        factors = Arrays.copyOf(factors, count);
+        if (cleared) {
+            g.replaceWeights(edges, factors);
+        } else {
+            g.updateWeights(edges, factors);
+        }
+        return updated;
+    }
+}
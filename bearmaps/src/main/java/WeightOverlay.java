@@ -0,0 +1,138 @@
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Live adjustments to the edge weights of a <code>GraphDB</code>, such as closures and
+ * congestion, keyed by edge index. Each adjusted edge has a factor its weight is multiplied by
+ * in every <code>Profile</code>: at least 1, or infinity for a closed edge. Factors never
+ * shorten an edge, so every heuristic stays admissible.
+ *
+ * An overlay is immutable. Updating one returns a new overlay, which the graph swaps in
+ * atomically, so a search that picked up an overlay keeps seeing exactly that one however many
+ * updates land while it runs. An update costs time in the number of adjusted edges, not in the
+ * size of the graph. The reweighted adjacency of each profile is only built, once per overlay,
+ * when a search first asks for it; searches then read weights straight from it with no lookup
+ * per edge.
+ */
+public class WeightOverlay {
+    /** The overlay that adjusts nothing. */
+    static final WeightOverlay EMPTY = new WeightOverlay(new int[0], new float[0]);
+
+    /** The adjusted edges, in increasing order. */
+    private final int[] edges;
+    /** The factor of each adjusted edge. */
+    private final float[] factors;
+    /** The adjacency of each profile with the factors applied, by ordinal, built on demand. */
+    private final AtomicReferenceArray<CSRGraph> adjacencies =
+            new AtomicReferenceArray<>(Profile.values().length);
+
+    private WeightOverlay(int[] edges, float[] factors) {
+        this.edges = edges;
+        this.factors = factors;
+    }
+
+    /** Returns whether this overlay adjusts no edge. */
+    boolean isEmpty() {
+        return edges.length == 0;
+    }
+
+    /** Returns the number of adjusted edges. */
+    int size() {
+        return edges.length;
+    }
+
+    /**
+     * Returns the factor <code>edge</code>'s weight is multiplied by.
+     *
+     * @param edge The index of an edge.
+     * @return The factor, 1 if the edge is not adjusted.
+     */
+    float factor(int edge) {
+        int i = Arrays.binarySearch(edges, edge);
+        return i < 0 ? 1 : factors[i];
+    }
+
+    /**
+     * Returns this overlay with a batch of updates applied. A factor of 1 removes an edge's
+     * adjustment; if an edge appears more than once, its last factor wins.
+     *
+     * @param updated The edges to adjust.
+     * @param factor  The new factor of each edge: at least 1, or infinity to close it.
+     * @return The new overlay; this one is unchanged.
+     * @throws IllegalArgumentException If the arrays differ in length or a factor is below 1.
+     */
+    WeightOverlay with(int[] updated, float[] factor) {
+        if (updated.length != factor.length) {
+            throw new IllegalArgumentException(updated.length + " edges but " + factor.length
+                    + " factors");
+        }
+        if (updated.length == 0) {
+            return this;
+        }
+        /* Sort the batch by edge, and by position among updates to the same edge. */
+        long[] order = new long[updated.length];
+        for (int i = 0; i < updated.length; i++) {
+            if (updated[i] < 0 || !(factor[i] >= 1)) {
+                throw new IllegalArgumentException("Invalid update of edge " + updated[i]
+                        + " by factor " + factor[i]);
+            }
+            order[i] = (long) updated[i] << 32 | i;
+        }
+        Arrays.sort(order);
+
+        int[] mergedEdges = new int[edges.length + order.length];
+        float[] mergedFactors = new float[mergedEdges.length];
+        int count = 0;
+        int i = 0;
+        int u = 0;
+        while (i < edges.length || u < order.length) {
+            int next = u < order.length ? (int) (order[u] >>> 32) : Integer.MAX_VALUE;
+            if (i < edges.length && edges[i] < next) {
+                mergedEdges[count] = edges[i];
+                mergedFactors[count++] = factors[i++];
+                continue;
+            }
+            /* Skip to the last update of this edge; it replaces any existing factor. */
+            while (u + 1 < order.length && (int) (order[u + 1] >>> 32) == next) {
+                u++;
+            }
+            float f = factor[(int) order[u++]];
+            if (i < edges.length && edges[i] == next) {
+                i++;
+            }
+            if (f != 1) {
+                mergedEdges[count] = next;
+                mergedFactors[count++] = f;
+            }
+        }
+        return new WeightOverlay(Arrays.copyOf(mergedEdges, count),
+                Arrays.copyOf(mergedFactors, count));
+    }
+
+    /**
+     * Returns <code>base</code>, the adjacency of <code>profile</code>, with this overlay's
+     * factors applied. It is built on the first call for each profile and shared after that.
+     *
+     * @param base    The profile's adjacency without adjustments.
+     * @param profile The profile <code>base</code> belongs to.
+     * @return The adjusted adjacency.
+     */
+    CSRGraph adjacency(CSRGraph base, Profile profile) {
+        CSRGraph adjusted = adjacencies.get(profile.ordinal());
+        if (adjusted == null) {
+            float[] weights = new float[base.numEdges()];
+            base.weights.duplicate().get(weights);
+            for (int i = 0; i < edges.length; i++) {
+                /* Closing an edge of length 0 must give infinity, not NaN. */
+                weights[edges[i]] = factors[i] == Float.POSITIVE_INFINITY
+                        ? Float.POSITIVE_INFINITY : weights[edges[i]] * factors[i];
+            }
+            adjusted = base.withWeights(FloatBuffer.wrap(weights));
+            if (!adjacencies.compareAndSet(profile.ordinal(), null, adjusted)) {
+                adjusted = adjacencies.get(profile.ordinal());
+            }
+        }
+        return adjusted;
+    }
+}
@@ -0,0 +1,38 @@
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Builds graphs for tests from small OSM documents written inline in the test.
+ */
+public class OsmFixtures {
+    private OsmFixtures() {
+    }
+
+    /**
+     * Returns the graph of an OSM XML document. The document is written to a temporary file
+     * that is deleted once the graph is built, and the graph is built without the
+     * <code>GraphCache</code>, which would otherwise keep an entry for that file forever.
+     *
+     * @param osm The OSM XML document.
+     * @return The graph.
+     * @throws IOException If the temporary file cannot be written.
+     */
+    static GraphDB fromXml(String osm) throws IOException {
+        Path file = Files.createTempFile("fixture", ".osm.xml");
+        String cache = System.getProperty("bearmaps.cache");
+        System.setProperty("bearmaps.cache", "false");
+        try {
+            Files.write(file, osm.getBytes(StandardCharsets.UTF_8));
+            return new GraphDB(file.toString());
+        } finally {
+            if (cache == null) {
+                System.clearProperty("bearmaps.cache");
+            } else {
+                System.setProperty("bearmaps.cache", cache);
+            }
+            Files.delete(file);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that <code>Router.alternatives</code> returns the shortest route first, followed by
+ * distinct, loop-free alternatives within the stretch factor.
+ */
+public class TestAlternatives {
+    private static final String OSM_DB_PATH_SMALL = "berkeley-2018-small.osm.xml";
+    /**
+     * Three roads between vertices 1 and 4: a short one through 2, a slightly longer one through
+     * 31, 32 and 33, and a far longer one through 5.
+     */
+    private static final String THREE_ROADS = "<osm>"
+            + "<node id=\"1\" lat=\"37.870\" lon=\"-122.260\"/>"
+            + "<node id=\"2\" lat=\"37.872\" lon=\"-122.250\"/>"
+            + "<node id=\"31\" lat=\"37.866\" lon=\"-122.255\"/>"
+            + "<node id=\"32\" lat=\"37.866\" lon=\"-122.250\"/>"
+            + "<node id=\"33\" lat=\"37.866\" lon=\"-122.245\"/>"
+            + "<node id=\"4\" lat=\"37.870\" lon=\"-122.240\"/>"
+            + "<node id=\"5\" lat=\"37.900\" lon=\"-122.250\"/>"
+            + "<way id=\"10\"><nd ref=\"1\"/><nd ref=\"2\"/><nd ref=\"4\"/>"
+            + "<tag k=\"highway\" v=\"residential\"/></way>"
+            + "<way id=\"11\"><nd ref=\"1\"/><nd ref=\"31\"/><nd ref=\"32\"/><nd ref=\"33\"/>"
+            + "<nd ref=\"4\"/><tag k=\"highway\" v=\"residential\"/></way>"
+            + "<way id=\"12\"><nd ref=\"1\"/><nd ref=\"5\"/><nd ref=\"4\"/>"
+            + "<tag k=\"highway\" v=\"residential\"/></way></osm>";
+
+    @Test
+    public void testThreeRoads() throws IOException {
+        GraphDB graph = OsmFixtures.fromXml(THREE_ROADS);
+        for (Heuristic heuristic : new Heuristic[] {Heuristic.NONE, Heuristic.greatCircle(graph)}) {
+            List<List<Long>> routes = Router.alternatives(graph, -122.26, 37.87, -122.24, 37.87,
+                    3, 1.5, heuristic, null);
+            assertEquals(Arrays.asList(Arrays.asList(1L, 2L, 4L),
+                    Arrays.asList(1L, 31L, 32L, 33L, 4L)), routes);
+            assertEquals(1, Router.alternatives(graph, -122.26, 37.87, -122.24, 37.87, 1, 1.5,
+                    heuristic, null).size());
+        }
+    }
+
+    @Test
+    public void testWithinStretch() {
+        GraphDB graph = new GraphDB(OSM_DB_PATH_SMALL);
+        double stretch = 1.3;
+        for (int s = 0; s < graph.size(); s++) {
+            for (int t = 0; t < graph.size(); t++) {
+                Router.SearchStats stats = new Router.SearchStats();
+                List<List<Long>> routes = Router.alternatives(graph, s, t, 3, stretch,
+                        Heuristic.greatCircle(graph), stats);
+                List<Long> shortest = Router.shortestPath(graph, s, t);
+                assertEquals(length(graph, shortest), stats.distance, 1e-9);
+                assertEquals(length(graph, shortest), length(graph, routes.get(0)), 1e-9);
+                assertTrue(routes.size() <= 3);
+                for (List<Long> route : routes) {
+                    assertEquals(graph.id(s), (long) route.get(0));
+                    assertEquals(graph.id(t), (long) route.get(route.size() - 1));
+                    assertEquals(route.size(), new HashSet<>(route).size());
+                    assertTrue(length(graph, route) <= stretch * stats.distance + 1e-9);
+                }
+                assertEquals(routes.size(), new HashSet<>(routes).size());
+            }
+        }
+        try {
+            Router.alternatives(graph, 0, 1, 3, 0.9, Heuristic.NONE, new Router.SearchStats());
+            fail("Expected a stretch below 1 to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    private static double length(GraphDB graph, List<Long> route) {
+        double length = 0;
+        for (int i = 1; i < route.size(); i++) {
+            length += graph.distance(route.get(i - 1), route.get(i));
+        }
+        return length;
+    }
+}
@@ -0,0 +1,72 @@
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that <code>Router.shortestPaths</code> returns the same routes as one
+ * <code>shortestPath</code> call per request, in order, and that <code>BatchRouter</code> reads
+ * request files.
+ */
+public class TestBatchRouting {
+    private static final String OSM_DB_PATH_SMALL = "berkeley-2018-small.osm.xml";
+    private static final String PARAMS_FILE = "path_params.txt";
+
+    @Test
+    public void testMatchesSequential() {
+        GraphDB graph = new GraphDB(OSM_DB_PATH_SMALL);
+        Random random = new Random(20);
+        List<RouteRequestParams> requests = new ArrayList<>();
+        for (int i = 0; i < 500; i++) {
+            int s = random.nextInt(graph.size());
+            int t = random.nextInt(graph.size());
+            requests.add(new RouteRequestParams.Builder().setStartLon(graph.lonAt(s))
+                    .setStartLat(graph.latAt(s)).setEndLon(graph.lonAt(t))
+                    .setEndLat(graph.latAt(t)).create());
+        }
+        for (int threads : new int[] {1, 4}) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            List<List<Long>> paths = Router.shortestPaths(graph, requests, pool);
+            pool.shutdown();
+            assertEquals(requests.size(), paths.size());
+            for (int i = 0; i < requests.size(); i++) {
+                RouteRequestParams r = requests.get(i);
+                assertEquals(Router.shortestPath(graph, r.startLon, r.startLat, r.endLon,
+                        r.endLat), paths.get(i));
+            }
+        }
+        assertEquals(0, Router.shortestPaths(graph, new ArrayList<>()).size());
+    }
+
+    @Test
+    public void testReadRequests() throws IOException {
+        List<RouteRequestParams> requests;
+        try (BufferedReader in = Files.newBufferedReader(Paths.get(PARAMS_FILE),
+                StandardCharsets.UTF_8)) {
+            requests = BatchRouter.readRequests(in);
+        }
+        assertEquals(8, requests.size());
+        assertEquals(-122.23354274523257, requests.get(0).startLon, 0.0);
+        assertEquals(37.87383979834944, requests.get(0).startLat, 0.0);
+        assertEquals(-122.23307272570244, requests.get(0).endLon, 0.0);
+        assertEquals(37.86020837234193, requests.get(0).endLat, 0.0);
+
+        try {
+            BatchRouter.readRequests(new BufferedReader(new StringReader("# one\n1\n2\n3\n")));
+            fail("Expected an incomplete request to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
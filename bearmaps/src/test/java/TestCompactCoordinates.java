@@ -0,0 +1,64 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Checks that a graph built with <code>-Dbearmaps.compactCoordinates=true</code>, which stores
+ * vertex coordinates as fixed-point ints, answers every query exactly like the regular graph,
+ * both when built from XML and when reopened from a snapshot.
+ */
+public class TestCompactCoordinates {
+    private static final String OSM_DB_PATH_SMALL = "berkeley-2018-small.osm.xml";
+    private GraphDB regular;
+    private GraphDB compact;
+    private GraphDB mapped;
+
+    @Before
+    public void setUp() throws Exception {
+        regular = new GraphDB(OSM_DB_PATH_SMALL);
+        System.setProperty("bearmaps.compactCoordinates", "true");
+        try {
+            compact = new GraphDB(OSM_DB_PATH_SMALL);
+        } finally {
+            System.clearProperty("bearmaps.compactCoordinates");
+        }
+        Path snapshot = Files.createTempFile("bearmaps", ".bmg");
+        snapshot.toFile().deleteOnExit();
+        compact.writeSnapshot(snapshot);
+        mapped = new GraphDB(snapshot.toString());
+    }
+
+    @Test
+    public void testCoordinatesAreExact() {
+        for (long v : regular.vertices()) {
+            assertEquals(regular.lon(v), compact.lon(v), 0.0);
+            assertEquals(regular.lat(v), compact.lat(v), 0.0);
+            assertEquals(regular.lon(v), mapped.lon(v), 0.0);
+            assertEquals(regular.lat(v), mapped.lat(v), 0.0);
+        }
+    }
+
+    @Test
+    public void testClosestAndRoutes() {
+        double minLon = -122.2550, maxLon = -122.2510;
+        double minLat = 37.8670, maxLat = 37.8700;
+        int steps = 8;
+        for (int i = 0; i <= steps; i++) {
+            for (int j = 0; j <= steps; j++) {
+                double lon = minLon + (maxLon - minLon) * i / steps;
+                double lat = minLat + (maxLat - minLat) * j / steps;
+                long expected = regular.closest(lon, lat);
+                assertEquals(expected, compact.closest(lon, lat));
+                assertEquals(expected, mapped.closest(lon, lat));
+                assertEquals(Router.shortestPath(regular, lon, lat, minLon, maxLat),
+                        Router.shortestPath(compact, lon, lat, minLon, maxLat));
+                assertEquals(Router.shortestPath(regular, lon, lat, maxLon, minLat),
+                        Router.shortestPath(mapped, lon, lat, maxLon, minLat));
+            }
+        }
+    }
+}
@@ -0,0 +1,94 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that <code>ConnectedComponents</code> labels components the way a breadth-first search
+ * does on any number of threads, that routes between components are rejected without
+ * searching, and that endpoints can be snapped to the largest component.
+ */
+public class TestComponents {
+    private static final String OSM_DB_PATH_SMALL = "berkeley-2018-small.osm.xml";
+    /** A road from 1 through 2 and 3 to 4, and a parking-lot fragment of 5 and 6 beside 1. */
+    private static final String ISLAND = "<osm>"
+            + "<node id=\"1\" lat=\"37.870\" lon=\"-122.260\"/>"
+            + "<node id=\"2\" lat=\"37.870\" lon=\"-122.255\"/>"
+            + "<node id=\"3\" lat=\"37.870\" lon=\"-122.250\"/>"
+            + "<node id=\"4\" lat=\"37.870\" lon=\"-122.245\"/>"
+            + "<node id=\"5\" lat=\"37.869\" lon=\"-122.260\"/>"
+            + "<node id=\"6\" lat=\"37.868\" lon=\"-122.260\"/>"
+            + "<way id=\"10\"><nd ref=\"1\"/><nd ref=\"2\"/><nd ref=\"3\"/><nd ref=\"4\"/>"
+            + "<tag k=\"highway\" v=\"residential\"/></way>"
+            + "<way id=\"11\"><nd ref=\"5\"/><nd ref=\"6\"/>"
+            + "<tag k=\"highway\" v=\"residential\"/></way></osm>";
+
+    @Test
+    public void testMatchesBreadthFirst() {
+        GraphDB graph = new GraphDB(OSM_DB_PATH_SMALL);
+        CSRGraph adjacency = graph.adjacency();
+        int[] expected = new int[graph.size()];
+        Arrays.fill(expected, -1);
+        for (int start = 0; start < graph.size(); start++) {
+            if (expected[start] >= 0) {
+                continue;
+            }
+            Deque<Integer> queue = new ArrayDeque<>(Collections.singleton(start));
+            expected[start] = start;
+            while (!queue.isEmpty()) {
+                int v = queue.poll();
+                for (int e = adjacency.firstEdge(v); e < adjacency.endEdge(v); e++) {
+                    if (expected[adjacency.target(e)] < 0) {
+                        expected[adjacency.target(e)] = start;
+                        queue.add(adjacency.target(e));
+                    }
+                }
+            }
+        }
+        for (int threads : new int[] {1, 3, 8}) {
+            assertArrayEquals(expected, ConnectedComponents.label(adjacency, threads));
+        }
+        for (int v = 0; v < graph.size(); v++) {
+            assertEquals(expected[v], graph.component(v));
+        }
+    }
+
+    @Test
+    public void testIsland() throws IOException {
+        GraphDB graph = OsmFixtures.fromXml(ISLAND);
+        int road = graph.indexOf(1);
+        int lot = graph.indexOf(6);
+        assertEquals(road, graph.largestComponent());
+        assertEquals(graph.indexOf(5), graph.component(lot));
+        assertNotEquals(graph.component(road), graph.component(lot));
+
+        assertEquals(Collections.emptyList(), Router.shortestPath(graph, lot, road));
+        Router.SearchStats stats = new Router.SearchStats();
+        assertTrue(Router.alternatives(graph, lot, road, 2, 1.5, Heuristic.NONE, stats)
+                .isEmpty());
+        double[] matrix = Router.distanceMatrix(graph, new int[] {lot, road},
+                new int[] {graph.indexOf(4), graph.indexOf(5)}, ForkJoinPool.commonPool());
+        assertEquals(Double.POSITIVE_INFINITY, matrix[0], 0.0);
+        assertEquals(Double.POSITIVE_INFINITY, matrix[3], 0.0);
+
+        /* A click on the lot snaps to it, unless endpoints must be in the largest component. */
+        assertEquals(lot, graph.routingIndex(-122.260, 37.868));
+        System.setProperty("bearmaps.router.snapToLargest", "true");
+        try {
+            assertEquals(road, graph.routingIndex(-122.260, 37.868));
+            assertEquals(Arrays.asList(1L, 2L, 3L, 4L),
+                    Router.shortestPath(graph, -122.260, 37.868, -122.245, 37.870));
+        } finally {
+            System.clearProperty("bearmaps.router.snapToLargest");
+        }
+    }
+}
@@ -0,0 +1,73 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that routes through a <code>ContractionHierarchy</code> are exactly the routes Dijkstra
+ * finds, whether the hierarchy was contracted on one thread or several, and that a written
+ * hierarchy loads back only against its own graph.
+ */
+public class TestContractionHierarchy {
+    private static final String OSM_DB_PATH_SMALL = "berkeley-2018-small.osm.xml";
+    private static final String TRIANGLE = "<osm>"
+            + "<node id=\"1\" lat=\"37.87\" lon=\"-122.26\"/>"
+            + "<node id=\"2\" lat=\"37.87\" lon=\"-122.25\"/>"
+            + "<node id=\"3\" lat=\"37.88\" lon=\"-122.25\"/>"
+            + "<way id=\"10\"><nd ref=\"1\"/><nd ref=\"2\"/><nd ref=\"3\"/><nd ref=\"1\"/>"
+            + "<tag k=\"highway\" v=\"residential\"/></way></osm>";
+
+    @Test
+    public void testMatchesDijkstra() {
+        GraphDB graph = new GraphDB(OSM_DB_PATH_SMALL);
+        for (int threads : new int[] {1, 4}) {
+            assertMatchesDijkstra(graph, ContractionHierarchy.build(graph, threads));
+        }
+    }
+
+    @Test
+    public void testWriteAndLoad() throws IOException {
+        GraphDB graph = new GraphDB(OSM_DB_PATH_SMALL);
+        Path file = Files.createTempFile("bearmaps", ".ch");
+        file.toFile().deleteOnExit();
+        ContractionHierarchy.build(graph, 2).write(file);
+        assertMatchesDijkstra(graph, ContractionHierarchy.load(graph, file));
+
+        GraphDB other = OsmFixtures.fromXml(TRIANGLE);
+        assertEquals(3, other.size());
+        try {
+            ContractionHierarchy.load(other, file);
+            fail("Loaded a hierarchy built for a different graph");
+        } catch (IOException expected) {
+            assertTrue(expected.getMessage().contains("different graph"));
+        }
+        assertMatchesDijkstra(other, ContractionHierarchy.build(other, 1));
+    }
+
+    private static void assertMatchesDijkstra(GraphDB graph, ContractionHierarchy ch) {
+        for (int s = 0; s < graph.size(); s++) {
+            for (int t = 0; t < graph.size(); t++) {
+                Router.SearchStats dijkstra = new Router.SearchStats();
+                Router.SearchStats contracted = new Router.SearchStats();
+                SearchWorkspace parents = Router.search(graph, s, t, Heuristic.NONE, dijkstra);
+                assertEquals(Router.pathFinder(graph, parents, s, t),
+                        ch.shortestPath(s, t, contracted));
+                assertEquals(dijkstra.distance, contracted.distance, 1e-9);
+            }
+        }
+        int[] all = new int[graph.size()];
+        for (int v = 0; v < all.length; v++) {
+            all[v] = v;
+        }
+        int[] some = {all.length - 1, 0, all.length / 2, 0};
+        assertArrayEquals(Router.distanceMatrix(graph, all, some, ForkJoinPool.commonPool()),
+                ch.distanceTable(all, some), 1e-9);
+    }
+}
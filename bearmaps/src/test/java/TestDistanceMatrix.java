@@ -0,0 +1,91 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that <code>Router.distanceMatrix</code> agrees with point-to-point searches and that
+ * matrix requests are parsed and validated.
+ */
+public class TestDistanceMatrix {
+    private static final String OSM_DB_PATH_SMALL = "berkeley-2018-small.osm.xml";
+    private GraphDB graph;
+
+    @Before
+    public void setUp() {
+        graph = new GraphDB(OSM_DB_PATH_SMALL);
+    }
+
+    @Test
+    public void testMatchesPointToPoint() {
+        int n = graph.size();
+        int[] sources = new int[n];
+        for (int s = 0; s < n; s++) {
+            sources[s] = s;
+        }
+        /* Repeated targets must not stop a search before the others are settled. */
+        int[] targets = {n - 1, 0, n / 2, 0, n - 1};
+        for (int threads : new int[] {1, 3}) {
+            ForkJoinPool pool = new ForkJoinPool(threads);
+            double[] matrix = Router.distanceMatrix(graph, sources, targets, pool);
+            pool.shutdown();
+            assertEquals(n * targets.length, matrix.length);
+            for (int s = 0; s < n; s++) {
+                for (int j = 0; j < targets.length; j++) {
+                    Router.SearchStats stats = new Router.SearchStats();
+                    Router.search(graph, s, targets[j], Heuristic.NONE, stats);
+                    assertEquals(stats.distance, matrix[s * targets.length + j], 1e-12);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSnapsPoints() {
+        double[] lons = {-122.25207, -122.2533957};
+        double[] lats = {37.8680554, 37.8684518};
+        double[] matrix = Router.distanceMatrix(graph, lons, lats, lons, lats);
+        int[] snapped = graph.closestIndices(lons, lats);
+        assertArrayEquals(new double[] {0, matrix[1], matrix[2], 0}, matrix, 0.0);
+        assertEquals(matrix[1], matrix[2], 1e-12);
+        assertEquals(Router.distanceMatrix(graph, snapped, snapped,
+                ForkJoinPool.commonPool())[1], matrix[1], 0.0);
+    }
+
+    @Test
+    public void testRequestParams() {
+        Map<String, String[]> req = new HashMap<>();
+        req.put("sources", new String[] {"-122.25207,37.8680554;-122.2533957, 37.8684518"});
+        req.put("targets", new String[] {"-122.25,37.87"});
+        MatrixRequestParams params = MatrixRequestParams.from(req);
+        assertArrayEquals(new double[] {-122.25207, -122.2533957}, params.sourceLons, 0.0);
+        assertArrayEquals(new double[] {37.8680554, 37.8684518}, params.sourceLats, 0.0);
+        assertArrayEquals(new double[] {37.87}, params.targetLats, 0.0);
+
+        req.put("targets", new String[] {"-122.25;37.87"});
+        assertRejected(req);
+        req.remove("targets");
+        assertRejected(req);
+        StringBuilder many = new StringBuilder("-122.25,37.87");
+        for (int i = 0; i < MatrixRequestParams.MAX_POINTS; i++) {
+            many.append(";-122.25,37.87");
+        }
+        req.put("targets", new String[] {many.toString()});
+        assertRejected(req);
+    }
+
+    private static void assertRejected(Map<String, String[]> req) {
+        try {
+            MatrixRequestParams.from(req);
+            fail("Accepted " + req.keySet());
+        } catch (IllegalArgumentException expected) {
+            /* Reported to the browser as a failed request. */
+        }
+    }
+}
@@ -0,0 +1,117 @@
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that <code>GraphCache</code> reuses compiled graphs for unchanged sources and never
+ * serves an entry for a changed source or a damaged file, and that sources of the same name in
+ * different directories keep their own entries.
+ */
+public class TestGraphCache {
+    private static final String OSM_DB_PATH_SMALL = "berkeley-2018-small.osm.xml";
+    private Path cacheDir;
+    private Path source;
+    /** The cache directory the build configured, put back after each test. */
+    private String configuredDir;
+
+    @Before
+    public void setUp() throws Exception {
+        cacheDir = Files.createTempDirectory("bearmaps-cache");
+        configuredDir = System.getProperty("bearmaps.cache.dir");
+        System.setProperty("bearmaps.cache.dir", cacheDir.toString());
+        source = cacheDir.resolve("small.osm.xml");
+        Files.copy(Paths.get(OSM_DB_PATH_SMALL), source, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (configuredDir == null) {
+            System.clearProperty("bearmaps.cache.dir");
+        } else {
+            System.setProperty("bearmaps.cache.dir", configuredDir);
+        }
+        for (File f : cacheDir.toFile().listFiles()) {
+            f.delete();
+        }
+        Files.deleteIfExists(cacheDir);
+    }
+
+    @Test
+    public void testBuildPopulatesCache() {
+        GraphCache cache = GraphCache.forSource(source);
+        assertNotNull(cache);
+        assertNull(cache.lookup());
+
+        GraphDB built = new GraphDB(source.toString());
+        assertTrue(Files.isRegularFile(cache.entry()));
+        assertNotNull(cache.lookup());
+
+        GraphDB cached = new GraphDB(source.toString());
+        assertEquals(built.size(), cached.size());
+        long v = 4333613088L;
+        assertEquals(built.lon(v), cached.lon(v), 0.0);
+        assertEquals(built.closest(-122.25207, 37.8680554),
+                cached.closest(-122.25207, 37.8680554));
+    }
+
+    @Test
+    public void testChangedSourceMissesCache() throws Exception {
+        new GraphDB(source.toString());
+        Path before = GraphCache.forSource(source).entry();
+        Files.setLastModifiedTime(source,
+                FileTime.fromMillis(Files.getLastModifiedTime(source).toMillis() + 1000));
+        GraphCache after = GraphCache.forSource(source);
+        assertNotEquals(before, after.entry());
+        assertNull(after.lookup());
+
+        new GraphDB(source.toString());
+        assertTrue(Files.isRegularFile(after.entry()));
+        assertTrue("Entries for the old source should be removed", Files.notExists(before));
+    }
+
+    @Test
+    public void testSameNameInOtherDirectory() throws Exception {
+        Path otherDir = Files.createTempDirectory("bearmaps-source");
+        Path other = otherDir.resolve(source.getFileName());
+        Files.copy(Paths.get(OSM_DB_PATH_SMALL), other);
+        try {
+            new GraphDB(source.toString());
+            new GraphDB(other.toString());
+            assertNotEquals(GraphCache.forSource(source).entry(),
+                    GraphCache.forSource(other).entry());
+            assertNotNull(GraphCache.forSource(source).lookup());
+            assertNotNull(GraphCache.forSource(other).lookup());
+        } finally {
+            Files.delete(other);
+            Files.delete(otherDir);
+        }
+    }
+
+    @Test
+    public void testCorruptEntryIsRebuilt() throws Exception {
+        GraphDB built = new GraphDB(source.toString());
+        GraphCache cache = GraphCache.forSource(source);
+        try (RandomAccessFile file = new RandomAccessFile(cache.entry().toFile(), "rw")) {
+            file.setLength(file.length() / 2);
+        }
+        assertNull(cache.lookup());
+
+        GraphDB rebuilt = new GraphDB(source.toString());
+        assertEquals(built.size(), rebuilt.size());
+        assertNotNull(cache.lookup());
+    }
+}
@@ -0,0 +1,105 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that a graph written with <code>GraphDB.writeSnapshot</code> and reopened from the
+ * memory-mapped file answers every query exactly like the graph built from XML.
+ */
+public class TestGraphSnapshot {
+    private static final String OSM_DB_PATH_SMALL = "berkeley-2018-small.osm.xml";
+    private GraphDB parsed;
+    private GraphDB mapped;
+    private Path snapshot;
+
+    @Before
+    public void setUp() throws Exception {
+        parsed = new GraphDB(OSM_DB_PATH_SMALL);
+        snapshot = Files.createTempFile("bearmaps", ".bmg");
+        snapshot.toFile().deleteOnExit();
+        parsed.writeSnapshot(snapshot);
+        mapped = new GraphDB(snapshot.toString());
+    }
+
+    @Test
+    public void testDetectsSnapshot() {
+        assertTrue(GraphSnapshot.isSnapshot(snapshot));
+        assertFalse(GraphSnapshot.isSnapshot(Paths.get(OSM_DB_PATH_SMALL)));
+    }
+
+    @Test
+    public void testVerticesAndCoordinates() {
+        List<Long> expected = new ArrayList<>();
+        List<Long> actual = new ArrayList<>();
+        parsed.vertices().forEach(expected::add);
+        mapped.vertices().forEach(actual::add);
+        assertEquals(expected, actual);
+        for (long v : expected) {
+            assertEquals(parsed.lon(v), mapped.lon(v), 0.0);
+            assertEquals(parsed.lat(v), mapped.lat(v), 0.0);
+        }
+        for (int v = 0; v < parsed.size(); v++) {
+            assertEquals(parsed.component(v), mapped.component(v));
+        }
+        assertEquals(parsed.largestComponent(), mapped.largestComponent());
+    }
+
+    @Test
+    public void testAdjacency() {
+        for (long v : parsed.vertices()) {
+            HashSet<Long> expected = new HashSet<>();
+            HashSet<Long> actual = new HashSet<>();
+            parsed.adjacent(v).forEach(expected::add);
+            mapped.adjacent(v).forEach(actual::add);
+            assertEquals(expected, actual);
+        }
+        int edges = parsed.adjacency().numEdges();
+        assertEquals(edges, mapped.adjacency().numEdges());
+        for (int e = 0; e < edges; e++) {
+            assertEquals(parsed.wayId(e), mapped.wayId(e));
+            assertEquals(parsed.wayName(e), mapped.wayName(e));
+            assertEquals(parsed.wayType(e), mapped.wayType(e));
+            for (Profile profile : Profile.values()) {
+                assertEquals(parsed.adjacency(profile).weight(e),
+                        mapped.adjacency(profile).weight(e), 0.0f);
+            }
+        }
+    }
+
+    @Test
+    public void testLocations() {
+        assertEquals(parsed.getLocationsByPrefix("p"), mapped.getLocationsByPrefix("p"));
+        assertEquals(List.of("The Wright Institute"), mapped.getLocationsByPrefix("the w"));
+        List<LocationParams> expected = parsed.getLocations("the wright institute");
+        List<LocationParams> actual = mapped.getLocations("The Wright Institute!");
+        assertEquals(1, actual.size());
+        assertEquals(358858264L, actual.get(0).id);
+        assertEquals("The Wright Institute", actual.get(0).name);
+        assertEquals(expected.get(0).lat, actual.get(0).lat, 0.0);
+        assertEquals(expected.get(0).lon, actual.get(0).lon, 0.0);
+    }
+
+    @Test
+    public void testClosestAndRoutes() {
+        double[][] queries = {
+            {-122.25207, 37.8680554, -122.2533957, 37.8684518},
+            {-122.2521, 37.8689, -122.2539, 37.8681},
+            {-122.2530, 37.8685, -122.2520, 37.8682},
+        };
+        for (double[] q : queries) {
+            assertEquals(parsed.closest(q[0], q[1]), mapped.closest(q[0], q[1]));
+            assertEquals(Router.shortestPath(parsed, q[0], q[1], q[2], q[3]),
+                    Router.shortestPath(mapped, q[0], q[1], q[2], q[3]));
+        }
+    }
+}
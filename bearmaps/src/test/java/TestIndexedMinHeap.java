@@ -0,0 +1,73 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks <code>IndexedMinHeap</code> against a plain array of keys under random inserts,
+ * decrease-keys and polls.
+ */
+public class TestIndexedMinHeap {
+
+    @Test
+    public void testDecreaseKeyAndPoll() {
+        IndexedMinHeap heap = new IndexedMinHeap(4);
+        assertTrue(heap.offer(2, 5.0));
+        assertTrue(heap.offer(0, 3.0));
+        assertTrue(heap.offer(3, 4.0));
+        assertFalse(heap.offer(2, 6.0));
+        assertTrue(heap.offer(2, 1.0));
+        assertEquals(3, heap.size());
+        assertEquals(1.0, heap.peekKey(), 0.0);
+        assertEquals(2, heap.poll());
+        assertEquals(0, heap.poll());
+        assertEquals(3, heap.poll());
+        assertTrue(heap.isEmpty());
+        assertFalse(heap.contains(2));
+    }
+
+    @Test
+    public void testRandomOperations() {
+        int n = 500;
+        Random random = new Random(11);
+        IndexedMinHeap heap = new IndexedMinHeap(n);
+        double[] expected = new double[n];
+        for (int round = 0; round < 3; round++) {
+            Arrays.fill(expected, Double.NaN);
+            for (int op = 0; op < 5000; op++) {
+                int v = random.nextInt(n);
+                if (random.nextInt(4) > 0) {
+                    double key = random.nextInt(1000);
+                    boolean lower = Double.isNaN(expected[v]) || key < expected[v];
+                    assertEquals(lower, heap.offer(v, key));
+                    if (lower) {
+                        expected[v] = key;
+                    }
+                } else if (!heap.isEmpty()) {
+                    double min = heap.peekKey();
+                    int polled = heap.poll();
+                    assertEquals(expected[polled], min, 0.0);
+                    for (double key : expected) {
+                        assertFalse(key < min);
+                    }
+                    expected[polled] = Double.NaN;
+                }
+            }
+            int queued = 0;
+            for (int v = 0; v < n; v++) {
+                assertEquals(!Double.isNaN(expected[v]), heap.contains(v));
+                if (heap.contains(v)) {
+                    assertEquals(expected[v], heap.key(v), 0.0);
+                    queued++;
+                }
+            }
+            assertEquals(queued, heap.size());
+            heap.clear();
+            assertTrue(heap.isEmpty());
+        }
+    }
+}
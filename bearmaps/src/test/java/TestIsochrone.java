@@ -0,0 +1,89 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that every band of <code>Router.isochrone</code> holds exactly the vertices within its
+ * limit, and that each band's outline encloses them.
+ */
+public class TestIsochrone {
+    private static final String OSM_DB_PATH_SMALL = "berkeley-2018-small.osm.xml";
+    private GraphDB graph;
+
+    @Before
+    public void setUp() {
+        graph = new GraphDB(OSM_DB_PATH_SMALL);
+    }
+
+    @Test
+    public void testBandsMatchPointToPoint() {
+        double lon = -122.25207;
+        double lat = 37.8680554;
+        Isochrone isochrone = Router.isochrone(graph, lon, lat, 0.1, 0.02, 0.05);
+        assertArrayEquals(new double[] {0.02, 0.05, 0.1}, isochrone.bands, 0.0);
+        int origin = graph.closestIndex(lon, lat);
+        assertEquals(origin, isochrone.vertices[0]);
+        for (int b = 0; b < isochrone.bands.length; b++) {
+            int within = 0;
+            for (int v = 0; v < graph.size(); v++) {
+                Router.SearchStats stats = new Router.SearchStats();
+                Router.search(graph, origin, v, Heuristic.NONE, stats);
+                if (stats.distance <= isochrone.bands[b]) {
+                    within++;
+                }
+            }
+            assertEquals(within, isochrone.size(b));
+            for (int i = 0; i < isochrone.size(b); i++) {
+                Router.SearchStats stats = new Router.SearchStats();
+                Router.search(graph, origin, isochrone.vertices[i], Heuristic.NONE, stats);
+                assertEquals(stats.distance, isochrone.distances[i], 1e-12);
+                assertTrue(i == 0 || isochrone.distances[i - 1] <= isochrone.distances[i]);
+            }
+        }
+        assertTrue(isochrone.size(0) < isochrone.size(2));
+    }
+
+    @Test
+    public void testOutlineEnclosesBand() {
+        Isochrone isochrone = Router.isochrone(graph, -122.25207, 37.8680554, 1.0);
+        double[][] hull = isochrone.outline(graph, 0);
+        assertTrue(hull.length >= 3);
+        for (int i = 0; i < isochrone.size(0); i++) {
+            double x = graph.lonAt(isochrone.vertices[i]);
+            double y = graph.latAt(isochrone.vertices[i]);
+            for (int j = 0; j < hull.length; j++) {
+                double[] a = hull[j];
+                double[] c = hull[(j + 1) % hull.length];
+                double turn = (c[0] - a[0]) * (y - a[1]) - (c[1] - a[1]) * (x - a[0]);
+                assertTrue(turn >= -1e-12);
+            }
+        }
+    }
+
+    @Test
+    public void testRequestParams() {
+        Map<String, String[]> req = new HashMap<>();
+        req.put("lon", new String[] {"-122.25"});
+        req.put("lat", new String[] {"37.87"});
+        assertArrayEquals(new double[] {0.25, 0.5, 1.0},
+                IsochroneRequestParams.from(req).bands, 0.0);
+        req.put("bands", new String[] {"2, 0.5"});
+        assertArrayEquals(new double[] {2, 0.5}, IsochroneRequestParams.from(req).bands, 0.0);
+        for (String bad : new String[] {"0", "-1", "x", "100", "1,1,1,1,1,1"}) {
+            req.put("bands", new String[] {bad});
+            try {
+                IsochroneRequestParams.from(req);
+                fail("Accepted bands " + bad);
+            } catch (IllegalArgumentException expected) {
+                /* Reported to the browser as a failed request. */
+            }
+        }
+    }
+}
@@ -0,0 +1,82 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that location search matches names after cleaning away case and punctuation, that
+ * prefix search lists each distinct name once, and that exact search returns every location
+ * sharing a name.
+ */
+public class TestLocations {
+    /** A road, two places named Top Dog, one named Top-Dog! and a park. */
+    private static final String PLACES = "<osm>"
+            + "<node id=\"1\" lat=\"37.870\" lon=\"-122.260\"/>"
+            + "<node id=\"2\" lat=\"37.870\" lon=\"-122.255\"/>"
+            + "<node id=\"10\" lat=\"37.871\" lon=\"-122.259\">"
+            + "<tag k=\"name\" v=\"Top Dog\"/><tag k=\"amenity\" v=\"restaurant\"/></node>"
+            + "<node id=\"11\" lat=\"37.869\" lon=\"-122.256\">"
+            + "<tag k=\"name\" v=\"Top Dog\"/></node>"
+            + "<node id=\"12\" lat=\"37.872\" lon=\"-122.257\">"
+            + "<tag k=\"name\" v=\"Top-Dog!\"/></node>"
+            + "<node id=\"13\" lat=\"37.873\" lon=\"-122.258\">"
+            + "<tag k=\"name\" v=\"Tilden Park\"/></node>"
+            + "<way id=\"20\"><nd ref=\"1\"/><nd ref=\"2\"/>"
+            + "<tag k=\"highway\" v=\"residential\"/></way></osm>";
+    private GraphDB graph;
+
+    @Before
+    public void setUp() throws IOException {
+        graph = OsmFixtures.fromXml(PLACES);
+    }
+
+    @Test
+    public void testPrefix() {
+        assertEquals(List.of("Top Dog", "Top-Dog!"), sorted(graph.getLocationsByPrefix("top")));
+        assertEquals(List.of("Top Dog", "Top-Dog!"), sorted(graph.getLocationsByPrefix("TOP")));
+        /* "Top-Dog!" cleans to "topdog", which does not start with "top d". */
+        assertEquals(List.of("Top Dog"), graph.getLocationsByPrefix("Top D"));
+        assertEquals(List.of("Top-Dog!"), graph.getLocationsByPrefix("top-do"));
+        assertEquals(List.of("Tilden Park"), graph.getLocationsByPrefix("t.i"));
+        assertTrue(graph.getLocationsByPrefix("dog").isEmpty());
+    }
+
+    @Test
+    public void testEmptyPrefixListsEveryName() {
+        assertEquals(List.of("Tilden Park", "Top Dog", "Top-Dog!"),
+                sorted(graph.getLocationsByPrefix("")));
+        assertEquals(graph.getLocationsByPrefix(""), graph.getLocationsByPrefix("?!"));
+    }
+
+    @Test
+    public void testExactName() {
+        List<LocationParams> dogs = graph.getLocations("top dog");
+        assertEquals(2, dogs.size());
+        List<Long> ids = new ArrayList<>();
+        for (LocationParams dog : dogs) {
+            assertEquals("Top Dog", dog.name);
+            assertEquals(dog.id == 10 ? 37.871 : 37.869, dog.lat, 1e-9);
+            assertEquals(dog.id == 10 ? -122.259 : -122.256, dog.lon, 1e-9);
+            ids.add(dog.id);
+        }
+        Collections.sort(ids);
+        assertEquals(List.of(10L, 11L), ids);
+
+        assertEquals(1, graph.getLocations("TOPDOG").size());
+        assertEquals(12L, graph.getLocations("topdog").get(0).id);
+        assertTrue(graph.getLocations("top").isEmpty());
+        assertTrue(graph.getLocations("").isEmpty());
+    }
+
+    private static List<String> sorted(List<String> names) {
+        List<String> copy = new ArrayList<>(names);
+        Collections.sort(copy);
+        return copy;
+    }
+}
@@ -0,0 +1,197 @@
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that the parallel <code>OsmXmlScanner</code> pipeline reads exactly what the SAX
+ * <code>GraphBuildingHandler</code> reads, however the input is split into blocks.
+ */
+public class TestOsmIngest {
+    private static final String OSM_DB_PATH_SMALL = "berkeley-2018-small.osm.xml";
+
+    private static final String TRICKY = "<?xml version='1.0' encoding='UTF-8'?>\n"
+            + "<!-- a comment -> with <b>markup</b> -->\n"
+            + "<osm version=\"0.6\">\n"
+            + " <bounds minlat=\"37.8\" minlon=\"-122.3\" maxlat=\"37.9\" maxlon=\"-122.2\"/>\n"
+            + " <node id='1' lat='37.8700000' lon='-122.2500000'/>\n"
+            + " <node id=\"2\" version=\"3\" lat=\"37.87\" lon=\"-122.251\">\n"
+            + "  <tag k=\"name\" v=\"A &amp; B\"/>\n"
+            + " </node>\n"
+            + " <node id=\"3\" lat=\"3.78712345678901234e1\" lon=\"-122.252\"></node>\n"
+            + " <node id=\"4\" lat=\"-0.5\" lon=\"0\"/>\n"
+            + " <way id=\"10\">\n"
+            + "  <nd ref=\"1\"/>\n"
+            + "  <nd ref=\"2\"/>\n"
+            + "  <nd ref=\"3\"/>\n"
+            + "  <tag k=\"highway\" v=\"residential\"/>\n"
+            + "  <tag k=\"name\" v=\"O&apos;Neill &#x26; &#8212; &lt;Way&gt; &quot;St&quot;\"/>\n"
+            + " </way>\n"
+            + " <way id=\"11\"><nd ref=\"3\"/><nd ref=\"4\"/>"
+            + "<tag k=\"highway\" v=\"footway\"/></way>\n"
+            + " <way id=\"12\"><nd ref=\"4\"/><tag k=\"highway\" v=\"primary\"/></way>\n"
+            + " <way id=\"13\"/>\n"
+            + " <relation id=\"20\"><member type=\"way\" ref=\"10\" role=\"\"/>"
+            + "<relation id=\"21\"/></relation>\n"
+            + " <way id='14'><nd ref='4'/><nd ref='1'/><tag k='name' v='Last'/>"
+            + "<tag k='highway' v='tertiary'/></way>\n"
+            + "</osm>\n";
+
+    @Test
+    public void testMatchesSaxOnSmallFile() throws IOException {
+        byte[] xml = Files.readAllBytes(Paths.get(OSM_DB_PATH_SMALL));
+        OsmData expected = OsmIngest.readWithSax(new ByteArrayInputStream(xml));
+        assertSame(expected, OsmIngest.read(new ByteArrayInputStream(xml), 1));
+        assertSame(expected, OsmIngest.read(new ByteArrayInputStream(xml), 3, 1 << 10,
+                OsmIngest.Pass.ALL));
+    }
+
+    @Test
+    public void testMatchesSaxOnTrickyInput() throws IOException {
+        byte[] xml = TRICKY.getBytes(StandardCharsets.UTF_8);
+        OsmData expected = OsmIngest.readWithSax(new ByteArrayInputStream(xml));
+        assertEquals(4, expected.nodeCount);
+        assertEquals(2, expected.wayCount);
+        assertEquals("O'Neill & \u2014 <Way> \"St\"", expected.strings.get(expected.wayNames[0]));
+        assertEquals(1, expected.poiCount);
+        assertEquals("A & B", expected.strings.get(expected.poiNames[0]));
+        for (int blockBytes = 16; blockBytes <= xml.length; blockBytes += 37) {
+            assertSame(expected, OsmIngest.read(new ByteArrayInputStream(xml), 2, blockBytes,
+                    OsmIngest.Pass.ALL));
+        }
+    }
+
+    @Test
+    public void testTwoPassKeepsReferencedNodes() throws IOException {
+        OsmData onePass = OsmIngest.read(Paths.get(OSM_DB_PATH_SMALL), 2, false);
+        OsmData twoPass = OsmIngest.read(Paths.get(OSM_DB_PATH_SMALL), 2, true);
+        long[] referenced = onePass.referencedNodes();
+        int kept = 0;
+        for (int i = 0; i < onePass.nodeCount; i++) {
+            if (Arrays.binarySearch(referenced, onePass.nodeIds[i]) < 0) {
+                continue;
+            }
+            assertEquals(onePass.nodeIds[i], twoPass.nodeIds[kept]);
+            assertEquals(onePass.nodeLons[i], twoPass.nodeLons[kept], 0.0);
+            assertEquals(onePass.nodeLats[i], twoPass.nodeLats[kept], 0.0);
+            kept++;
+        }
+        assertEquals(kept, twoPass.nodeCount);
+        assertTrue(twoPass.nodeCount < onePass.nodeCount);
+
+        /* Apart from the unreferenced nodes, both reads agree. */
+        twoPass.nodeCount = onePass.nodeCount;
+        twoPass.nodeIds = onePass.nodeIds;
+        twoPass.nodeLons = onePass.nodeLons;
+        twoPass.nodeLats = onePass.nodeLats;
+        assertSame(onePass, twoPass);
+    }
+
+    @Test
+    public void testCompressedInput() throws Exception {
+        Path raw = Paths.get(OSM_DB_PATH_SMALL);
+        OsmData expected = OsmIngest.read(raw, 1, false);
+        Path dir = Files.createTempDirectory("bearmaps-osm");
+        try {
+            Path gzip = dir.resolve("small.osm.xml.gz");
+            try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(gzip))) {
+                Files.copy(raw, out);
+            }
+            assertEquals(OsmInput.Format.GZIP, OsmInput.format(gzip));
+            assertSame(expected, OsmIngest.read(gzip, 2, false));
+
+            for (String tool : new String[] {"bzip2", "xz"}) {
+                Path compressed = dir.resolve("small.osm." + tool);
+                try {
+                    Process p = new ProcessBuilder(tool, "-c", raw.toString())
+                            .redirectOutput(compressed.toFile()).start();
+                    if (p.waitFor() != 0) {
+                        continue;
+                    }
+                } catch (IOException e) {
+                    /* The tool is not installed, so the format cannot be read either. */
+                    continue;
+                }
+                assertEquals(tool.equals("xz") ? OsmInput.Format.XZ : OsmInput.Format.BZIP2,
+                        OsmInput.format(compressed));
+                assertSame(expected, OsmIngest.read(compressed, 2, false));
+            }
+        } finally {
+            for (File f : dir.toFile().listFiles()) {
+                f.delete();
+            }
+            Files.delete(dir);
+        }
+    }
+
+    @Test
+    public void testUnsortedNodes() throws IOException {
+        String xml = "<osm><node id=\"5\" lat=\"1\" lon=\"1\"/><node id=\"2\" lat=\"2\" lon=\"2\"/>"
+                + "<node id=\"5\" lat=\"3\" lon=\"3\"/></osm>";
+        InputStream in = new ByteArrayInputStream(xml.getBytes(StandardCharsets.UTF_8));
+        OsmData data = OsmIngest.read(in, 1);
+        data.sortNodes();
+        assertEquals(2, data.nodeCount);
+        assertEquals(0, data.findNode(2));
+        assertEquals(3.0, data.nodeLats[data.findNode(5)], 0.0);
+    }
+
+    static void assertSame(OsmData expected, OsmData actual) {
+        assertEquals(expected.nodeCount, actual.nodeCount);
+        assertArrayEquals(Arrays.copyOf(expected.nodeIds, expected.nodeCount),
+                Arrays.copyOf(actual.nodeIds, actual.nodeCount));
+        assertArrayEquals(Arrays.copyOf(expected.nodeLons, expected.nodeCount),
+                Arrays.copyOf(actual.nodeLons, actual.nodeCount), 0.0);
+        assertArrayEquals(Arrays.copyOf(expected.nodeLats, expected.nodeCount),
+                Arrays.copyOf(actual.nodeLats, actual.nodeCount), 0.0);
+        assertEquals(expected.wayCount, actual.wayCount);
+        assertArrayEquals(Arrays.copyOf(expected.wayIds, expected.wayCount),
+                Arrays.copyOf(actual.wayIds, actual.wayCount));
+        assertArrayEquals(Arrays.copyOf(expected.wayRefStart, expected.wayCount + 1),
+                Arrays.copyOf(actual.wayRefStart, actual.wayCount + 1));
+        int refs = expected.wayRefStart[expected.wayCount];
+        assertArrayEquals(Arrays.copyOf(expected.wayRefs, refs),
+                Arrays.copyOf(actual.wayRefs, refs));
+        assertEquals(decode(expected, expected.wayTypes, expected.wayCount),
+                decode(actual, actual.wayTypes, actual.wayCount));
+        assertEquals(decode(expected, expected.wayNames, expected.wayCount),
+                decode(actual, actual.wayNames, actual.wayCount));
+        assertEquals(expected.poiCount, actual.poiCount);
+        assertArrayEquals(Arrays.copyOf(expected.poiIds, expected.poiCount),
+                Arrays.copyOf(actual.poiIds, actual.poiCount));
+        assertArrayEquals(Arrays.copyOf(expected.poiLons, expected.poiCount),
+                Arrays.copyOf(actual.poiLons, actual.poiCount), 0.0);
+        assertArrayEquals(Arrays.copyOf(expected.poiLats, expected.poiCount),
+                Arrays.copyOf(actual.poiLats, actual.poiCount), 0.0);
+        assertEquals(decode(expected, expected.poiNames, expected.poiCount),
+                decode(actual, actual.poiNames, actual.poiCount));
+        assertEquals(decode(expected, expected.poiAmenities, expected.poiCount),
+                decode(actual, actual.poiAmenities, actual.poiCount));
+        assertEquals(decode(expected, expected.poiAddresses, expected.poiCount),
+                decode(actual, actual.poiAddresses, actual.poiCount));
+    }
+
+    /** Decodes a column of string codes; the codes themselves depend on the input order. */
+    private static List<String> decode(OsmData data, int[] codes, int count) {
+        List<String> strings = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            strings.add(data.strings.get(codes[i]));
+        }
+        return strings;
+    }
+}
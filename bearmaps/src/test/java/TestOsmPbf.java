@@ -0,0 +1,67 @@
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks <code>OsmPbfReader</code> against the XML reader, using
+ * <code>berkeley-2018-small.osm.pbf</code>, which was generated from
+ * <code>berkeley-2018-small.osm.xml</code> with <code>OsmPbfWriter</code>.
+ */
+public class TestOsmPbf {
+    private static final String OSM_DB_PATH_SMALL = "berkeley-2018-small.osm.xml";
+    private static final String PBF_PATH_SMALL = "berkeley-2018-small.osm.pbf";
+
+    @Test
+    public void testFixtureMatchesXml() throws IOException {
+        OsmData xml = OsmIngest.read(Paths.get(OSM_DB_PATH_SMALL), 1, false);
+        OsmData pbf = OsmIngest.read(Paths.get(PBF_PATH_SMALL), 2, false);
+        assertTrue(pbf.poiCount > 0);
+        TestOsmIngest.assertSame(xml, pbf);
+
+        OsmData xmlTwoPass = OsmIngest.read(Paths.get(OSM_DB_PATH_SMALL), 1, true);
+        OsmData pbfTwoPass = OsmIngest.read(Paths.get(PBF_PATH_SMALL), 2, true);
+        TestOsmIngest.assertSame(xmlTwoPass, pbfTwoPass);
+    }
+
+    @Test
+    public void testWriterRoundTrip() throws IOException {
+        OsmData data = OsmIngest.read(Paths.get(OSM_DB_PATH_SMALL), 1, false);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OsmPbfWriter.write(data, out);
+        OsmData read = OsmPbfReader.read(new ByteArrayInputStream(out.toByteArray()), 1,
+                OsmIngest.Pass.ALL);
+        TestOsmIngest.assertSame(data, read);
+    }
+
+    @Test
+    public void testGraphsAgree() {
+        System.setProperty("bearmaps.cache", "false");
+        try {
+            GraphDB xml = new GraphDB(OSM_DB_PATH_SMALL);
+            GraphDB pbf = new GraphDB(PBF_PATH_SMALL);
+            List<Long> expected = new ArrayList<>();
+            List<Long> actual = new ArrayList<>();
+            xml.vertices().forEach(expected::add);
+            pbf.vertices().forEach(actual::add);
+            assertEquals(expected, actual);
+            for (long v : expected) {
+                assertEquals(xml.lon(v), pbf.lon(v), 0.0);
+                assertEquals(xml.lat(v), pbf.lat(v), 0.0);
+                assertEquals(xml.adjacent(v), pbf.adjacent(v));
+            }
+            double[] q = {-122.25207, 37.8680554, -122.2533957, 37.8684518};
+            assertEquals(Router.shortestPath(xml, q[0], q[1], q[2], q[3]),
+                    Router.shortestPath(pbf, q[0], q[1], q[2], q[3]));
+        } finally {
+            System.clearProperty("bearmaps.cache");
+        }
+    }
+}
@@ -0,0 +1,92 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that each <code>Profile</code> weighs edges by its own speeds, that routes for a
+ * profile are its quickest ones, and that route requests name profiles.
+ */
+public class TestProfiles {
+    private static final String OSM_DB_PATH_SMALL = "berkeley-2018-small.osm.xml";
+    /**
+     * Two roads between vertices 1 and 4: a residential street through 2, and a motorway
+     * through 3 that is longer but, at motorway speed, quicker. Vertex 5 is reachable only by
+     * motorway.
+     */
+    private static final String TWO_ROADS = "<osm>"
+            + "<node id=\"1\" lat=\"37.870\" lon=\"-122.260\"/>"
+            + "<node id=\"2\" lat=\"37.871\" lon=\"-122.250\"/>"
+            + "<node id=\"3\" lat=\"37.880\" lon=\"-122.250\"/>"
+            + "<node id=\"4\" lat=\"37.870\" lon=\"-122.240\"/>"
+            + "<node id=\"5\" lat=\"37.890\" lon=\"-122.240\"/>"
+            + "<way id=\"10\"><nd ref=\"1\"/><nd ref=\"2\"/><nd ref=\"4\"/>"
+            + "<tag k=\"highway\" v=\"residential\"/></way>"
+            + "<way id=\"11\"><nd ref=\"1\"/><nd ref=\"3\"/><nd ref=\"4\"/><nd ref=\"5\"/>"
+            + "<tag k=\"highway\" v=\"motorway\"/></way></osm>";
+
+    @Test
+    public void testTwoRoads() throws IOException {
+        GraphDB graph = OsmFixtures.fromXml(TWO_ROADS);
+        for (int e = 0; e < graph.adjacency().numEdges(); e++) {
+            double speed = graph.wayType(e).equals("motorway") ? 65 : 25;
+            assertEquals(graph.adjacency().weight(e) * 3600 / speed,
+                    graph.adjacency(Profile.DRIVE).weight(e), 1e-3);
+        }
+
+        assertEquals(Arrays.asList(1L, 2L, 4L),
+                Router.shortestPath(graph, -122.26, 37.87, -122.24, 37.87, Profile.DISTANCE));
+        assertEquals(Arrays.asList(1L, 3L, 4L),
+                Router.shortestPath(graph, -122.26, 37.87, -122.24, 37.87, Profile.DRIVE));
+        assertEquals(Arrays.asList(1L, 2L, 4L),
+                Router.shortestPath(graph, -122.26, 37.87, -122.24, 37.87, Profile.WALK));
+        assertEquals(Collections.emptyList(),
+                Router.shortestPath(graph, -122.26, 37.87, -122.24, 37.89, Profile.BIKE));
+    }
+
+    @Test
+    public void testQuickest() {
+        GraphDB graph = new GraphDB(OSM_DB_PATH_SMALL);
+        for (Profile profile : Profile.values()) {
+            CSRGraph adjacency = graph.adjacency(profile);
+            for (int s = 0; s < graph.size(); s++) {
+                for (int t = 0; t < graph.size(); t++) {
+                    Router.SearchStats dijkstra = new Router.SearchStats();
+                    Router.search(graph, adjacency, s, t, Heuristic.NONE, dijkstra);
+                    Router.SearchStats astar = new Router.SearchStats();
+                    Router.search(graph, adjacency, s, t, profile.heuristic(graph), astar);
+                    assertEquals(dijkstra.distance, astar.distance, 1e-9);
+                    Router.SearchStats bidirectional = new Router.SearchStats();
+                    Router.bidirectionalSearch(graph, adjacency, s, t, profile.heuristic(graph),
+                            bidirectional);
+                    assertEquals(dijkstra.distance, bidirectional.distance, 1e-9);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testRequestParams() {
+        Map<String, String[]> req = new HashMap<>();
+        req.put("start_lon", new String[] {"-122.26"});
+        req.put("start_lat", new String[] {"37.87"});
+        req.put("end_lon", new String[] {"-122.24"});
+        req.put("end_lat", new String[] {"37.86"});
+        assertEquals(Profile.DISTANCE, RouteRequestParams.from(req).profile);
+        req.put("profile", new String[] {"Bike"});
+        assertEquals(Profile.BIKE, RouteRequestParams.from(req).profile);
+        req.put("profile", new String[] {"skate"});
+        try {
+            RouteRequestParams.from(req);
+            fail("Expected an unknown profile to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+}
@@ -0,0 +1,48 @@
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Checks that <code>RouteCache</code> shares entries between requests that snap to the same
+ * vertices, counts hits and misses, evicts the least recently used route, and starts empty for
+ * every graph.
+ */
+public class TestRouteCache {
+    private static final String OSM_DB_PATH_SMALL = "berkeley-2018-small.osm.xml";
+
+    @Test
+    public void testHitsAndMisses() {
+        GraphDB graph = new GraphDB(OSM_DB_PATH_SMALL);
+        RouteCache cache = new RouteCache(graph, 2);
+        RouteCache.Route first = cache.route(-122.25207, 37.8680554, -122.2533957, 37.8684518);
+        assertEquals(Router.shortestPath(graph, -122.25207, 37.8680554, -122.2533957,
+                37.8684518), first.path);
+        assertEquals(Router.routeDirections(graph, first.path).toString(),
+                first.directions.toString());
+        /* A click a few feet away snaps to the same vertices. */
+        assertSame(first, cache.route(-122.2520701, 37.8680555, -122.2533956, 37.8684517));
+        assertEquals(1, cache.hits());
+        assertEquals(1, cache.misses());
+
+        RouteCache.Route second = cache.route(-122.2533957, 37.8684518, -122.25207, 37.8680554);
+        assertSame(first, cache.route(-122.25207, 37.8680554, -122.2533957, 37.8684518));
+        RouteCache.Route third = cache.route(-122.25207, 37.8680554, -122.25207, 37.8680554);
+        assertEquals(2, cache.size());
+        /* The second route was used least recently, so it made room for the third. */
+        assertSame(first, cache.route(-122.25207, 37.8680554, -122.2533957, 37.8684518));
+        assertSame(third, cache.route(-122.25207, 37.8680554, -122.25207, 37.8680554));
+        assertNotSame(second, cache.route(-122.2533957, 37.8684518, -122.25207, 37.8680554));
+        assertEquals(4, cache.hits());
+        assertEquals(4, cache.misses());
+    }
+
+    @Test
+    public void testNewGraphStartsEmpty() {
+        GraphDB graph = new GraphDB(OSM_DB_PATH_SMALL);
+        graph.routeCache().route(-122.25207, 37.8680554, -122.2533957, 37.8684518);
+        assertEquals(1, graph.routeCache().size());
+        assertEquals(0, new GraphDB(OSM_DB_PATH_SMALL).routeCache().size());
+    }
+}
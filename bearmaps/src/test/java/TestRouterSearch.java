@@ -0,0 +1,150 @@
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that A* with the great-circle heuristic finds routes exactly as long as Dijkstra's
+ * while settling no more vertices, that the heuristic never overestimates, that the landmark
+ * heuristic is admissible and consistent, that the bidirectional search finds the same routes
+ * as the unidirectional one, and that searches reusing per-thread workspaces never see each
+ * other's state.
+ */
+public class TestRouterSearch {
+    private static final String OSM_DB_PATH_SMALL = "berkeley-2018-small.osm.xml";
+    private GraphDB graph;
+
+    @Before
+    public void setUp() {
+        graph = new GraphDB(OSM_DB_PATH_SMALL);
+    }
+
+    @Test
+    public void testAStarMatchesDijkstra() {
+        Heuristic greatCircle = Heuristic.greatCircle(graph);
+        for (int s = 0; s < graph.size(); s++) {
+            for (int t = 0; t < graph.size(); t++) {
+                Router.SearchStats dijkstra = new Router.SearchStats();
+                Router.SearchStats aStar = new Router.SearchStats();
+                Router.search(graph, s, t, Heuristic.NONE, dijkstra);
+                Router.search(graph, s, t, greatCircle, aStar);
+                assertEquals(dijkstra.distance, aStar.distance, 1e-12);
+                assertTrue(aStar.settled <= dijkstra.settled);
+                if (dijkstra.distance < Double.POSITIVE_INFINITY) {
+                    assertTrue(greatCircle.estimate(s, t) <= dijkstra.distance);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testLandmarksMatchDijkstra() {
+        Landmarks landmarks = Landmarks.build(graph, 4, 2);
+        assertEquals(4, landmarks.count());
+        for (int t = 0; t < graph.size(); t++) {
+            int target = t;
+            for (int v = 0; v < graph.size(); v++) {
+                int from = v;
+                graph.forEachNeighbor(v, (u, w, weight, edge) -> assertTrue(
+                        landmarks.estimate(from, target)
+                                <= weight + landmarks.estimate(w, target)));
+            }
+        }
+        for (int s = 0; s < graph.size(); s++) {
+            for (int t = 0; t < graph.size(); t++) {
+                Router.SearchStats dijkstra = new Router.SearchStats();
+                Router.SearchStats alt = new Router.SearchStats();
+                Router.search(graph, s, t, Heuristic.NONE, dijkstra);
+                Router.search(graph, s, t, landmarks, alt);
+                assertEquals(dijkstra.distance, alt.distance, 1e-12);
+                if (dijkstra.distance < Double.POSITIVE_INFINITY) {
+                    assertTrue(landmarks.estimate(s, t) <= dijkstra.distance);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testBidirectionalMatchesUnidirectional() {
+        for (Heuristic heuristic : new Heuristic[] {Heuristic.NONE, Heuristic.greatCircle(graph)}) {
+            for (int s = 0; s < graph.size(); s++) {
+                for (int t = 0; t < graph.size(); t++) {
+                    Router.SearchStats one = new Router.SearchStats();
+                    Router.SearchStats both = new Router.SearchStats();
+                    List<Long> expected = Router.pathFinder(graph,
+                            Router.search(graph, s, t, heuristic, one), s, t);
+                    List<Long> actual = Router.pathFinder(graph,
+                            Router.bidirectionalSearch(graph, s, t, heuristic, both), s, t);
+                    assertEquals(expected, actual);
+                    assertEquals(one.distance, both.distance, 1e-12);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testWorkspaceReuse() throws Exception {
+        int n = graph.size();
+        List<List<Long>> expected = new ArrayList<>();
+        for (int s = 0; s < n; s++) {
+            for (int t = 0; t < n; t++) {
+                expected.add(Router.pathFinder(graph, Router.search(graph, s, t, Heuristic.NONE,
+                        new Router.SearchStats()), s, t));
+            }
+        }
+        /* Cross the point where the epoch stamps wrap around. */
+        SearchWorkspace.begin(n).epoch = Integer.MAX_VALUE - n;
+        Heuristic greatCircle = Heuristic.greatCircle(graph);
+        for (int s = 0; s < n; s++) {
+            for (int t = 0; t < n; t++) {
+                assertEquals(expected.get(s * n + t), Router.pathFinder(graph,
+                        Router.search(graph, s, t, greatCircle, new Router.SearchStats()), s, t));
+            }
+        }
+
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Boolean>> results = new ArrayList<>();
+            for (int i = 0; i < 8; i++) {
+                results.add(pool.submit(() -> {
+                    for (int s = 0; s < n; s++) {
+                        for (int t = 0; t < n; t++) {
+                            List<Long> route = Router.pathFinder(graph, Router.bidirectionalSearch(
+                                    graph, s, t, greatCircle, new Router.SearchStats()), s, t);
+                            if (!route.equals(expected.get(s * n + t))) {
+                                return false;
+                            }
+                        }
+                    }
+                    return true;
+                }));
+            }
+            for (Future<Boolean> result : results) {
+                assertTrue(result.get());
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    @Test
+    public void testRouteEndpoints() {
+        Router.SearchStats stats = new Router.SearchStats();
+        List<Long> route = Router.shortestPath(graph, -122.25207, 37.8680554, -122.2533957,
+                37.8684518, Heuristic.greatCircle(graph), stats);
+        assertEquals(graph.closest(-122.25207, 37.8680554), (long) route.get(0));
+        assertEquals(graph.closest(-122.2533957, 37.8684518), (long) route.get(route.size() - 1));
+        double length = 0;
+        for (int i = 1; i < route.size(); i++) {
+            length += graph.distance(route.get(i - 1), route.get(i));
+        }
+        assertEquals(length, stats.distance, 1e-6);
+    }
+}
@@ -0,0 +1,122 @@
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that <code>TripPlanner</code> solves small instances whose best order is known, that
+ * <code>Router.trip</code> joins its legs into one route through every stop, and that trip
+ * requests are validated.
+ */
+public class TestTrip {
+    private static final String OSM_DB_PATH_SMALL = "berkeley-2018-small.osm.xml";
+    private static final long SECOND = 1_000_000_000L;
+
+    @Test
+    public void testVisitOrder() {
+        /* Stops around a circle, numbered in a shuffled order: the best tour goes round it. */
+        int n = 40;
+        int[] position = new int[n];
+        for (int i = 0; i < n; i++) {
+            position[i] = i;
+        }
+        Random random = new Random(22);
+        for (int i = n - 1; i > 1; i--) {
+            int j = 1 + random.nextInt(i);
+            int swap = position[i];
+            position[i] = position[j];
+            position[j] = swap;
+        }
+        double[] table = new double[n * n];
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                double angle = 2 * Math.PI * (position[i] - position[j]) / n;
+                table[i * n + j] = Math.hypot(1 - Math.cos(angle), Math.sin(angle));
+            }
+        }
+        int[] order = TripPlanner.visitOrder(table, n, true, System.nanoTime() + SECOND);
+        assertEquals(0, order[0]);
+        assertEquals(n * 2 * Math.sin(Math.PI / n), TripPlanner.length(table, n, order, true),
+                1e-9);
+
+        /* Stops along a line, starting from one end: an open trip visits them left to right. */
+        for (int i = 0; i < n; i++) {
+            for (int j = 0; j < n; j++) {
+                table[i * n + j] = Math.abs(position[i] - position[j]);
+            }
+        }
+        order = TripPlanner.visitOrder(table, n, false, System.nanoTime() + SECOND);
+        for (int k = 0; k < n; k++) {
+            assertEquals(k, position[order[k]]);
+        }
+    }
+
+    @Test
+    public void testTripOnGraph() {
+        GraphDB graph = new GraphDB(OSM_DB_PATH_SMALL);
+        int[] stops = {3, 17, 0, 9, 12, 5};
+        double[] lons = new double[stops.length];
+        double[] lats = new double[stops.length];
+        for (int i = 0; i < stops.length; i++) {
+            lons[i] = graph.lonAt(stops[i]);
+            lats[i] = graph.latAt(stops[i]);
+        }
+        for (boolean roundTrip : new boolean[] {true, false}) {
+            Trip trip = Router.trip(graph, lons, lats, roundTrip);
+            assertEquals(stops.length, trip.order.length);
+            assertEquals(0, trip.order[0]);
+            Set<Integer> visited = new HashSet<>();
+            for (int i : trip.order) {
+                visited.add(i);
+            }
+            assertEquals(stops.length, visited.size());
+
+            List<Long> path = trip.path;
+            assertEquals(graph.id(stops[0]), (long) path.get(0));
+            long end = roundTrip ? graph.id(stops[0])
+                    : graph.id(stops[trip.order[stops.length - 1]]);
+            assertEquals(end, (long) path.get(path.size() - 1));
+            for (int stop : stops) {
+                assertTrue(path.contains(graph.id(stop)));
+            }
+            double length = 0;
+            for (int i = 1; i < path.size(); i++) {
+                length += graph.distance(path.get(i - 1), path.get(i));
+            }
+            assertEquals(trip.distance, length, 1e-9);
+        }
+    }
+
+    @Test
+    public void testRequestParams() {
+        Map<String, String[]> req = new HashMap<>();
+        req.put("stops", new String[] {"-122.26,37.87;-122.25,37.86;-122.24,37.88"});
+        TripRequestParams params = TripRequestParams.from(req);
+        assertArrayEquals(new double[] {-122.26, -122.25, -122.24}, params.lons, 0.0);
+        assertTrue(params.roundTrip);
+        req.put("roundtrip", new String[] {"false"});
+        assertEquals(false, TripRequestParams.from(req).roundTrip);
+
+        for (String[] bad : Arrays.asList(new String[] {"stops", "-122.26,37.87"},
+                new String[] {"roundtrip", "maybe"})) {
+            Map<String, String[]> badReq = new HashMap<>(req);
+            badReq.put(bad[0], new String[] {bad[1]});
+            try {
+                TripRequestParams.from(badReq);
+                fail("Expected " + bad[0] + "=" + bad[1] + " to be rejected");
+            } catch (IllegalArgumentException e) {
+                // expected
+            }
+        }
+    }
+}
@@ -0,0 +1,166 @@
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that a <code>WeightOverlay</code> merges updates, that routes avoid closed and slowed
+ * roads without the graph being rebuilt while searches already under way keep their weights,
+ * and that a <code>WeightFeed</code> applies the lines appended to its file to every way they
+ * name, starting over when the file is replaced.
+ */
+public class TestWeightOverlay {
+    private static final String OSM_DB_PATH_SMALL = "berkeley-2018-small.osm.xml";
+    /** Two ways that both join node 1 to node 2. */
+    private static final String PARALLEL = "<osm>"
+            + "<node id=\"1\" lat=\"37.870\" lon=\"-122.260\"/>"
+            + "<node id=\"2\" lat=\"37.870\" lon=\"-122.255\"/>"
+            + "<way id=\"10\"><nd ref=\"1\"/><nd ref=\"2\"/>"
+            + "<tag k=\"highway\" v=\"residential\"/></way>"
+            + "<way id=\"11\"><nd ref=\"1\"/><nd ref=\"2\"/>"
+            + "<tag k=\"highway\" v=\"tertiary\"/></way></osm>";
+
+    @Test
+    public void testWith() {
+        WeightOverlay overlay = WeightOverlay.EMPTY.with(new int[] {7, 3, 7, 5},
+                new float[] {2, 4, 3, Float.POSITIVE_INFINITY});
+        assertEquals(3, overlay.size());
+        assertEquals(3, overlay.factor(7), 0.0f);
+        assertEquals(4, overlay.factor(3), 0.0f);
+        assertEquals(Float.POSITIVE_INFINITY, overlay.factor(5), 0.0f);
+        assertEquals(1, overlay.factor(6), 0.0f);
+
+        WeightOverlay next = overlay.with(new int[] {3, 1}, new float[] {1, 1.5f});
+        assertEquals(3, next.size());
+        assertEquals(1, next.factor(3), 0.0f);
+        assertEquals(1.5f, next.factor(1), 0.0f);
+        assertEquals(4, overlay.factor(3), 0.0f);
+        assertTrue(WeightOverlay.EMPTY.isEmpty());
+        try {
+            overlay.with(new int[] {2}, new float[] {0.5f});
+            fail("Expected a factor below 1 to be rejected");
+        } catch (IllegalArgumentException e) {
+            // expected
+        }
+    }
+
+    @Test
+    public void testClosures() {
+        GraphDB graph = new GraphDB(OSM_DB_PATH_SMALL);
+        int source = 0;
+        int dest = 0;
+        List<Long> before = null;
+        for (int t = 0; t < graph.size(); t++) {
+            List<Long> path = Router.shortestPath(graph, source, t);
+            if (before == null || path.size() > before.size()) {
+                dest = t;
+                before = path;
+            }
+        }
+        RouteCache cache = graph.routeCache();
+        double lon = graph.lonAt(dest);
+        double lat = graph.latAt(dest);
+        assertEquals(before, cache.route(graph.lonAt(source), graph.latAt(source), lon, lat).path);
+
+        /* Close the first road segment of the route, in its direction of travel. */
+        int first = graph.edgeIndex(source, graph.indexOf(before.get(1)));
+        CSRGraph running = graph.adjacency(Profile.DISTANCE);
+        graph.updateWeights(new int[] {first}, new float[] {Float.POSITIVE_INFINITY});
+        assertEquals(graph.adjacency().weight(first), running.weight(first), 0.0f);
+        assertEquals(Float.POSITIVE_INFINITY, graph.adjacency(Profile.DISTANCE).weight(first),
+                0.0f);
+        assertEquals(Float.POSITIVE_INFINITY, graph.adjacency(Profile.DRIVE).weight(first),
+                0.0f);
+
+        List<Long> after = cache.route(graph.lonAt(source), graph.latAt(source), lon, lat).path;
+        assertNotEquals(before, after);
+        for (int i = 1; i < after.size(); i++) {
+            assertFalse(after.get(i - 1).equals(before.get(0))
+                    && after.get(i).equals(before.get(1)));
+            assertFalse(after.get(i - 1).equals(before.get(1))
+                    && after.get(i).equals(before.get(0)));
+        }
+
+        graph.updateWeights(new int[] {first}, new float[] {1});
+        assertTrue(graph.weightOverlay().isEmpty());
+        assertEquals(before, Router.shortestPath(graph, source, dest));
+        graph.updateWeights(new int[] {first}, new float[] {2});
+        assertEquals(2 * graph.adjacency().weight(first),
+                graph.adjacency(Profile.DISTANCE).weight(first), 0.0f);
+        graph.clearWeights();
+        assertSame(graph.adjacency(), graph.adjacency(Profile.DISTANCE));
+    }
+
+    @Test
+    public void testFeed() throws IOException {
+        GraphDB graph = new GraphDB(OSM_DB_PATH_SMALL);
+        int from = 0;
+        int to = graph.adjacency().target(graph.adjacency().firstEdge(from));
+        int edge = graph.edgeIndex(from, to);
+        int reverse = graph.edgeIndex(to, from);
+        String segment = graph.id(from) + " " + graph.id(to);
+
+        Path file = Files.createTempFile("weights", ".txt");
+        file.toFile().deleteOnExit();
+        WeightFeed feed = new WeightFeed(graph, file);
+        Files.write(file, ("# slowdowns\n" + segment + " 3\n1 2 closed\n" + segment)
+                .getBytes(StandardCharsets.UTF_8));
+        assertEquals(1, feed.poll());
+        assertEquals(3, graph.weightOverlay().factor(edge), 0.0f);
+        assertEquals(3, graph.weightOverlay().factor(reverse), 0.0f);
+
+        /* The unfinished line is applied once it is complete. */
+        Files.write(file, " closed\n".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+        assertEquals(1, feed.poll());
+        assertEquals(Float.POSITIVE_INFINITY, graph.weightOverlay().factor(edge), 0.0f);
+        assertEquals(0, feed.poll());
+
+        Files.write(file, (segment + " 2\nclear\n").getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+        assertEquals(0, feed.poll());
+        assertTrue(graph.weightOverlay().isEmpty());
+
+        /* A replaced file lifts every adjustment the old one made. */
+        Files.write(file, (segment + " 4\n").getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+        assertEquals(1, feed.poll());
+        Files.write(file, "# none\n".getBytes(StandardCharsets.UTF_8));
+        assertEquals(0, feed.poll());
+        assertTrue(graph.weightOverlay().isEmpty());
+    }
+
+    @Test
+    public void testFeedParallelWays() throws IOException {
+        GraphDB graph = OsmFixtures.fromXml(PARALLEL);
+        int from = graph.indexOf(1);
+        int to = graph.indexOf(2);
+        int[] edges = graph.edgeIndices(from, to);
+        assertEquals(2, edges.length);
+
+        Path file = Files.createTempFile("weights", ".txt");
+        file.toFile().deleteOnExit();
+        Files.write(file, "1 2 closed\n".getBytes(StandardCharsets.UTF_8));
+        assertEquals(1, new WeightFeed(graph, file).poll());
+        for (int edge : edges) {
+            assertEquals(Float.POSITIVE_INFINITY, graph.weightOverlay().factor(edge), 0.0f);
+        }
+        for (int edge : graph.edgeIndices(to, from)) {
+            assertEquals(Float.POSITIVE_INFINITY, graph.weightOverlay().factor(edge), 0.0f);
+        }
+        assertEquals(Double.POSITIVE_INFINITY,
+                Router.search(graph, from, to, Heuristic.NONE, new Router.SearchStats())
+                        .forwardDistance(to), 0.0);
+    }
+}